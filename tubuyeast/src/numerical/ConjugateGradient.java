@@ -84,6 +84,11 @@ public class ConjugateGradient {
      * Number of particles in the system
      */
     private int n = 0;
+    
+    /**
+     * Iterations performed by the last solve
+     */
+    private int iterations = 0;
         
     private FlexCompRowMatrix[] Si;
     private DenseMatrix identity;
@@ -93,7 +98,7 @@ public class ConjugateGradient {
      * @param n the number of particles in the system
      */
     public ConjugateGradient(int n ) {
-//        n = particles2.size();
+        this.n = n;
         r = new DenseVector(2*n);
         rf = new DenseVector(2*n);
         rT = new DenseMatrix(1, 2*n);
@@ -187,6 +192,7 @@ public class ConjugateGradient {
         deltaNew = unitVector.get(0);
         
         double epsilon = 1e-12;
+        iterations = numIts;
         for (int i = 0; i < numIts; i++) {
             // q = filter(Ac)
             A.mult(c, q);
@@ -217,6 +223,7 @@ public class ConjugateGradient {
             // Break if we reach the threshold
             if (deltaNew < epsilon * epsilon * delta0) {
 //                if (i > 0) System.out.println("Breaking after " + i);
+                iterations = i + 1;
                 break;
             }
         }
@@ -229,6 +236,13 @@ public class ConjugateGradient {
         return tmpVector;
     }
 
+    /**
+     * @return the number of iterations performed by the last solve
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
     private Vector2d a = new Vector2d();
     
     /**
@@ -14,18 +14,27 @@ public class ForwardEuler implements Integrator {
 		system = ps;
 	}
 
+	@Override
+	public void update() {
+		// No per-particle state
+	}
+
 	@Override
 	public void step(double t, double h, int numIterations) {
 		
+		List<Particle> particles = system.getParticles();
+		
 		// Update velocity
-		for (Particle p : system.getParticles()) {
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
 			p.v.x += h * p.f.x / p.mass;
 			p.v.y += h * p.f.y / p.mass;
 
 		}
 
 		// Update position
-		for (Particle p : system.getParticles()) {
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
 			if (p.pinned) continue;
 			p.p.x += h * p.v.x;
 			p.p.y += h * p.v.y;
@@ -2,9 +2,7 @@ package numerical;
 
 import java.util.ArrayList;
 
-import no.uib.cipr.matrix.DenseMatrix;
 import no.uib.cipr.matrix.DenseVector;
-import no.uib.cipr.matrix.Matrices;
 import no.uib.cipr.matrix.Vector;
 import no.uib.cipr.matrix.sparse.CompRowMatrix;
 import no.uib.cipr.matrix.sparse.FlexCompRowMatrix;
@@ -12,6 +10,8 @@ import simulation.LinearSpring;
 import simulation.Particle;
 import simulation.ParticleSystem;
 import simulation.Spring;
+import simulation.TopologyLog;
+import tools.gl.CounterRegistry.Counter;
 
 /**
  * @author epiuze
@@ -26,21 +26,44 @@ public class ImplicitEuler implements Integrator {
 	private ConjugateGradient cg;
 	private FlexCompRowMatrix A;
 	private FlexCompRowMatrix Ad;
-	private DenseMatrix M, W;
+	private CompRowMatrix M, W;
 	private DenseVector b, dv;
 	private DenseVector f0, v0;
 
 	private CompRowMatrix K, B;
 
+	/**
+	 * For each particle, the indices of the particles it is connected to by
+	 * a linear spring. Kept across steps so that topology changes can be
+	 * applied incrementally.
+	 */
+	private ArrayList<ArrayList<Integer>> connections = new ArrayList<ArrayList<Integer>>();
+
+	/**
+	 * The topology version the matrices were built for.
+	 */
+	private int version;
+
+	/**
+	 * Work counters of the system
+	 */
+	private Counter cgIterations, nonZeros;
+
 	/**
 	 * @param particleList
 	 * @param cg
 	 */
 	public void initialize(ParticleSystem ps) {
 		system = ps;
+		version = system.getTopologyLog().getVersion();
+		cgIterations = system.counters.addCounter(ParticleSystem.CG_ITERATIONS);
+		nonZeros = system.counters.addCounter(ParticleSystem.MATRIX_NONZEROS);
 
+		buildConnections();
+		
 		buildK();
 
+		cF = null;
 		initMatrices();
 
 		cg = new ConjugateGradient(system.getParticles().size());
@@ -48,33 +71,152 @@ public class ImplicitEuler implements Integrator {
 		updateConstraints();
 	}
 
-	private void buildK() {
+	/**
+	 * Applies the topology changes made since the matrices were built to the
+	 * connectivity, without walking the whole spring list. The stiffness and
+	 * damping matrices are then rebuilt for the new sparsity, since compressed
+	 * row matrices cannot grow in place, which is done every step while the
+	 * bud grows. The mass matrices, vectors and solver buffers are kept
+	 * unless the number of particles changed.
+	 */
+	public void update() {
+		TopologyLog log = system.getTopologyLog();
+		if (version == log.getVersion()) return;
+		
+		if (!log.isIncremental(version)) {
+			initialize(system);
+			return;
+		}
+		
+		for (TopologyLog.Change change : log.getChanges(version)) {
+			switch (change.type) {
+			case PARTICLE_ADDED:
+				connections.add(new ArrayList<Integer>());
+				break;
+			case SPRING_ADDED:
+				connect(change.i1, change.i2, true);
+				break;
+			case SPRING_REMOVED:
+				connect(change.i1, change.i2, false);
+				break;
+			case PARTICLE_REMOVED:
+				disconnect(change.index);
+				break;
+			case PARTICLE_MOVED:
+				move(change.from, change.index);
+				break;
+			}
+		}
+		version = log.getVersion();
+		
+		buildK();
 		int n = system.getParticles().size();
+		if (M.numRows() == 2 * n) {
+			// Moved particles bring their masses, and A its stale entries
+			updateMasses();
+			A = new FlexCompRowMatrix(2 * n, 2 * n);
+		}
+		else {
+			initMatrices();
+			cg = new ConjugateGradient(n);
+		}
+		updateConstraints();
+	}
 
-		// Builds the stiffness matrix using the fact that some
-		// particles are never in contact such that some columns are always zero
-		// TODO: if other kinds of interacting forces (e.g. gravitational,
-		// electrical) were to be added
-		// the shape of this matrix would need to be reconsidered.
-		int p1, p2;
-		ArrayList<ArrayList<Integer>> connections = new ArrayList<ArrayList<Integer>>(
-				n);
+	private void buildConnections() {
+		int n = system.getParticles().size();
+
+		connections.clear();
+		connections.ensureCapacity(n);
 		for (int i = 0; i < n; i++) {
 			connections.add(new ArrayList<Integer>());
 		}
 
 		for (Spring s : system.getSprings()) {
-			
 			if (s instanceof LinearSpring) {
 				LinearSpring ls = (LinearSpring) s;
-				p1 = ls.p1.index;
-				p2 = ls.p2.index;
+				connect(ls.p1.index, ls.p2.index, true);
+			}
+		}
+	}
+
+	/**
+	 * Adds or removes the connection made by a linear spring between these
+	 * particle indices. Negative indices (other spring types) are ignored.
+	 * @param i1
+	 * @param i2
+	 * @param add
+	 */
+	private void connect(int i1, int i2, boolean add) {
+		if (i1 < 0 || i2 < 0) return;
+
+		Integer p1 = i1;
+		Integer p2 = i2;
+
+		if (add) {
+			connections.get(p1).add(p2);
+			connections.get(p2).add(p1);
+		}
+		else {
+			connections.get(p1).remove(p2);
+			connections.get(p2).remove(p1);
+		}
+	}
+
+	/**
+	 * Removes all connections of the particle at this index. If it was the
+	 * last one, its slot is dropped, otherwise it is taken by the particle
+	 * moved there next.
+	 * @param index
+	 */
+	private void disconnect(Integer index) {
+		ArrayList<Integer> c = connections.get(index);
+		for (Integer j : c) {
+			connections.get(j).remove(index);
+		}
+		c.clear();
+
+		if (index == connections.size() - 1) {
+			connections.remove(connections.size() - 1);
+		}
+	}
 
-				connections.get(p1).add(p2);
-				connections.get(p2).add(p1);
+	/**
+	 * Moves the particle at index from to index to, which must be free.
+	 * @param from
+	 * @param to
+	 */
+	private void move(int from, int to) {
+		ArrayList<Integer> c = connections.remove(from);
+		connections.set(to, c);
+		for (Integer j : c) {
+			// A pair joined by several springs appears once per spring
+			ArrayList<Integer> cj = connections.get(j);
+			for (int m = 0; m < cj.size(); m++) {
+				if (cj.get(m) == from) cj.set(m, to);
 			}
 		}
 
+		// Carry its constraint forces
+		if (2 * from + 1 < cF.size()) {
+			cF.set(2 * to + 0, cF.get(2 * from + 0));
+			cF.set(2 * to + 1, cF.get(2 * from + 1));
+		}
+		else if (2 * to + 1 < cF.size()) {
+			cF.set(2 * to + 0, 0);
+			cF.set(2 * to + 1, 0);
+		}
+	}
+
+	private void buildK() {
+		int n = system.getParticles().size();
+
+		// Builds the stiffness matrix using the fact that some
+		// particles are never in contact such that some columns are always zero
+		// TODO: if other kinds of interacting forces (e.g. gravitational,
+		// electrical) were to be added
+		// the shape of this matrix would need to be reconsidered.
+
 		// nz Goal: for each row (three per particle), add column index if it's
 		// used
 
@@ -117,14 +259,6 @@ public class ImplicitEuler implements Integrator {
 			}
 		}
 
-		// Mass and inverse mass matrices
-		int[][] nz2 = new int[2 * n][2];
-		// The matrix is diagonal -> only set a(i,i)
-		for (int i = 0; i < n; i++) {
-			nz2[2 * i + 0][0] = 2 * i + 0;
-			nz2[2 * i + 1][0] = 2 * i + 1;
-		}
-
 		K = new CompRowMatrix(2 * n, 2 * n, nz);
 		B = new CompRowMatrix(2 * n, 2 * n, nz);
 	}
@@ -133,17 +267,17 @@ public class ImplicitEuler implements Integrator {
 
 		int dim = 2 * system.getParticles().size();
 
-		// Find M and M^-1
-		M = new DenseMatrix(dim, dim);
-		for (Particle p : system.getParticles()) {
-			M.set(2 * p.index + 0, 2 * p.index + 0, p.mass);
-			M.set(2 * p.index + 1, 2 * p.index + 1, p.mass);
+		// Mass and inverse mass matrices
+		int[][] nz2 = new int[dim][1];
+		// The matrix is diagonal -> only set a(i,i)
+		for (int i = 0; i < dim; i++) {
+			nz2[i][0] = i;
 		}
 
-		// TODO: use pseudo
-		DenseMatrix I = Matrices.identity(M.numColumns());
-		W = new DenseMatrix(dim, dim);
-		M.solve(I, W);
+		// Find M and M^-1
+		M = new CompRowMatrix(dim, dim, nz2);
+		W = new CompRowMatrix(dim, dim, nz2);
+		updateMasses();
 
 		// Force
 		f0 = new DenseVector(dim);
@@ -160,16 +294,33 @@ public class ImplicitEuler implements Integrator {
 		// Allocate storage for Conjugate Gradients
 		dv = new DenseVector(dim);
 
-		cF = new DenseVector(2 * system.getParticles().size());
+		// Keep the constraint forces of particles that were already there
+		Vector cFold = cF;
+		cF = new DenseVector(dim);
+		if (cFold != null) {
+			for (int i = 0; i < Math.min(dim, cFold.size()); i++) {
+				cF.set(i, cFold.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Sets the diagonals of the mass and inverse mass matrices
+	 */
+	private void updateMasses() {
+		for (Particle p : system.getParticles()) {
+			M.set(2 * p.index + 0, 2 * p.index + 0, p.mass);
+			M.set(2 * p.index + 1, 2 * p.index + 1, p.mass);
+			W.set(2 * p.index + 0, 2 * p.index + 0, 1 / p.mass);
+			W.set(2 * p.index + 1, 2 * p.index + 1, 1 / p.mass);
+		}
 	}
 
 	private void computeStiffnessMatrix() {
 		// Reset stiffness and damping matrices
 		K.zero();
 		B.zero();
-		for (Spring s : system.getSprings()) {
-			s.gradient(K, B);
-		}
+		system.getSpringStore().gradient(K, B);
 	}
 
 	/**
@@ -184,6 +335,28 @@ public class ImplicitEuler implements Integrator {
 	 */
 	private Vector cF;
 
+	/**
+	 * @return the constraint forces added at the next step, two per particle
+	 */
+	public double[] getConstraintForces() {
+		double[] f = new double[cF.size()];
+		for (int i = 0; i < f.length; i++) {
+			f[i] = cF.get(i);
+		}
+		return f;
+	}
+
+	/**
+	 * Sets the constraint forces added at the next step, e.g. those of a
+	 * saved system. Missing ones are left unchanged.
+	 * @param f two per particle
+	 */
+	public void setConstraintForces(double[] f) {
+		for (int i = 0; i < Math.min(f.length, cF.size()); i++) {
+			cF.set(i, f[i]);
+		}
+	}
+
 	/**
 	 * Backward Euler integration step
 	 * 
@@ -195,6 +368,36 @@ public class ImplicitEuler implements Integrator {
 	 */
 	public void step(double t, double h, int numIterations) {
 
+		assemble(h);
+
+		solve(numIterations);
+
+		// Updates the positions
+		for (Particle p : system.getParticles()) {
+
+			p.v.x += dv.get(2 * p.index + 0);
+			p.v.y += dv.get(2 * p.index + 1);
+
+			// Innocent until proven guilty
+			p.illegal = false;
+
+		}
+
+		// Updates position
+		for (Particle p : system.getParticles()) {
+			p.p.x += h * p.v.x;
+			p.p.y += h * p.v.y;
+		}
+	}
+
+	/**
+	 * Builds the linear system of a step from the current forces and
+	 * velocities.
+	 * 
+	 * @param h
+	 */
+	public void assemble(double h) {
+
 		computeStiffnessMatrix();
 
 		// (W - h^2*K - h*B) dv = hf0 + h^2*K*v0)
@@ -231,24 +434,22 @@ public class ImplicitEuler implements Integrator {
 		// e.g. friction
 		cg.updateConstraints(system.getParticles());
 
-		cF = cg.solve(A, b, dv, numIterations);
-
-		// Updates the positions
-		for (Particle p : system.getParticles()) {
-
-			p.v.x += dv.get(2 * p.index + 0);
-			p.v.y += dv.get(2 * p.index + 1);
-
-			// Innocent until proven guilty
-			p.illegal = false;
-
+		long used = 0;
+		for (int r = 0; r < A.numRows(); r++) {
+			used += A.getRow(r).getUsed();
 		}
+		nonZeros.add(used);
+	}
 
-		// Updates position
-		for (Particle p : system.getParticles()) {
-			p.p.x += h * p.v.x;
-			p.p.y += h * p.v.y;
-		}
+	/**
+	 * Solves the linear system built by {@link #assemble(double)} for the
+	 * velocity change. Solving again gives the same result.
+	 * 
+	 * @param numIterations
+	 */
+	public void solve(int numIterations) {
+		cF = cg.solve(A, b, dv, numIterations);
+		cgIterations.add(cg.getIterations());
 	}
 
 	@Override
@@ -17,6 +17,10 @@ public interface Integrator {
 	public abstract void initialize(ParticleSystem ps);
 	
 	/**
+	 * Brings this integration method up to date with the topology changes
+	 * recorded by the particle system since it was last initialized or
+	 * updated. Called by the system before every step.
+	 */
 	public abstract void update();
 	
 	/**
@@ -7,6 +7,12 @@ public class RungeKutta implements Integrator {
 
 	private ParticleSystem system;
 
+	/**
+	 * State and stage buffers, sized to the number of particles.
+	 */
+	private double[] y = new double[0];
+	private double[] yout, k1, k2, k3, k4;
+
 	public String toString() {
 		return "RK4 (buggy)";
 	}
@@ -14,6 +20,20 @@ public class RungeKutta implements Integrator {
 	@Override
 	public void initialize(ParticleSystem ps) {
 		system = ps;
+		update();
+	}
+
+	@Override
+	public void update() {
+		int m = system.getParticles().size();
+		if (y.length != 4 * m) {
+			y = new double[4 * m];
+			yout = new double[4 * m];
+			k1 = new double[2 * m];
+			k2 = new double[2 * m];
+			k3 = new double[4 * m];
+			k4 = new double[4 * m];
+		}
 	}
 
 	@Override
@@ -25,9 +45,6 @@ public class RungeKutta implements Integrator {
 			int n = 4 * m;
 			double dt;
 
-			double[] y = new double[n];
-			double[] yout = new double[n];
-
 			// Current state for each particle
 			// p_x, p_y, v_x, v_y
 			for (int i = 0; i < m; i++) {
@@ -45,7 +62,6 @@ public class RungeKutta implements Integrator {
 			// k_4 = f(t_n + h, y_n + h*k_3)
 
 			// Computing k1 = f(t_n, y_n)
-			double[] k1 = new double[2 * m];
 			for (int i = 0; i < m; i++) {
 				// Velocity
 				k1[2 * i + 0] = y[4 * i + 2];
@@ -53,7 +69,6 @@ public class RungeKutta implements Integrator {
 			}
 
 			// Computing k2 = f(t_n + h/2, y_n + h/2 * k_1)
-			double[] k2 = new double[2 * m];
 			dt = h / 2;
 
 			// Advance in position only
@@ -82,7 +97,6 @@ public class RungeKutta implements Integrator {
 			}
 
 			// Computing k3 = f(t_n + h/2, y_n + h/2 * k_2)
-			double[] k3 = new double[n];
 			dt = h / 2;
 
 			// Resets the state to the initial one
@@ -114,7 +128,6 @@ public class RungeKutta implements Integrator {
 			}
 
 			// Computing k4 = f(t_n + h, y_n + h*k_3)
-			double[] k4 = new double[n];
 			dt = h;
 
 			// Resets the state to the initial one
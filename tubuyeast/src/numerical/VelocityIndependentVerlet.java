@@ -16,6 +16,16 @@ public class VelocityIndependentVerlet implements Integrator {
 
 	private ParticleSystem system;
 	
+	/**
+	 * Accelerations at the beginning of the step, sized to the number of particles.
+	 */
+	private double[] a_t = new double[0];
+	
+	/**
+	 * Accelerations, reused from one step to the next.
+	 */
+	private Vector2d a = new Vector2d(), apt = new Vector2d();
+	
 	public String toString() {
 		return "Velocity Verlet (vel. independent)";
 	}
@@ -23,17 +33,24 @@ public class VelocityIndependentVerlet implements Integrator {
 	@Override
 	public void initialize(ParticleSystem ps) {
 		system = ps;
+		update();
+	}
+
+	@Override
+	public void update() {
+		int n = 2 * system.getParticles().size();
+		if (a_t.length != n) {
+			a_t = new double[n];
+		}
 	}
 
 	@Override
 	public void step(double t, double h, int numIterations) {
 		List<Particle> particles = system.getParticles();
 		
-		double[] a_t = new double[2*particles.size()];
-		
-		Vector2d a = new Vector2d();
 		int i = 0;
-		for (Particle p : particles) {
+		for (int n = 0; n < particles.size(); n++) {
+			Particle p = particles.get(n);
 			if (p.pinned) continue;
 			
 			a.scale(1 / p.mass, p.f);
@@ -49,8 +66,8 @@ public class VelocityIndependentVerlet implements Integrator {
 		system.updateForces();
 		
 		int j = 0;
-		Vector2d apt = new Vector2d();
-		for (Particle p : particles) {
+		for (int n = 0; n < particles.size(); n++) {
+			Particle p = particles.get(n);
 			if (p.pinned) continue;
 
 			a.scale(1 / p.mass, p.f);
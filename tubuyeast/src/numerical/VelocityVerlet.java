@@ -11,6 +11,16 @@ public class VelocityVerlet implements Integrator {
 
 	private ParticleSystem system;
 	
+	/**
+	 * Half-step velocities, sized to the number of particles.
+	 */
+	private double[] v_t12 = new double[0];
+	
+	/**
+	 * Accelerations, reused from one step to the next.
+	 */
+	private Vector2d apt = new Vector2d(), a = new Vector2d();
+	
 	public String toString() {
 		return "Velocity Verlet";
 	}
@@ -18,19 +28,25 @@ public class VelocityVerlet implements Integrator {
 	@Override
 	public void initialize(ParticleSystem ps) {
 		system = ps;
+		update();
+	}
+
+	@Override
+	public void update() {
+		int n = 2 * system.getParticles().size();
+		if (v_t12.length != n) {
+			v_t12 = new double[n];
+		}
 	}
 
 	@Override
 	public void step(double t, double h, int numIterations) {
 		List<Particle> particles = system.getParticles();
-		Vector2d apt = new Vector2d();
-		Vector2d a = new Vector2d();
-		
-		double[] v_t12 = new double[2*particles.size()];
 
 		int j = 0;
 
-		for (Particle p : particles) {
+		for (int n = 0; n < particles.size(); n++) {
+			Particle p = particles.get(n);
 			if (p.pinned) continue;
 
 			a.scale(1 / p.mass, p.f);
@@ -41,7 +57,8 @@ public class VelocityVerlet implements Integrator {
 		}
 
 		int i = 0;
-		for (Particle p : particles) {
+		for (int n = 0; n < particles.size(); n++) {
+			Particle p = particles.get(n);
 			if (p.pinned) continue;
 			
 			a.scale(1 / p.mass, p.f);
@@ -54,7 +71,8 @@ public class VelocityVerlet implements Integrator {
 		system.updateForces();		
 		
 		int k = 0;
-		for (Particle p : particles) {
+		for (int n = 0; n < particles.size(); n++) {
+			Particle p = particles.get(n);
 			if (p.pinned) continue;
 			
 			a.scale(1 / p.mass, p.f);
@@ -0,0 +1,69 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that stepping a particle system does not allocate once it is warmed
+ * up. Runs the complete cell scene and exits with a non-zero status if any
+ * bytes were allocated by the stepping thread.
+ */
+public class AllocationCheck {
+
+	/**
+	 * Number of steps measured.
+	 */
+	private static final int STEPS = 1000;
+
+	/**
+	 * Number of steps run before measuring, so that all buffers reach their
+	 * final size and the first spring collisions (around step 2500) have been
+	 * compiled. A deoptimization while measuring rematerializes objects that
+	 * the compiler had eliminated, which shows up as allocated bytes.
+	 */
+	private static final int WARMUP = 5000;
+
+	private static final double H = 0.0015;
+
+	/**
+	 * @return the number of bytes allocated so far by the current thread
+	 */
+	private static long allocatedBytes(com.sun.management.ThreadMXBean bean) {
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Tests that 1000 steps of the complete cell scene allocate nothing
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!bean.isThreadAllocatedMemorySupported()) {
+			System.out.println("Thread allocation measurement not supported");
+			System.exit(2);
+		}
+		bean.setThreadAllocatedMemoryEnabled(true);
+
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		ParticleSimulationApp.createSystem(system, 3);
+
+		for (int i = 0; i < WARMUP; i++) {
+			system.step(H);
+		}
+
+		// Cost of the measurement itself
+		long overhead = allocatedBytes(bean);
+		overhead = allocatedBytes(bean) - overhead;
+
+		long before = allocatedBytes(bean);
+		for (int i = 0; i < STEPS; i++) {
+			system.step(H);
+		}
+		long allocated = allocatedBytes(bean) - before - overhead;
+
+		System.out.println(STEPS + " steps allocated " + allocated + " bytes");
+		if (allocated != 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -6,21 +6,33 @@ import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
 import no.uib.cipr.matrix.Matrix;
+import tools.gl.VertexBatch;
 
 /**
  * @author epiuze
  */
 public class AngularSpring implements Spring {
 
-	private double theta0;
+	double theta0;
 	
-	private double k;
+	double k;
 	
 	/**
 	 * The angular spring is applied on the angle formed
 	 * by the lines p2-p1 and p3-p2.
 	 */
-	private Particle p1, p2, p3;
+	Particle p1, p2, p3;
+	
+	/**
+	 * The packed buffer holding this spring, if any, and its slot in it.
+	 */
+	SpringStore.AngularBuffer buffer = null;
+	int slot;
+	
+	/**
+	 * Position in the system's spring list.
+	 */
+	private int index = -1;
 	
 	/**
 	 * Create an angular spring attached to these two linear springs. Assume
@@ -44,6 +56,18 @@ public class AngularSpring implements Spring {
 		this.p2 = p2;
 		this.p3 = p3;
 		this.k = k;
+		p1.angularSprings.add(this);
+		if (p2 != p1) p2.angularSprings.add(this);
+		if (p3 != p1 && p3 != p2) p3.angularSprings.add(this);
+	}
+
+	/**
+	 * Detaches this spring from its particles' angular spring lists.
+	 */
+	public void detach() {
+		p1.angularSprings.remove(this);
+		p2.angularSprings.remove(this);
+		p3.angularSprings.remove(this);
 	}
 	
 	/**
@@ -105,19 +129,38 @@ public class AngularSpring implements Spring {
 		return mp2;
 	}
 
+	/**
+	 * Batches for displaying a single spring
+	 */
+	private static VertexBatch displayPoints = new VertexBatch();
+	private static VertexBatch displayArc = new VertexBatch();
+
 	@Override
 	public void display(GLAutoDrawable drawable) {
     	GL gl = drawable.getGL();
     	
+    	displayPoints.clear();
+    	displayArc.clear();
+    	pack(displayPoints, displayArc);
+    	displayPoints.draw(gl, GL.GL_POINTS);
+		gl.glLineWidth(2);
+    	displayArc.draw(gl, GL.GL_LINE_STRIP);
+	}
+
+	/**
+	 * Adds the midpoints of the two lines to a batch and the arc showing
+	 * the angle to another, as a strip.
+	 * @param points
+	 * @param arcs
+	 */
+	public void pack(VertexBatch points, VertexBatch arcs) {
 		Point2d mp1 = computeMidV1();
 		Point2d mp2 = computeMidV2();
 
-		gl.glBegin(GL.GL_POINTS);
-		gl.glColor4d(1, 0, 0, 1);
-		gl.glVertex2d(mp1.x, mp1.y);
-		gl.glColor4d(0, 0, 1, 1);
-		gl.glVertex2d(mp2.x, mp2.y);
-		gl.glEnd();
+		points.color(1, 0, 0, 1);
+		points.vertex(mp1.x, mp1.y);
+		points.color(0, 0, 1, 1);
+		points.vertex(mp2.x, mp2.y);
 		
 		// Distance from midpoints to center
 		double r1 = computeV1().length() / 2;
@@ -152,36 +195,34 @@ public class AngularSpring implements Spring {
 		
 		double dtheta = 0;
 		if (Math.abs(diff) > Math.PI) {
-			gl.glColor4d(1, 0, 0, 0.9);
 			dtheta = -1 * (theta1 + 2 * Math.PI - theta2) / n;
 			diff = 2 * Math.PI - diff;
 		}
 		else {
-			gl.glColor4d(0, 0, 1, 0.9);
 			dtheta = (theta2 - theta1) / n;
 		}
 		
-    	// Draw as an angle
-		gl.glLineWidth(2);
-		gl.glBegin(GL.GL_LINE_STRIP);
-		Point2d p = new Point2d();
-		for (int i = 0; i <= n; i++) {
-			double theta = theta1 + i * dtheta;
+		// The color only depends on the rest angle
+		double lambda0 = (thetac - theta0) / (2*Math.PI);
+		arcs.color(lambda0 + 0.5, 0, (0.9 - lambda0) * (0.9 - lambda0), 0.7);
 
+    	// Draw as an angle, rotating the direction by dtheta at each vertex
+		// rather than evaluating cos and sin
+		double c = Math.cos(theta1), s = Math.sin(theta1);
+		double cd = Math.cos(dtheta), sd = Math.sin(dtheta);
+		arcs.beginStrip();
+		for (int i = 0; i <= n; i++) {
 			// Simple linear interpolation
-			double lambda = Math.abs(theta - theta1) / (diff);
-
-			double lambda0 = (thetac - theta0) / (2*Math.PI);
-			gl.glColor4d(Math.pow(lambda0+0.5, 1), 0, Math.pow(1-lambda0-0.1, 2), 0.7);
+			double lambda = Math.abs(i * dtheta) / (diff);
 
 			double r = lambda * r2 + (1 - lambda) * r1;
-			p.x = p2.p.x + r * Math.cos(theta);
-			p.y = p2.p.y + r * Math.sin(theta);
-			
-			gl.glVertex2d(p.x, p.y);
+			arcs.vertex(p2.p.x + r * c, p2.p.y + r * s);
+
+			double ci = c * cd - s * sd;
+			s = s * cd + c * sd;
+			c = ci;
 		}
-		gl.glEnd();
-    	
+		arcs.endStrip();
 	}
 
 	@Override
@@ -204,6 +245,7 @@ public class AngularSpring implements Spring {
 	@Override
 	public void setK(double value) {
 		k = value;
+		if (buffer != null) buffer.k[slot] = k;
 	}
 
 	@Override
@@ -215,5 +257,15 @@ public class AngularSpring implements Spring {
 	public double getK() {
 		return k;
 	}
+
+	@Override
+	public int getIndex() {
+		return index;
+	}
+
+	@Override
+	public void setIndex(int index) {
+		this.index = index;
+	}
 	
 }
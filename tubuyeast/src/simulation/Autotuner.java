@@ -0,0 +1,270 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import numerical.ImplicitEuler;
+import numerical.Integrator;
+import tools.CommandLine;
+import tools.parameters.Parameter;
+
+/**
+ * Finds the cheapest integrator, step size and number of CG iterations that
+ * simulate a scene accurately enough. The application advances the
+ * simulation by a frame of substeps steps of a step size; the tuner keeps the
+ * simulated time of a frame and tries each integrator with each number of
+ * substeps, splitting the frame in equal steps. Each candidate is run for a
+ * short horizon and compared with a reference run of the default integrator
+ * with many more substeps: the error is the RMS distance between final
+ * particle positions. Candidates whose particles leave the neighborhood of
+ * the window or become NaN blew up. The cost is the best wall-clock time per
+ * frame over a few runs, after a first run that warms up the JIT.
+ * <p>
+ * The bud is not grown, since growing it every step would make the
+ * reference differ from the candidates.
+ * <p>
+ * Usage: Autotuner [-scene 3] [-frame 0.0015] [-horizon 0.3]
+ * [-tolerance 1] [-substeps 1,2,4,8] [-iterations 1,2,5,10]
+ * [-integrators 0,1,2,3,4] [-reference 32] [-runs 2]
+ */
+public class Autotuner {
+
+	/**
+	 * The integrator of the reference run, velocity Verlet
+	 */
+	private static final int REFERENCE_METHOD = 4;
+
+	private int scene = 3;
+	private double frame = 0.0015;
+	private double horizon = 0.3;
+	private double tolerance = 1;
+	private int[] substeps = { 1, 2, 4, 8 };
+	private int[] iterations = { 1, 2, 5, 10 };
+	private int[] integrators = { 0, 1, 2, 3, 4 };
+	private int reference = 32;
+	private int runs = 2;
+
+	/**
+	 * Parameter values and whether they are checked, by name
+	 */
+	private Map<String, double[]> values = new HashMap<String, double[]>();
+
+	/**
+	 * A configuration of the simulation and how it did
+	 */
+	public static class Config {
+		public int method;
+		public String name;
+		public int substeps;
+		public int iterations;
+
+		/**
+		 * Whether the integrator uses the CG iterations
+		 */
+		public boolean implicit;
+
+		/**
+		 * RMS position error, infinite if the run blew up
+		 */
+		public double error;
+
+		/**
+		 * Wall-clock nanoseconds per frame
+		 */
+		public double cost;
+
+		Config(int method, String name, int substeps, int iterations) {
+			this.method = method;
+			this.name = name;
+			this.substeps = substeps;
+			this.iterations = iterations;
+		}
+
+		/**
+		 * @param frame simulated time of a frame
+		 * @return the step size
+		 */
+		public double getStepSize(double frame) {
+			return frame / substeps;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-36s %4d %4d %12s %10.1f", name, substeps, iterations,
+					Double.isInfinite(error) ? "blew up" : String.format("%.4g", error), cost / 1000);
+		}
+	}
+
+	/**
+	 * Creates a tuner with the default options.
+	 */
+	public Autotuner() {
+		// nothing to do
+	}
+
+	/**
+	 * Parses the command line options.
+	 * @param args
+	 */
+	Autotuner(String[] args) {
+		CommandLine options = new CommandLine(args);
+		while (options.next()) {
+			if (options.is("-scene")) scene = options.getInt();
+			else if (options.is("-frame")) frame = options.getDouble();
+			else if (options.is("-horizon")) horizon = options.getDouble();
+			else if (options.is("-tolerance")) tolerance = options.getDouble();
+			else if (options.is("-substeps")) substeps = options.getInts();
+			else if (options.is("-iterations")) iterations = options.getInts();
+			else if (options.is("-integrators")) integrators = options.getInts();
+			else if (options.is("-reference")) reference = options.getInt();
+			else if (options.is("-runs")) runs = options.getInt();
+			else throw options.unknown();
+		}
+	}
+
+	/**
+	 * Sets the scene and the simulated time of a frame, step size times
+	 * substeps.
+	 * @param scene
+	 * @param frame
+	 */
+	public void setScene(int scene, double frame) {
+		this.scene = scene;
+		this.frame = frame;
+	}
+
+	/**
+	 * Runs the systems with the current values of these parameters instead
+	 * of the defaults, e.g. those of the system the result is for. Parameters
+	 * are matched by name.
+	 * @param parameters
+	 */
+	public void setParameters(Parameter[] parameters) {
+		values = ParticleSystem.getParameterValues(parameters);
+	}
+
+	/**
+	 * @param tolerance the largest RMS position error accepted
+	 */
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	private ParticleSystem create(int method) {
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		// Before the scene, whose springs take the stiffness and damping
+		system.setParameterValues(values);
+		ParticleSimulationApp.createSystem(system, scene);
+		system.setIntegrationMethod(method);
+		return system;
+	}
+
+	/**
+	 * Runs a system for the horizon, stopping early if it blows up.
+	 * @param system
+	 * @param substeps
+	 * @param iterations
+	 * @return whether the run blew up
+	 */
+	private boolean run(ParticleSystem system, int substeps, int iterations) {
+		system.getNumIterations().setValue(iterations);
+		double h = frame / substeps;
+		int frames = (int) Math.round(horizon / frame);
+		for (int f = 0; f < frames; f++) {
+			for (int s = 0; s < substeps; s++) {
+				system.step(h);
+			}
+			if (system.blewUp()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the reference and all candidates.
+	 * @return the candidates, in the order they were run
+	 */
+	public List<Config> evaluate() {
+		ParticleSystem ref = create(REFERENCE_METHOD);
+		if (run(ref, reference, 5)) {
+			throw new IllegalStateException("The reference run blew up, use more substeps");
+		}
+		List<Particle> target = ref.getParticles();
+
+		List<Config> configs = new ArrayList<Config>();
+		List<Integrator> methods = ref.getIntegrationMethods();
+		for (int method : integrators) {
+			Integrator integrator = methods.get(method);
+			int[] its = integrator instanceof ImplicitEuler ? iterations : new int[] { iterations[0] };
+			for (int s : substeps) {
+				for (int it : its) {
+					Config c = new Config(method, integrator.toString(), s, it);
+					c.implicit = integrator instanceof ImplicitEuler;
+					configs.add(evaluate(c, target));
+				}
+			}
+		}
+		return configs;
+	}
+
+	private Config evaluate(Config c, List<Particle> target) {
+		c.cost = Double.POSITIVE_INFINITY;
+		int frames = (int) Math.round(horizon / frame);
+		for (int r = -1; r < runs; r++) {
+			ParticleSystem system = create(c.method);
+			long t0 = System.nanoTime();
+			boolean blewUp = run(system, c.substeps, c.iterations);
+			long t1 = System.nanoTime();
+
+			if (blewUp) {
+				c.error = Double.POSITIVE_INFINITY;
+				return c;
+			}
+			if (r >= 0) c.cost = Math.min(c.cost, (t1 - t0) / (double) frames);
+
+			List<Particle> particles = system.getParticles();
+			double sum = 0;
+			for (int i = 0; i < particles.size(); i++) {
+				sum += particles.get(i).p.distanceSquared(target.get(i).p);
+			}
+			c.error = Math.sqrt(sum / particles.size());
+		}
+		return c;
+	}
+
+	/**
+	 * @param configs evaluated configurations
+	 * @return the cheapest within the tolerance, or null if there is none
+	 */
+	public Config best(List<Config> configs) {
+		Config best = null;
+		for (Config c : configs) {
+			if (c.error <= tolerance && (best == null || c.cost < best.cost)) best = c;
+		}
+		return best;
+	}
+
+	/**
+	 * Tunes a scene and prints the candidates and the best configuration.
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Autotuner tuner = new Autotuner(args);
+		List<Config> configs = tuner.evaluate();
+
+		System.out.println(String.format("%-36s %4s %4s %12s %10s", "integrator", "sub", "its", "RMS error", "us/frame"));
+		for (Config c : configs) {
+			System.out.println(c);
+		}
+
+		Config best = tuner.best(configs);
+		if (best == null) {
+			System.out.println("No configuration within " + tuner.tolerance);
+			System.exit(1);
+		}
+		System.out.println("Best: " + best.name + ", step size " + best.getStepSize(tuner.frame) + ", "
+				+ best.substeps + " substeps" + (best.implicit ? ", " + best.iterations + " iterations" : ""));
+	}
+}
@@ -0,0 +1,233 @@
+package simulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary reading or writing of a file through a direct buffer, for
+ * {@link Scene}s and {@link Checkpoint}s. Values are little-endian, arrays
+ * are copied in bulk, strings are an int length then UTF-8 bytes. Callers
+ * {@link #ensure(int)} room or data for the values they then put to or get
+ * from the buffer.
+ */
+class BinaryStream {
+
+	static final int BUFFER_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+	final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final boolean writing;
+
+	/**
+	 * What is read or written, for error messages
+	 */
+	private final String what;
+
+	/**
+	 * @param channel
+	 * @param writing
+	 * @param what what is read or written, for error messages
+	 */
+	BinaryStream(FileChannel channel, boolean writing, String what) {
+		this.channel = channel;
+		this.writing = writing;
+		this.what = what;
+		if (!writing) buffer.limit(0);
+	}
+
+	/**
+	 * Makes room for writing, or reads enough, for the given number of
+	 * bytes
+	 */
+	void ensure(int bytes) throws IOException {
+		if (writing) {
+			if (buffer.remaining() < bytes) flush();
+			return;
+		}
+		if (buffer.remaining() >= bytes) return;
+		buffer.compact();
+		// Fill the buffer, arrays are read in as few calls as possible
+		while (buffer.position() < bytes || buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (buffer.position() >= bytes) break;
+				throw new EOFException("truncated " + what);
+			}
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Writes what is buffered
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @param max
+	 * @return a count from 0 to max
+	 * @throws IOException if the count is out of range
+	 */
+	int getCount(int max) throws IOException {
+		ensure(4);
+		int n = buffer.getInt();
+		if (n < 0 || n > max) throw new IOException("corrupt " + what);
+		return n;
+	}
+
+	void putString(String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		ensure(4 + bytes.length);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	String getString() throws IOException {
+		int n = getCount(BUFFER_SIZE);
+		ensure(n);
+		byte[] bytes = new byte[n];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	void putBytes(byte[] a, int n) throws IOException {
+		for (int i = 0; i < n;) {
+			ensure(1);
+			int m = Math.min(n - i, buffer.remaining());
+			buffer.put(a, i, m);
+			i += m;
+		}
+	}
+
+	void putInts(int[] a, int n) throws IOException {
+		for (int i = 0; i < n;) {
+			ensure(4);
+			int m = Math.min(n - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(a, i, m);
+			buffer.position(buffer.position() + 4 * m);
+			i += m;
+		}
+	}
+
+	void putDoubles(double[] a, int n) throws IOException {
+		for (int i = 0; i < n;) {
+			ensure(8);
+			int m = Math.min(n - i, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().put(a, i, m);
+			buffer.position(buffer.position() + 8 * m);
+			i += m;
+		}
+	}
+
+	byte[] getBytes(int n) throws IOException {
+		byte[] a = new byte[n];
+		for (int i = 0; i < n;) {
+			ensure(1);
+			int m = Math.min(n - i, buffer.remaining());
+			buffer.get(a, i, m);
+			i += m;
+		}
+		return a;
+	}
+
+	int[] getInts(int n) throws IOException {
+		int[] a = new int[n];
+		for (int i = 0; i < n;) {
+			ensure(4);
+			int m = Math.min(n - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(a, i, m);
+			buffer.position(buffer.position() + 4 * m);
+			i += m;
+		}
+		return a;
+	}
+
+	double[] getDoubles(int n) throws IOException {
+		double[] a = new double[n];
+		for (int i = 0; i < n;) {
+			ensure(8);
+			int m = Math.min(n - i, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(a, i, m);
+			buffer.position(buffer.position() + 8 * m);
+			i += m;
+		}
+		return a;
+	}
+
+	/**
+	 * Writes a count then the indices of the particles of a list that are
+	 * in the system
+	 */
+	void putIndices(List<Particle> list, List<Particle> particles) throws IOException {
+		int[] indices = indicesOf(list, particles);
+		ensure(4);
+		buffer.putInt(indices.length);
+		putInts(indices, indices.length);
+	}
+
+	/**
+	 * Reads a count then the indices of particles of the system
+	 * @throws IOException if an index is out of range
+	 */
+	List<Particle> getParticles(List<Particle> particles) throws IOException {
+		int[] indices = getInts(getCount(Integer.MAX_VALUE));
+		List<Particle> list = new ArrayList<Particle>(indices.length);
+		for (int i : indices) {
+			list.add(particle(particles, i));
+		}
+		return list;
+	}
+
+	/**
+	 * @return the index of a particle of the system
+	 * @throws IOException if the particle is not in the system
+	 */
+	static int indexOf(Particle p, List<Particle> particles) throws IOException {
+		if (p.index < 0 || p.index >= particles.size() || particles.get(p.index) != p) {
+			throw new IOException("spring attached to a particle outside the system");
+		}
+		return p.index;
+	}
+
+	/**
+	 * @return the indices of the particles of a list that are in the system
+	 */
+	static int[] indicesOf(List<Particle> list, List<Particle> particles) {
+		int[] indices = new int[list.size()];
+		int n = 0;
+		for (Particle p : list) {
+			if (p.index >= 0 && p.index < particles.size() && particles.get(p.index) == p) indices[n++] = p.index;
+		}
+		return Arrays.copyOf(indices, n);
+	}
+
+	/**
+	 * @return the particle of the system at an index
+	 * @throws IOException if the index is out of range
+	 */
+	static Particle particle(List<Particle> particles, int i) throws IOException {
+		if (i < 0 || i >= particles.size()) throw new IOException("particle index " + i + " out of range");
+		return particles.get(i);
+	}
+
+	/**
+	 * @return the particles of the system at some indices, that are in range
+	 */
+	static List<Particle> particlesOf(int[] indices, List<Particle> particles) {
+		List<Particle> list = new ArrayList<Particle>(indices.length);
+		for (int i : indices) {
+			list.add(particles.get(i));
+		}
+		return list;
+	}
+}
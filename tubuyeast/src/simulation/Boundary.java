@@ -15,6 +15,11 @@ import no.uib.cipr.matrix.sparse.FlexCompRowMatrix;
  */
 public class Boundary {
 
+    /**
+     * Id of this boundary in the contact manifold that registered it.
+     */
+    int id = -1;
+
     private Point2d p1;
     private final Point2d p0;
     private final Vector2d bd;
@@ -190,9 +195,10 @@ public class Boundary {
      * Set to 0 for spatial threshold only.
      * @param dmin The minimal distance to the boundary a point has to be for contact
      * Set to 0 for temporal threshold only;
+     * @param contacts The contacts to which a new contact is added.
      * @return whether or not this point intersects the boundary.
      */
-    public boolean collide(Particle p, double tmin, double dmin) {
+    public boolean collide(Particle p, double tmin, double dmin, ContactManifold contacts) {
         Point2d pos = p.p;
         Vector2d v = p.v;
         
@@ -216,15 +222,18 @@ public class Boundary {
             }
 
             // Verify spatial distance t
-            Point2d pp = new Point2d(bd);
-            pp.scaleAdd(t, p0);
-            if (pp.distance(pos) < dmin) contact = true;
+            double ppx = t * bd.x + p0.x;
+            double ppy = t * bd.y + p0.y;
+            double dx = ppx - pos.x;
+            double dy = ppy - pos.y;
+            if (Math.sqrt(dx * dx + dy * dy) < dmin) contact = true;
 
             if (contact) {
-                contactPoint.set(pp);
+                contactPoint.set(ppx, ppy);
                 
-                if (!p.contactBoundaries.contains(this)) {
-                    p.addContact(this, contactPoint, getCollisionNormal(p.p));
+                if (contacts.find(p.index, this) == ContactManifold.NONE) {
+                    Vector2d normal = getCollisionNormal(p.p);
+                    contacts.add(p.index, this, ppx, ppy, normal.x, normal.y);
                 }
 
                 return true;
@@ -239,10 +248,11 @@ public class Boundary {
      * @param particle The particle intersecting the boundary.
      * @param dmin The minimal distance to the boundary a point has to be for contact
      * Set to 0 for temporal threshold only;
-     * @param index of this boundary in this particle's list.
+     * @param contacts The contacts of the system.
+     * @param c The contact between this particle and this boundary.
      * @return whether or not this particle is in contact.
      */
-    public boolean contact(Particle particle, double dmin, int index) {
+    public boolean contact(Particle particle, double dmin, ContactManifold contacts, int c) {
         Point2d pos = particle.p;
         
         // Find the scaling of the closest point to the boundary
@@ -263,7 +273,7 @@ public class Boundary {
         if (contactPoint.distance(pos) < dmin) {
 
             // Update this particle's contact point with the boundary
-            particle.contactPoints.set(index, contactPoint);
+            contacts.setPoint(c, contactPoint.x, contactPoint.y);
 
             return true;
         }
@@ -343,108 +353,73 @@ public class Boundary {
 
     /**
      * @param p The constrained particle.
+     * @param b The boundary it collided with.
+     * @param contacts The contacts of the system.
      * @param Si The constraint matrix (2*2 * n)
      * @param z The velocity delta seeding vector (2*n).
      */
-    public static void applyCollisionConstraint(Particle p, Boundary b, FlexCompRowMatrix[] Si, Vector z) {
+    public static void applyCollisionConstraint(Particle p, Boundary b, ContactManifold contacts, FlexCompRowMatrix[] Si, Vector z) {
                 
         if (p.grabbed) return;
         
         int i = p.index;
-        int bindex = p.contactBoundaries.indexOf(b);
+        int c = contacts.find(i, b);
+        if (c == ContactManifold.NONE) return;
         
-        Vector2d vN = new Vector2d();
-        Vector2d vT = new Vector2d();
-        double vdotn;
-        
-        Vector2d zi = new Vector2d();
-        Vector2d normal;
-
         // Apply collision constraints for that particle and boundary
-        normal = p.contactNormals.get(bindex);
-
-        vdotn = p.v.dot(normal);
-
-        // Find normal and tangential component of velocity
-        // to that boundary
-        vN.set(normal);
-        vN.scale(vdotn);
-
-        vT.add(vN);
-        vT.scale(-1);
-        vT.add(p.v);
+        double nx = contacts.getNormalX(c);
+        double ny = contacts.getNormalY(c);
+        double vdotn = p.v.x * nx + p.v.y * ny;
 
         // Collision response with coefficient of restitution
-        vN.scale(-1.5);
-        vT.scale(0);
-
+        // on the normal component of the velocity, tangential one removed
         Si[i].add(b.getDirectionalConstraint());
 
-        zi.add(vT, vN);
-        z.set(2 * i, zi.x);
-        z.set(2 * i + 1, zi.y);
+        z.set(2 * i, -1.5 * vdotn * nx);
+        z.set(2 * i + 1, -1.5 * vdotn * ny);
     }
 
     /**
      * @param p
      *            The particle in contact.
+     * @param contacts
+     *            The contacts of the system.
      * @param Si
      *            The constraint matrix (2*2 * n)
      * @param z
      *            The velocity delta seeding vector (2*n).
      */
-    public static void applyContactConstraints(Particle p, FlexCompRowMatrix[] Si, Vector z) {
+    public static void applyContactConstraints(Particle p, ContactManifold contacts, FlexCompRowMatrix[] Si, Vector z) {
                 
         int i = p.index;
-        int bindex = 0;
-        
-        Vector2d vN = new Vector2d();
-        Vector2d vT = new Vector2d();
-        double vdotn;
-        
-        Vector2d zi = new Vector2d();
-        Vector2d normal;
+        double zx = 0, zy = 0;
 
         // Apply contact constraints for all boundaries in contact with that particle.
-        for (Boundary b : p.contactBoundaries) {
-            normal = p.contactNormals.get(bindex);
-            
-            vdotn = p.v.dot(normal);
-            
-            // Find normal and tangential component of velocity
-            // to that boundary
-            vN.set(normal);
-            vN.scale(vdotn);
+        for (int c = contacts.first(i); c != ContactManifold.NONE; c = contacts.next(c)) {
+            double nx = contacts.getNormalX(c);
+            double ny = contacts.getNormalY(c);
+            double vdotn = p.v.x * nx + p.v.y * ny;
             
-            vT.add(vN);
-            vT.scale(-1);
-            vT.add(p.v);
-
             // Enforces contact if normal velocity
             // is small enough. (prevents drifting).
             // TODO: use position alteration method from Baraff SIG98 6.2
             // with position constraint on the normal?
-            if (vN.length() < 0.5) {
-                
-                vT.scale(0);
-                vN.scale(-1);
+            if (Math.abs(vdotn) < 0.5) {
+                zx = -vdotn * nx;
+                zy = -vdotn * ny;
                     
-                Si[i].add(b.getDirectionalConstraint());
+                Si[i].add(contacts.getBoundaryOf(c).getDirectionalConstraint());
                 p.inContact = true;
             }
             // Otherwise let collision detection deal with it
             else {
-                vN.scale(0);
-                vT.scale(0);
+                zx = 0;
+                zy = 0;
             }
-
-            zi.add(vT, vN);
-
-            bindex++;
         }
 
-        z.add(2*i, zi.x);
-        z.add(2*i+1, zi.y);
+        z.add(2*i, zx);
+        z.add(2*i+1, zy);
     }
 
     /**
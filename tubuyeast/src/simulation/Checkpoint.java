@@ -0,0 +1,398 @@
+package simulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.vecmath.Vector2d;
+
+import numerical.ImplicitEuler;
+import tools.parameters.DoubleParameter;
+import tools.parameters.IntParameter;
+import tools.parameters.Parameter;
+
+/**
+ * Saves the whole state of a particle system to a binary file and restores
+ * it: particles, springs by the indices of their particles, the bud, the
+ * mother cell and the nucleus, parameter values, the integrator, the time and
+ * the number of steps. Parameters that are not the system's, such as the
+ * step size, can be saved along.
+ * <p>
+ * Values are little-endian and streamed through a direct buffer.
+ * <pre>
+ * int magic 'TUBC', int version
+ * double time, long steps, int integrator
+ * int parameters, then for each: string name, byte type (0: double, 1: int),
+ *     double value, byte checked; the system's then the others
+ * int particles, then for each: byte type (0: particle, 1: bud, 2: motor),
+ *     byte flags (1: pinned, 2: collidable, 4: heavy, 8: motor direction,
+ *     16: in contact, 32: illegal), double mass, q, x, y, vx, vy, fx, fy,
+ *     x0, y0, vx0, vy0 [, direction x, y]
+ * int springs, then for each: byte type (0: linear, 1: bud, 2: angular),
+ *     int slot in the spring store, int p1, p2, then double k, b, l0 for
+ *     linear springs,
+ *     int p3, double k, theta0 for angular ones
+ * double bud radius, bud y transpose, int bud particles, their indices
+ * double cell radius, int cell particles, their indices
+ * int nucleus particles, their indices
+ * int constraint forces, then double each: those the implicit integrator
+ *     adds at the next step, two per particle, none for other integrators
+ * int magic
+ * </pre>
+ * Version 1 had no slots, no nucleus and no constraint forces. Springs are restored in the order
+ * of their slots, which swap removals make differ from the order of the
+ * spring list, so that their forces are summed in the same order and a
+ * restored run continues as the saved one would have.
+ * Forces are saved because the Verlet integrators start a step from the
+ * forces of the previous one. Parameters are matched by name, so checkpoints
+ * survive parameters being added or removed. A checkpoint is written to a
+ * temporary file that replaces the previous one only once complete, so a
+ * crash while saving leaves the last checkpoint intact.
+ */
+public class Checkpoint extends BinaryStream {
+
+	/**
+	 * 'TUBC'
+	 */
+	public static final int MAGIC = 0x54554243;
+
+	public static final int VERSION = 2;
+
+	/**
+	 * Largest record, a motor particle
+	 */
+	private static final int MAX_RECORD = 2 + 8 * 14;
+
+	private static final byte PARTICLE = 0, BUD_PARTICLE = 1, MOTOR_PARTICLE = 2;
+
+	private static final byte PINNED = 1, COLLIDABLE = 2, HEAVY = 4, DIRECTION = 8, IN_CONTACT = 16, ILLEGAL = 32;
+
+	private static final byte LINEAR = 0, BUD_SPRING = 1, ANGULAR = 2;
+
+	private static final byte DOUBLE = 0, INT = 1;
+
+	private Checkpoint(FileChannel channel, boolean writing) {
+		super(channel, writing, "checkpoint");
+	}
+
+	/**
+	 * Saves the state of a system.
+	 * @param system
+	 * @param file replaced once the checkpoint is complete
+	 * @param extra other parameters to save
+	 * @throws IOException
+	 */
+	public static void save(ParticleSystem system, File file, Parameter... extra) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			Checkpoint c = new Checkpoint(out.getChannel(), true);
+			c.write(system, extra);
+			c.flush();
+			out.getChannel().force(true);
+		} finally {
+			out.close();
+		}
+
+		// Some platforms cannot rename over an existing file
+		if (!tmp.renameTo(file)) {
+			if (!file.delete() || !tmp.renameTo(file)) {
+				throw new IOException("cannot replace " + file + " with " + tmp);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the state of a system with a saved one.
+	 * @param system
+	 * @param file
+	 * @param extra other parameters to restore, those that were not saved
+	 *            are left unchanged
+	 * @throws IOException if the file cannot be read or is not a checkpoint,
+	 *             in which case the system is unchanged
+	 */
+	public static void load(ParticleSystem system, File file, Parameter... extra) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			new Checkpoint(in.getChannel(), false).read(system, extra);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static Parameter[] parameters(ParticleSystem system, Parameter[] extra) {
+		Parameter[] own = system.getParameters();
+		Parameter[] all = Arrays.copyOf(own, own.length + extra.length);
+		System.arraycopy(extra, 0, all, own.length, extra.length);
+		return all;
+	}
+
+	private void write(ParticleSystem system, Parameter[] extra) throws IOException {
+		ensure(24);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putDouble(system.getTime());
+		buffer.putLong(system.getSteps());
+		ensure(4);
+		buffer.putInt(system.getIntegrationMethods().indexOf(system.integrationMethod));
+
+		Parameter[] parameters = parameters(system, extra);
+		ensure(4);
+		buffer.putInt(parameters.length);
+		for (Parameter p : parameters) {
+			putString(p.getName());
+			ensure(10);
+			if (p instanceof IntParameter) {
+				buffer.put(INT);
+				buffer.putDouble(((IntParameter) p).getValue());
+				buffer.put((byte) 0);
+			} else {
+				DoubleParameter dp = (DoubleParameter) p;
+				buffer.put(DOUBLE);
+				buffer.putDouble(dp.getValue());
+				buffer.put((byte) (dp.isChecked() ? 1 : 0));
+			}
+		}
+
+		List<Particle> particles = system.getParticles();
+		ensure(4);
+		buffer.putInt(particles.size());
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			ensure(MAX_RECORD);
+			MotorParticle motor = p instanceof MotorParticle ? (MotorParticle) p : null;
+			buffer.put(p instanceof BudParticle ? BUD_PARTICLE : motor != null ? MOTOR_PARTICLE : PARTICLE);
+			int flags = (p.pinned ? PINNED : 0) | (p.collidable ? COLLIDABLE : 0) | (p.heavy ? HEAVY : 0)
+					| (p.inContact ? IN_CONTACT : 0) | (p.illegal ? ILLEGAL : 0);
+			if (motor != null && motor.direction != null) flags |= DIRECTION;
+			buffer.put((byte) flags);
+			buffer.putDouble(p.mass);
+			buffer.putDouble(p.q);
+			buffer.putDouble(p.p.x);
+			buffer.putDouble(p.p.y);
+			buffer.putDouble(p.v.x);
+			buffer.putDouble(p.v.y);
+			buffer.putDouble(p.f.x);
+			buffer.putDouble(p.f.y);
+			buffer.putDouble(p.p0.x);
+			buffer.putDouble(p.p0.y);
+			buffer.putDouble(p.v0.x);
+			buffer.putDouble(p.v0.y);
+			if ((flags & DIRECTION) != 0) {
+				buffer.putDouble(motor.direction.x);
+				buffer.putDouble(motor.direction.y);
+			}
+		}
+
+		List<Spring> springs = system.getSprings();
+		SpringStore store = system.getSpringStore();
+		ensure(4);
+		buffer.putInt(springs.size());
+		for (int i = 0; i < springs.size(); i++) {
+			Spring s = springs.get(i);
+			ensure(MAX_RECORD);
+			if (s instanceof LinearSpring) {
+				LinearSpring ls = (LinearSpring) s;
+				buffer.put(s instanceof BudSpring ? BUD_SPRING : LINEAR);
+				buffer.putInt(store.getSlot(s));
+				buffer.putInt(indexOf(ls.p1, particles));
+				buffer.putInt(indexOf(ls.p2, particles));
+				buffer.putDouble(ls.k);
+				buffer.putDouble(ls.b);
+				buffer.putDouble(ls.l0);
+			} else if (s instanceof AngularSpring) {
+				AngularSpring as = (AngularSpring) s;
+				buffer.put(ANGULAR);
+				buffer.putInt(store.getSlot(s));
+				buffer.putInt(indexOf(as.p1, particles));
+				buffer.putInt(indexOf(as.p2, particles));
+				buffer.putInt(indexOf(as.p3, particles));
+				buffer.putDouble(as.k);
+				buffer.putDouble(as.theta0);
+			} else {
+				throw new IOException("cannot save springs of type " + s.getClass().getName());
+			}
+		}
+
+		Bud bud = system.getBud();
+		ensure(16);
+		buffer.putDouble(bud.getaRadius());
+		buffer.putDouble(bud.getYTranspose());
+		putIndices(bud.getParticles(), particles);
+
+		MotherCell cell = system.getMotherCell();
+		ensure(8);
+		buffer.putDouble(cell.getaRadius());
+		putIndices(cell.getOuterMembraneParticles(), particles);
+
+		putIndices(system.getNucleus().getParticles(), particles);
+
+		system.ensureInitialized(system.integrationMethod);
+		double[] constraint = system.integrationMethod instanceof ImplicitEuler
+				? ((ImplicitEuler) system.integrationMethod).getConstraintForces() : new double[0];
+		ensure(4);
+		buffer.putInt(constraint.length);
+		putDoubles(constraint, constraint.length);
+
+		ensure(4);
+		buffer.putInt(MAGIC);
+	}
+
+	private void read(ParticleSystem system, Parameter[] extra) throws IOException {
+		ensure(8);
+		if (buffer.getInt() != MAGIC) throw new IOException("not a checkpoint");
+		int version = buffer.getInt();
+		if (version < 1 || version > VERSION) throw new IOException("unsupported checkpoint version " + version);
+
+		// Read everything before changing the system
+		ensure(20);
+		double time = buffer.getDouble();
+		long steps = buffer.getLong();
+		int method = buffer.getInt();
+
+		ensure(4);
+		int n = buffer.getInt();
+		Map<String, double[]> values = new HashMap<String, double[]>();
+		for (int i = 0; i < n; i++) {
+			String name = getString();
+			ensure(10);
+			buffer.get();
+			double value = buffer.getDouble();
+			double checked = buffer.get();
+			values.put(name, new double[] { value, checked });
+		}
+
+		ensure(4);
+		n = buffer.getInt();
+		ArrayList<Particle> particles = new ArrayList<Particle>(n);
+		for (int i = 0; i < n; i++) {
+			ensure(MAX_RECORD - 16);
+			byte type = buffer.get();
+			byte flags = buffer.get();
+			double mass = buffer.getDouble();
+			double q = buffer.getDouble();
+			double x = buffer.getDouble(), y = buffer.getDouble();
+			double vx = buffer.getDouble(), vy = buffer.getDouble();
+			double fx = buffer.getDouble(), fy = buffer.getDouble();
+			double x0 = buffer.getDouble(), y0 = buffer.getDouble();
+			double vx0 = buffer.getDouble(), vy0 = buffer.getDouble();
+
+			Particle p;
+			if (type == BUD_PARTICLE) p = new BudParticle(x0, y0, vx0, vy0);
+			else if (type == MOTOR_PARTICLE) p = new MotorParticle(x0, y0, vx0, vy0);
+			else if (type == PARTICLE) p = new Particle(x0, y0, vx0, vy0);
+			else throw new IOException("unknown particle type " + type);
+
+			if ((flags & DIRECTION) != 0) {
+				ensure(16);
+				((MotorParticle) p).direction = new Vector2d(buffer.getDouble(), buffer.getDouble());
+			}
+			p.pinned = (flags & PINNED) != 0;
+			p.collidable = (flags & COLLIDABLE) != 0;
+			p.heavy = (flags & HEAVY) != 0;
+			p.inContact = (flags & IN_CONTACT) != 0;
+			p.illegal = (flags & ILLEGAL) != 0;
+			p.mass = mass;
+			p.q = q;
+			p.p.set(x, y);
+			p.v.set(vx, vy);
+			p.f.set(fx, fy);
+			particles.add(p);
+		}
+
+		ensure(4);
+		n = buffer.getInt();
+		ArrayList<Spring> springs = new ArrayList<Spring>(n);
+		final int[] slots = new int[n];
+		for (int i = 0; i < n; i++) {
+			ensure(5);
+			byte type = buffer.get();
+			slots[i] = version >= 2 ? buffer.getInt() : i;
+			if (type == LINEAR || type == BUD_SPRING) {
+				ensure(32);
+				Particle p1 = particle(particles, buffer.getInt());
+				Particle p2 = particle(particles, buffer.getInt());
+				double k = buffer.getDouble(), b = buffer.getDouble();
+				LinearSpring s = type == BUD_SPRING ? new BudSpring(p1, p2, k, b) : new LinearSpring(p1, p2, k, b);
+				s.l0 = buffer.getDouble();
+				springs.add(s);
+			} else if (type == ANGULAR) {
+				ensure(28);
+				Particle p1 = particle(particles, buffer.getInt());
+				Particle p2 = particle(particles, buffer.getInt());
+				Particle p3 = particle(particles, buffer.getInt());
+				AngularSpring s = new AngularSpring(p1, p2, p3, buffer.getDouble());
+				s.theta0 = buffer.getDouble();
+				springs.add(s);
+			} else {
+				throw new IOException("unknown spring type " + type);
+			}
+		}
+
+		ensure(16);
+		double budRadius = buffer.getDouble();
+		double budY = buffer.getDouble();
+		List<Particle> budParticles = getParticles(particles);
+		ensure(8);
+		double cellRadius = buffer.getDouble();
+		List<Particle> cellParticles = getParticles(particles);
+		List<Particle> nucleusParticles = version >= 2 ? getParticles(particles) : new ArrayList<Particle>();
+		double[] constraint = new double[0];
+		if (version >= 2) constraint = getDoubles(getCount(2 * particles.size()));
+
+		ensure(4);
+		if (buffer.getInt() != MAGIC) throw new IOException("truncated checkpoint");
+
+		// Parameters first, updating the system sets the particle charges
+		ParticleSystem.setParameterValues(parameters(system, extra), values);
+		if (method >= 0 && method < system.getIntegrationMethods().size()) {
+			system.setIntegrationMethod(method);
+		}
+
+		system.ungrab();
+		system.particles.clear();
+		system.particles.addAll(particles);
+		system.springs.clear();
+		system.springs.addAll(springs);
+		system.updateSystem();
+		system.setTime(time, steps);
+
+		// Sum the spring forces in the order of the saved system
+		Integer[] order = new Integer[springs.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return slots[a] < slots[b] ? -1 : slots[a] == slots[b] ? 0 : 1;
+			}
+		});
+		List<Spring> packed = new ArrayList<Spring>(springs.size());
+		for (Integer i : order) {
+			packed.add(springs.get(i));
+		}
+		system.getSpringStore().rebuild(packed);
+		system.ensureInitialized(system.integrationMethod);
+		if (system.integrationMethod instanceof ImplicitEuler) {
+			((ImplicitEuler) system.integrationMethod).setConstraintForces(constraint);
+		}
+
+		Bud bud = system.getBud();
+		bud.setaRadius(budRadius);
+		bud.setYTranspose(budY);
+		bud.setParticles(budParticles);
+		MotherCell cell = system.getMotherCell();
+		cell.setRadius(cellRadius);
+		cell.setOuterMembraneParticles(cellParticles);
+		system.getNucleus().setParticles(nucleusParticles);
+	}
+}
@@ -0,0 +1,297 @@
+package simulation;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a file written by a {@link CompressedTrajectoryRecorder}
+ * in any order. Seeking decodes from the keyframe before the frame, so at most
+ * a keyframe interval of frames; playing forward decodes one frame at a time.
+ * <p>
+ * The frames are indexed as they are found, so a file can be read while it is
+ * recorded.
+ */
+public class CompressedTrajectoryReader implements Trajectory {
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+
+	private final int every;
+	private final int keyframes;
+	private final double quantum;
+
+	/**
+	 * Offsets of the frames found so far, and whether they are keyframes
+	 */
+	private long[] offsets = new long[1024];
+	private boolean[] key = new boolean[1024];
+	private long indexed = 0;
+	private long end = CompressedTrajectoryRecorder.HEADER_SIZE;
+	private final ByteBuffer frameHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private long acc;
+	private int avail;
+
+	/**
+	 * The decoded frame, -1 if none
+	 */
+	private long current = -1;
+	private long step;
+	private double time;
+	private int n;
+	private int[] handle = new int[0];
+	private int[] flags = new int[0];
+	private long[] x = new long[0], y = new long[0];
+
+	/**
+	 * Opens a compressed trajectory file.
+	 * @param f
+	 * @throws IOException if the file cannot be read or is not a compressed
+	 *             trajectory
+	 */
+	public CompressedTrajectoryReader(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(CompressedTrajectoryRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.size() < header.capacity()) {
+			file.close();
+			throw new IOException(f + " is not a compressed trajectory");
+		}
+		read(header, 0);
+		if (header.getInt(0) != CompressedTrajectoryRecorder.MAGIC) {
+			file.close();
+			throw new IOException(f + " is not a compressed trajectory");
+		}
+		if (header.getInt(4) != CompressedTrajectoryRecorder.VERSION) {
+			file.close();
+			throw new IOException(f + " has unsupported version " + header.getInt(4));
+		}
+		every = header.getInt(8);
+		keyframes = header.getInt(12);
+		quantum = header.getDouble(16);
+	}
+
+	private void read(ByteBuffer b, long position) throws IOException {
+		b.clear();
+		while (b.hasRemaining()) {
+			if (channel.read(b, position + b.position()) < 0) throw new EOFException("truncated trajectory");
+		}
+		b.flip();
+	}
+
+	/**
+	 * Indexes the frames written since the last call
+	 */
+	private void index() throws IOException {
+		long size = channel.size();
+		while (end + CompressedTrajectoryRecorder.FRAME_HEADER_SIZE <= size) {
+			read(frameHeader, end);
+			int frameSize = frameHeader.getInt(0);
+			if (frameSize < CompressedTrajectoryRecorder.FRAME_HEADER_SIZE) throw new IOException("corrupt trajectory");
+			// The last frame may still be being written
+			if (end + frameSize > size) break;
+			if (indexed == offsets.length) {
+				offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+				key = Arrays.copyOf(key, 2 * key.length);
+			}
+			offsets[(int) indexed] = end;
+			key[(int) indexed] = frameHeader.getInt(4) == CompressedTrajectoryRecorder.KEYFRAME;
+			indexed++;
+			end += frameSize;
+		}
+	}
+
+	public long getFrames() {
+		try {
+			index();
+		} catch (IOException e) {
+			// The frames indexed so far remain readable
+		}
+		return indexed;
+	}
+
+	/**
+	 * @return the number of steps between frames
+	 */
+	public int getEvery() {
+		return every;
+	}
+
+	/**
+	 * @return the number of frames between keyframes
+	 */
+	public int getKeyframeInterval() {
+		return keyframes;
+	}
+
+	/**
+	 * @return the largest error of a position
+	 */
+	public double getTolerance() {
+		return quantum / 2;
+	}
+
+	public void seek(long frame) throws IOException {
+		if (frame < 0 || frame >= getFrames()) {
+			throw new IndexOutOfBoundsException("frame " + frame + " of " + indexed);
+		}
+		if (frame == current) return;
+
+		long from = current >= 0 && frame > current ? current + 1 : frame;
+		long k = frame;
+		while (!key[(int) k]) k--;
+		if (k > from || current < 0 || frame < current) from = k;
+		for (long f = from; f <= frame; f++) {
+			decode(f);
+		}
+	}
+
+	/**
+	 * Decodes a frame, the previous one being decoded unless it is a
+	 * keyframe
+	 */
+	private void decode(long frame) throws IOException {
+		long offset = offsets[(int) frame];
+		long size = (frame + 1 < indexed ? offsets[(int) frame + 1] : end) - offset;
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocateDirect((int) Math.max(size, 2 * buffer.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		buffer.limit((int) size);
+		buffer.position(0);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("truncated trajectory");
+		}
+		buffer.flip();
+
+		buffer.getInt();
+		boolean keyframe = buffer.getInt() == CompressedTrajectoryRecorder.KEYFRAME;
+		step = buffer.getLong();
+		time = buffer.getDouble();
+		n = buffer.getInt();
+		buffer.getInt();
+		if (x.length < n) {
+			handle = Arrays.copyOf(handle, n);
+			flags = Arrays.copyOf(flags, n);
+			x = Arrays.copyOf(x, n);
+			y = Arrays.copyOf(y, n);
+		}
+
+		acc = 0;
+		avail = 0;
+		if (keyframe) {
+			long last = 0;
+			for (int g = 0; g < n; g += CompressedTrajectoryRecorder.GROUP) {
+				int w = (int) getBits(CompressedTrajectoryRecorder.WIDTH_BITS);
+				for (int i = g; i < Math.min(n, g + CompressedTrajectoryRecorder.GROUP); i++) {
+					last += CompressedTrajectoryRecorder.unzigzag(getBits(w));
+					handle[i] = (int) last;
+				}
+			}
+			for (int g = 0; g < n; g += CompressedTrajectoryRecorder.GROUP) {
+				int w = (int) getBits(CompressedTrajectoryRecorder.WIDTH_BITS);
+				for (int i = g; i < Math.min(n, g + CompressedTrajectoryRecorder.GROUP); i++) {
+					flags[i] = (int) getBits(w);
+				}
+			}
+			unpackDifferences(x, true);
+			unpackDifferences(y, true);
+		} else {
+			unpackDifferences(x, false);
+			unpackDifferences(y, false);
+		}
+		current = frame;
+	}
+
+	/**
+	 * Adds the packed differences to the values of the previous frame, or to
+	 * the previous value
+	 */
+	private void unpackDifferences(long[] v, boolean keyframe) {
+		long last = 0;
+		for (int g = 0; g < n; g += CompressedTrajectoryRecorder.GROUP) {
+			int w = (int) getBits(CompressedTrajectoryRecorder.WIDTH_BITS);
+			int groupEnd = Math.min(n, g + CompressedTrajectoryRecorder.GROUP);
+			if (keyframe) {
+				for (int i = g; i < groupEnd; i++) {
+					last += CompressedTrajectoryRecorder.unzigzag(getBits(w));
+					v[i] = last;
+				}
+			} else if (w > 0) {
+				for (int i = g; i < groupEnd; i++) {
+					v[i] += CompressedTrajectoryRecorder.unzigzag(getBits(w));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the next w bits
+	 */
+	private long getBits(int w) {
+		if (w == 0) return 0;
+		long v;
+		if (w <= avail) {
+			v = acc & ((1L << w) - 1);
+			acc >>>= w;
+			avail -= w;
+		} else {
+			long next = buffer.getLong();
+			int need = w - avail;
+			v = acc | ((next & ((1L << need) - 1)) << avail);
+			acc = next >>> need;
+			avail = 64 - need;
+		}
+		return v;
+	}
+
+	public long getStep() {
+		return step;
+	}
+
+	public double getTime() {
+		return time;
+	}
+
+	public int getParticleCount() {
+		return n;
+	}
+
+	public int getHandle(int i) {
+		return handle[i];
+	}
+
+	public int getFlags(int i) {
+		return flags[i];
+	}
+
+	public double getX(int i) {
+		return x[i] * quantum;
+	}
+
+	public double getY(int i) {
+		return y[i] * quantum;
+	}
+
+	public void pack(SystemSnapshot snapshot) {
+		snapshot.clear();
+		snapshot.time = time;
+		snapshot.steps = step;
+		snapshot.lightParticles.color(0, 0.95, 0, 1);
+		snapshot.heavyParticles.color(0, 0, 1, 1);
+		for (int i = 0; i < n; i++) {
+			boolean heavy = (flags[i] & TrajectoryRecorder.PARTICLE_HEAVY) != 0;
+			(heavy ? snapshot.heavyParticles : snapshot.lightParticles).vertex(x[i] * quantum, y[i] * quantum);
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,394 @@
+package simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import tools.Uninterruptible;
+
+/**
+ * Records the particle positions of every k-th step to a compressed
+ * trajectory file, read by {@link CompressedTrajectoryReader}. Positions are
+ * quantized to multiples of twice the tolerance, so that they read back
+ * within the tolerance. Keyframes hold the quantized positions, the frames in
+ * between their difference with the previous frame, which takes a few bits
+ * for slow motion and none for pinned particles. A keyframe is written every
+ * so many frames, and whenever the particles change.
+ * <p>
+ * Values are zigzag encoded and bit-packed in groups of {@link #GROUP} that
+ * share a width, so that a few fast particles do not widen the others.
+ * Little-endian:
+ * <pre>
+ * header: int magic 'TUBQ', int version, int every (steps per frame),
+ *         int keyframe interval, double quantum (twice the tolerance),
+ *         double step size, long frames written
+ * frame:  int frame size, int kind (0: keyframe, 1: delta), long step,
+ *         double time, int particles, int reserved, then longs of bits
+ *         keyframe: handles, flags, x, y, each value minus that of the
+ *                   previous particle
+ *         delta:    x, y, each value minus that of the same particle in
+ *                   the previous frame
+ * bits:   for each group, a 6 bit width w then w bits per value, least
+ *         significant bits first
+ * </pre>
+ * Velocities and forces are not recorded. The simulation thread copies the
+ * positions to a frame from a fixed pool and hands it to a background
+ * thread that encodes and writes it, waiting only if the pool is empty.
+ */
+public class CompressedTrajectoryRecorder implements TrajectoryWriter {
+
+	/**
+	 * 'TUBQ'
+	 */
+	public static final int MAGIC = 0x54554251;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 40;
+
+	public static final int FRAME_HEADER_SIZE = 32;
+
+	public static final int KEYFRAME = 0, DELTA = 1;
+
+	/**
+	 * Number of values sharing a width
+	 */
+	public static final int GROUP = 64;
+
+	/**
+	 * Bits of a width
+	 */
+	static final int WIDTH_BITS = 6;
+
+	/**
+	 * Quantized values are clamped so that differences of zigzag encoded
+	 * values fit in 63 bits
+	 */
+	private static final long LIMIT = 1L << 60;
+
+	static final int STEP_SIZE_OFFSET = 24;
+	static final int FRAMES_OFFSET = 32;
+
+	private static final int POOL_SIZE = 8;
+
+	/**
+	 * Positions of a step, quantized
+	 */
+	private static class Frame {
+		long step;
+		double time;
+		int n;
+		int[] handle = new int[0];
+		int[] flags = new int[0];
+		long[] x = new long[0], y = new long[0];
+
+		void ensureCapacity(int capacity) {
+			if (capacity <= x.length) return;
+			handle = Arrays.copyOf(handle, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+		}
+	}
+
+	/**
+	 * Marks the end of the frames
+	 */
+	private static final Frame END = new Frame();
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+	private final int every;
+	private final int keyframes;
+	private final double quantum;
+
+	private final ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+	private final ArrayBlockingQueue<Frame> free = new ArrayBlockingQueue<Frame>(POOL_SIZE);
+	private final Thread writer;
+
+	private long frames = 0;
+	private double h = 0;
+	private volatile IOException error = null;
+
+	/**
+	 * Writer thread state: the previous frame and the bits of the current
+	 * one
+	 */
+	private Frame previous = new Frame();
+	private int sinceKeyframe = 0;
+	private long[] words = new long[0];
+	private int count;
+	private long acc;
+	private int bits;
+	private long[] values = new long[0];
+	private long bytesWritten = HEADER_SIZE;
+
+	/**
+	 * Creates a compressed trajectory file, replacing any existing one.
+	 * @param f
+	 * @param every the number of steps between frames
+	 * @param tolerance the largest error of a position read back
+	 * @param keyframes the number of frames between keyframes, which bounds
+	 *            the frames decoded to seek
+	 * @throws IOException
+	 */
+	public CompressedTrajectoryRecorder(File f, int every, double tolerance, int keyframes) throws IOException {
+		if (!(tolerance > 0)) throw new IllegalArgumentException("tolerance must be positive");
+		this.every = Math.max(1, every);
+		this.keyframes = Math.max(1, keyframes);
+		quantum = 2 * tolerance;
+
+		file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(this.every);
+		out.putInt(this.keyframes);
+		out.putDouble(quantum);
+		out.putDouble(0);
+		out.putLong(0);
+
+		for (int i = 0; i < POOL_SIZE; i++) {
+			free.add(new Frame());
+		}
+
+		writer = new Thread("trajectory writer") {
+			@Override
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records the positions if the step is a multiple of the number of steps
+	 * between frames, waiting for the writer if it is more than a few frames
+	 * behind. An error stops the recording, see {@link #close()}.
+	 */
+	public void record(long step, double time, double h, List<Particle> particles) {
+		if (error != null || step % every != 0) return;
+
+		Frame frame = Uninterruptible.take(free);
+		int n = particles.size();
+		frame.ensureCapacity(n);
+		frame.step = step;
+		frame.time = time;
+		frame.n = n;
+		for (int i = 0; i < n; i++) {
+			Particle p = particles.get(i);
+			frame.handle[i] = p.handle;
+			frame.flags[i] = (p.heavy ? TrajectoryRecorder.PARTICLE_HEAVY : 0)
+					| (p instanceof BudParticle ? TrajectoryRecorder.PARTICLE_BUD : 0);
+			frame.x[i] = quantize(p.p.x);
+			frame.y[i] = quantize(p.p.y);
+		}
+		this.h = h;
+		frames++;
+		queue.add(frame);
+	}
+
+	private long quantize(double v) {
+		long q = Math.round(v / quantum);
+		return Math.max(-LIMIT, Math.min(LIMIT, q));
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return 0, frames hold all the particles
+	 */
+	public long getTruncated() {
+		return 0;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Writes the remaining frames and closes the file.
+	 * @throws IOException if recording or closing failed
+	 */
+	public void close() throws IOException {
+		Uninterruptible.put(queue, END);
+		Uninterruptible.join(writer);
+
+		try {
+			if (error == null) {
+				ByteBuffer b = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+				b.putDouble(h);
+				b.putLong(frames);
+				b.flip();
+				channel.write(b, STEP_SIZE_OFFSET);
+			}
+		} finally {
+			file.close();
+		}
+		if (error != null) throw error;
+	}
+
+	/**
+	 * Writer thread loop
+	 */
+	private void write() {
+		while (true) {
+			Frame frame = Uninterruptible.take(queue);
+			if (frame == END) break;
+
+			if (error == null) {
+				try {
+					encode(frame);
+					// Keep the file current for replay during long runs
+					if (queue.isEmpty()) flush();
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			free.add(previous);
+			previous = frame;
+		}
+		try {
+			if (error == null) flush();
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	private void encode(Frame frame) throws IOException {
+		int n = frame.n;
+		boolean key = sinceKeyframe == 0 || n != previous.n;
+		for (int i = 0; !key && i < n; i++) {
+			if (frame.handle[i] != previous.handle[i]) key = true;
+		}
+		sinceKeyframe = (key ? 1 : sinceKeyframe + 1) % keyframes;
+
+		if (values.length < n) values = new long[n];
+		count = 0;
+		acc = 0;
+		bits = 0;
+		if (key) {
+			long last = 0;
+			for (int i = 0; i < n; i++) {
+				values[i] = zigzag(frame.handle[i] - last);
+				last = frame.handle[i];
+			}
+			pack(n);
+			for (int i = 0; i < n; i++) {
+				values[i] = frame.flags[i];
+			}
+			pack(n);
+			packDifferences(frame.x, null, n);
+			packDifferences(frame.y, null, n);
+		} else {
+			packDifferences(frame.x, previous.x, n);
+			packDifferences(frame.y, previous.y, n);
+		}
+		if (bits > 0) put(acc);
+
+		int size = FRAME_HEADER_SIZE + 8 * count;
+		ensure(FRAME_HEADER_SIZE);
+		out.putInt(size);
+		out.putInt(key ? KEYFRAME : DELTA);
+		out.putLong(frame.step);
+		out.putDouble(frame.time);
+		out.putInt(n);
+		out.putInt(0);
+		for (int i = 0; i < count; i++) {
+			ensure(8);
+			out.putLong(words[i]);
+		}
+		bytesWritten += size;
+	}
+
+	/**
+	 * Packs the differences of the values with those of the previous
+	 * frame, or with the previous value if there is none
+	 */
+	private void packDifferences(long[] v, long[] before, int n) {
+		if (before == null) {
+			long last = 0;
+			for (int i = 0; i < n; i++) {
+				values[i] = zigzag(v[i] - last);
+				last = v[i];
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				values[i] = zigzag(v[i] - before[i]);
+			}
+		}
+		pack(n);
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Packs the first n values in groups sharing a width
+	 */
+	private void pack(int n) {
+		for (int g = 0; g < n; g += GROUP) {
+			int end = Math.min(n, g + GROUP);
+			long max = 0;
+			for (int i = g; i < end; i++) {
+				max |= values[i];
+			}
+			int w = 64 - Long.numberOfLeadingZeros(max);
+			putBits(w, WIDTH_BITS);
+			if (w == 0) continue;
+			for (int i = g; i < end; i++) {
+				putBits(values[i], w);
+			}
+		}
+	}
+
+	/**
+	 * Appends the w low bits of v, which has no other bits set
+	 */
+	private void putBits(long v, int w) {
+		acc |= v << bits;
+		bits += w;
+		if (bits >= 64) {
+			put(acc);
+			bits -= 64;
+			acc = bits == 0 ? 0 : v >>> (w - bits);
+		}
+	}
+
+	private void put(long word) {
+		if (count == words.length) words = Arrays.copyOf(words, Math.max(1024, 2 * count));
+		words[count++] = word;
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (out.remaining() < bytes) flush();
+	}
+
+	private void flush() throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -0,0 +1,239 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+
+import tools.gl.VertexBatch;
+
+/**
+ * Contacts between particles and boundaries, stored in flat arrays that are
+ * reused from one step to the next. The contacts of a particle are chained
+ * in the order they were added, from {@link #first(int)} through
+ * {@link #next(int)}.
+ */
+public class ContactManifold {
+
+	/**
+	 * Value returned when there is no contact.
+	 */
+	public static final int NONE = -1;
+
+	private int size = 0;
+
+	private int[] particle = new int[16];
+	private int[] boundary = new int[16];
+	private double[] px = new double[16], py = new double[16];
+	private double[] nx = new double[16], ny = new double[16];
+
+	/**
+	 * Next contact of the same particle.
+	 */
+	private int[] next = new int[16];
+
+	/**
+	 * First and last contact of each particle, by particle index. The last
+	 * contact is only valid if there is a first one.
+	 */
+	private int[] head = new int[0], tail = new int[0];
+
+	/**
+	 * Boundaries by id.
+	 */
+	private ArrayList<Boundary> boundaries = new ArrayList<Boundary>();
+
+	/**
+	 * Removes all contacts. Does not allocate unless the number of particles
+	 * grew.
+	 * @param numParticles the number of particles in the system
+	 */
+	public void clear(int numParticles) {
+		if (head.length < numParticles) {
+			head = new int[Math.max(numParticles, 2 * head.length)];
+			tail = new int[head.length];
+		}
+		Arrays.fill(head, NONE);
+		size = 0;
+	}
+
+	/**
+	 * @param b
+	 * @return the id of this boundary, registering it on first use.
+	 */
+	public int getId(Boundary b) {
+		if (b.id < 0 || b.id >= boundaries.size() || boundaries.get(b.id) != b) {
+			b.id = boundaries.size();
+			boundaries.add(b);
+		}
+		return b.id;
+	}
+
+	/**
+	 * @param id
+	 * @return the boundary with this id.
+	 */
+	public Boundary getBoundary(int id) {
+		return boundaries.get(id);
+	}
+
+	/**
+	 * Adds a contact.
+	 * @param p the particle index
+	 * @param b the boundary
+	 * @param x contact point
+	 * @param y
+	 * @param normalx contact normal
+	 * @param normaly
+	 * @return the contact
+	 */
+	public int add(int p, Boundary b, double x, double y, double normalx, double normaly) {
+		if (size == particle.length) {
+			int capacity = 2 * size;
+			particle = Arrays.copyOf(particle, capacity);
+			boundary = Arrays.copyOf(boundary, capacity);
+			px = Arrays.copyOf(px, capacity);
+			py = Arrays.copyOf(py, capacity);
+			nx = Arrays.copyOf(nx, capacity);
+			ny = Arrays.copyOf(ny, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+
+		int c = size++;
+		particle[c] = p;
+		boundary[c] = getId(b);
+		px[c] = x;
+		py[c] = y;
+		nx[c] = normalx;
+		ny[c] = normaly;
+
+		// Keep the contacts of a particle in insertion order
+		next[c] = NONE;
+		if (head[p] == NONE) {
+			head[p] = c;
+		}
+		else {
+			next[tail[p]] = c;
+		}
+		tail[p] = c;
+
+		return c;
+	}
+
+	/**
+	 * @param p the particle index
+	 * @param b the boundary
+	 * @return the contact between them, or {@link #NONE}
+	 */
+	public int find(int p, Boundary b) {
+		// Not registered, so no contact with it
+		if (b.id < 0 || b.id >= boundaries.size() || boundaries.get(b.id) != b) {
+			return NONE;
+		}
+
+		for (int c = head[p]; c != NONE; c = next[c]) {
+			if (boundary[c] == b.id) return c;
+		}
+		return NONE;
+	}
+
+	/**
+	 * @param p the particle index
+	 * @return the first contact of this particle, or {@link #NONE}
+	 */
+	public int first(int p) {
+		return p < head.length ? head[p] : NONE;
+	}
+
+	/**
+	 * @param c a contact
+	 * @return the next contact of the same particle, or {@link #NONE}
+	 */
+	public int next(int c) {
+		return next[c];
+	}
+
+	/**
+	 * @return the number of contacts.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getParticle(int c) {
+		return particle[c];
+	}
+
+	public Boundary getBoundaryOf(int c) {
+		return boundaries.get(boundary[c]);
+	}
+
+	public double getPointX(int c) {
+		return px[c];
+	}
+
+	public double getPointY(int c) {
+		return py[c];
+	}
+
+	public double getNormalX(int c) {
+		return nx[c];
+	}
+
+	public double getNormalY(int c) {
+		return ny[c];
+	}
+
+	/**
+	 * Moves the point of a contact.
+	 * @param c
+	 * @param x
+	 * @param y
+	 */
+	public void setPoint(int c, double x, double y) {
+		px[c] = x;
+		py[c] = y;
+	}
+
+	/**
+	 * Adds the contact points and their normals to batches.
+	 * @param points
+	 * @param normals
+	 */
+	public void pack(VertexBatch points, VertexBatch normals) {
+		points.color(1, 1, 0, 1);
+		normals.color(0, 0, 1, 0.8);
+		for (int c = 0; c < size; c++) {
+			points.vertex(px[c], py[c]);
+			normals.vertex(px[c], py[c]);
+			normals.vertex(px[c] + 20 * nx[c], py[c] + 20 * ny[c]);
+		}
+	}
+
+	/**
+	 * Display the contact points and normals.
+	 * @param drawable
+	 */
+	public void display(GLAutoDrawable drawable) {
+		if (size == 0) return;
+
+		GL gl = drawable.getGL();
+
+		gl.glPointSize(10);
+		gl.glColor4d(1, 1, 0, 1);
+		gl.glBegin(GL.GL_POINTS);
+		for (int c = 0; c < size; c++) {
+			gl.glVertex2d(px[c], py[c]);
+		}
+		gl.glEnd();
+
+		gl.glColor4d(0, 0, 1, 0.8);
+		gl.glBegin(GL.GL_LINES);
+		for (int c = 0; c < size; c++) {
+			gl.glVertex2d(px[c], py[c]);
+			gl.glVertex2d(px[c] + 20 * nx[c], py[c] + 20 * ny[c]);
+		}
+		gl.glEnd();
+	}
+}
@@ -1,7 +1,5 @@
 package simulation;
 
-import javax.vecmath.Vector2d;
-
 public class CoulombForce {
 
 	public static final double k = 8.987551787368e09;
@@ -12,9 +10,10 @@ public class CoulombForce {
 		// TODO: determine correct scale size
 		double cell_scale = 1e-6;
 		
-		Vector2d dp = new Vector2d();
-		dp.sub(p1.p, p2.p);
-		double r = dp.length() * cell_scale;
+		double dx = p1.p.x - p2.p.x;
+		double dy = p1.p.y - p2.p.y;
+		double l = Math.sqrt(dx * dx + dy * dy);
+		double r = l * cell_scale;
 		
 		// FIXME: this is just a hack to prevent div by 0... shouldn't happen
 		if (r == 0) {
@@ -22,11 +21,13 @@ public class CoulombForce {
 			return;
 		}
 		
-		dp.normalize();
+		double norm = 1.0 / l;
+		dx *= norm;
+		dy *= norm;
 
 		// FIXME: remove the leading constant when we have true values
 		double F = 1e16*k * p1.q * e * p2.q * e / (r*r);
-		p1.f.x += F * dp.x; 
-		p1.f.y += F * dp.y; 
+		p1.f.x += F * dx; 
+		p1.f.y += F * dy; 
 	}
 }
@@ -0,0 +1,203 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+
+import tools.CommandLine;
+import tools.gl.MetricsSink;
+import tools.parameters.DoubleParameter;
+
+/**
+ * Runs a simulation without a window, for long runs and measurements.
+ * <p>
+ * Usage: HeadlessRunner [-scene 3 | -generated particles] [-steps 1000]
+ * [-h 0.0015] [-bud] [-metrics file.csv|file.jsonl] [-queue 4096]
+ * [-trajectory file] [-every 10] [-capacity particles] [-forces]
+ * [-compress tolerance] [-keyframes 100]
+ * [-restore file] [-checkpoint file] [-checkpointEvery 10000]
+ * [-load scene] [-saveScene scene]
+ * <p>
+ * With -bud the bud of the complete cell grows before every step, as in the
+ * application.
+ * <p>
+ * With -trajectory the particles of every k-th step are recorded, see
+ * {@link TrajectoryRecorder}. Frames hold the initial number of particles
+ * unless a larger capacity is given. With -compress positions are recorded
+ * within the tolerance to a much smaller file, see
+ * {@link CompressedTrajectoryRecorder}, with a keyframe every so many frames.
+ * <p>
+ * With -restore the run starts from a {@link Checkpoint} instead of a scene,
+ * with its step size unless -h is given.
+ * With -checkpoint the state is saved every so many steps and at the end, so
+ * that a run interrupted by a crash can be restarted from its last
+ * checkpoint.
+ * <p>
+ * With -load the run starts from a {@link Scene} file, binary or XML. With
+ * -saveScene the initial scene is saved before running, as XML if the name
+ * ends with .xml, so that -load cell.xml -saveScene cell.scene -steps 0
+ * compiles a description.
+ */
+public class HeadlessRunner {
+
+	private int scene = 3;
+	private int generated = 0;
+	private long steps = 1000;
+	private DoubleParameter h = new DoubleParameter("step size", 0.0015, 1e-5, 1);
+	private boolean hGiven = false;
+	private boolean bud = false;
+	private File metrics = null;
+	private int queue = 4096;
+	private File trajectory = null;
+	private int every = 10;
+	private int capacity = 0;
+	private boolean forces = false;
+	private double compress = 0;
+	private int keyframes = 100;
+	private File restore = null;
+	private File checkpoint = null;
+	private long checkpointEvery = 10000;
+	private File load = null;
+	private File saveScene = null;
+
+	/**
+	 * Parses the command line options.
+	 * @param args
+	 */
+	HeadlessRunner(String[] args) {
+		CommandLine options = new CommandLine(args, "-bud", "-forces");
+		while (options.next()) {
+			if (options.is("-bud")) bud = true;
+			else if (options.is("-forces")) forces = true;
+			else if (options.is("-scene")) scene = options.getInt();
+			else if (options.is("-generated")) generated = options.getInt();
+			else if (options.is("-steps")) steps = options.getLong();
+			else if (options.is("-h")) {
+				h.setValue(options.getDouble());
+				hGiven = true;
+			}
+			else if (options.is("-metrics")) metrics = options.getFile();
+			else if (options.is("-queue")) queue = options.getInt();
+			else if (options.is("-trajectory")) trajectory = options.getFile();
+			else if (options.is("-every")) every = options.getInt();
+			else if (options.is("-capacity")) capacity = options.getInt();
+			else if (options.is("-compress")) compress = options.getDouble();
+			else if (options.is("-keyframes")) keyframes = options.getInt();
+			else if (options.is("-restore")) restore = options.getFile();
+			else if (options.is("-checkpoint")) checkpoint = options.getFile();
+			else if (options.is("-checkpointEvery")) checkpointEvery = options.getLong();
+			else if (options.is("-load")) load = options.getFile();
+			else if (options.is("-saveScene")) saveScene = options.getFile();
+			else throw options.unknown();
+		}
+	}
+
+	/**
+	 * @return the system described by the options
+	 * @throws IOException if the checkpoint to restore or the scene could not
+	 *             be read
+	 */
+	ParticleSystem createSystem() throws IOException {
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		if (restore != null) {
+			double given = h.getValue();
+			Checkpoint.load(system, restore, h);
+			if (hGiven) h.setValue(given);
+		}
+		else if (load != null) {
+			long t0 = System.nanoTime();
+			Scene.load(load).build(system);
+			System.out.println("Scene " + load + " loaded in " + (System.nanoTime() - t0) / 1000000 + " ms");
+		}
+		else if (generated > 0) {
+			SceneGenerator generator = new SceneGenerator();
+			generator.setParticleCount(generated);
+			generator.generate(system);
+		}
+		else {
+			ParticleSimulationApp.createSystem(system, scene);
+		}
+		return system;
+	}
+
+	/**
+	 * Runs the simulation.
+	 * @throws IOException if the metrics, the trajectory or a checkpoint
+	 *             could not be written
+	 */
+	void run() throws IOException {
+		ParticleSystem system = createSystem();
+		if (saveScene != null) {
+			Scene.capture(system).save(saveScene);
+			System.out.println("Scene saved to " + saveScene);
+		}
+
+		MetricsSink sink = null;
+		if (metrics != null) {
+			sink = new MetricsSink(metrics, system.swt, ParticleSystem.METRICS_COUNTERS, queue);
+			system.setMetricsSink(sink);
+		}
+
+		TrajectoryWriter recorder = null;
+		if (trajectory != null && compress > 0) {
+			recorder = new CompressedTrajectoryRecorder(trajectory, every, compress, keyframes);
+			system.setTrajectoryRecorder(recorder);
+		}
+		else if (trajectory != null) {
+			int n = capacity > 0 ? capacity : system.getParticles().size();
+			recorder = new TrajectoryRecorder(trajectory, n, every, forces);
+			system.setTrajectoryRecorder(recorder);
+		}
+
+		long t0 = System.nanoTime();
+		for (long i = 0; i < steps; i++) {
+			if (bud) ParticleSimulationApp.growBud(system);
+			system.step(h.getValue());
+			if (checkpoint != null && (i + 1) % checkpointEvery == 0) {
+				Checkpoint.save(system, checkpoint, h);
+			}
+		}
+		long t1 = System.nanoTime();
+
+		if (checkpoint != null) {
+			Checkpoint.save(system, checkpoint, h);
+			System.out.println("State at step " + system.getSteps() + " saved to " + checkpoint);
+		}
+
+		if (sink != null) {
+			system.setMetricsSink(null);
+			sink.close();
+			if (sink.getDropped() > 0) {
+				System.out.println(sink.getDropped() + " steps dropped from the metrics");
+			}
+		}
+
+		if (recorder != null) {
+			system.setTrajectoryRecorder(null);
+			recorder.close();
+			System.out.println(recorder.getFrames() + " frames recorded to " + trajectory + ", "
+					+ trajectory.length() + " bytes");
+			if (recorder.getTruncated() > 0) {
+				System.out.println(recorder.getTruncated() + " particle records truncated");
+			}
+		}
+
+		System.out.println(steps + " steps of " + system.getParticles().size() + " particles in "
+				+ (t1 - t0) / 1000000 + " ms");
+		System.out.println(system.swt);
+		System.out.println(system.counters);
+	}
+
+	/**
+	 * Entry point for headless runs
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			new HeadlessRunner(args).run();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
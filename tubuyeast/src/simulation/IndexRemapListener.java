@@ -0,0 +1,24 @@
+package simulation;
+
+/**
+ * Notified when particles are removed from a particle system. Removal swaps
+ * the last particle into the freed slot, so structures that store particle
+ * indices need to remap that particle.
+ */
+public interface IndexRemapListener {
+
+	/**
+	 * A particle was removed from the system.
+	 * @param p the removed particle
+	 * @param index the index it had
+	 */
+	public void particleRemoved(Particle p, int index);
+
+	/**
+	 * A particle changed index.
+	 * @param p the particle
+	 * @param from its previous index
+	 * @param to its new index
+	 */
+	public void particleMoved(Particle p, int from, int to);
+}
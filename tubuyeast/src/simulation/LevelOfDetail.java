@@ -0,0 +1,126 @@
+package simulation;
+
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JPanel;
+
+import tools.gl.VertexBatch;
+import tools.parameters.BooleanParameter;
+import tools.parameters.DoubleParameter;
+import tools.parameters.IntParameter;
+import tools.swing.VerticalFlowPanel;
+
+/**
+ * Level of detail for displaying very large systems. Past a number of
+ * particles, particles are aggregated per screen-space tile into density
+ * splats, and only springs longer than a few pixels are drawn. The display
+ * is not zoomed, a simulation unit is a pixel.
+ */
+public class LevelOfDetail {
+
+	private BooleanParameter auto = new BooleanParameter("level of detail", true);
+
+	private IntParameter maxParticles = new IntParameter("LOD above particles", 20000, 100, 1000000);
+
+	private DoubleParameter tileSize = new DoubleParameter("LOD tile (pixels)", 6, 2, 32);
+
+	private DoubleParameter minSpringLength = new DoubleParameter("LOD min spring (pixels)", 3, 0, 50);
+
+	/**
+	 * Largest grid, in tiles per side
+	 */
+	private static final int MAX_TILES = 512;
+
+	/**
+	 * Particles in a tile for a fully opaque splat
+	 */
+	private static final double OPAQUE = 8;
+
+	private int[] counts = new int[0];
+
+	/**
+	 * Size of the tiles last packed, larger than the tile size parameter
+	 * for systems spanning more than {@link #MAX_TILES} tiles
+	 */
+	private double tile;
+
+	/**
+	 * @param n the number of particles
+	 * @return whether a system of n particles is displayed at a lower level
+	 *         of detail
+	 */
+	public boolean isActive(int n) {
+		return auto.getValue() && n > maxParticles.getValue();
+	}
+
+	/**
+	 * @return the shortest spring drawn when active, in simulation units
+	 */
+	public double getMinSpringLength() {
+		return minSpringLength.getValue();
+	}
+
+	/**
+	 * @return the size of a splat in pixels, that of the tiles last packed
+	 */
+	public float getSplatSize() {
+		return (float) tile;
+	}
+
+	/**
+	 * Adds a splat per non-empty tile, at its center, more opaque for more
+	 * particles.
+	 * @param particles
+	 * @param splats
+	 */
+	public void pack(List<Particle> particles, VertexBatch splats) {
+		if (particles.isEmpty()) return;
+
+		double xmin = Double.POSITIVE_INFINITY, ymin = Double.POSITIVE_INFINITY;
+		double xmax = Double.NEGATIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			xmin = Math.min(xmin, p.p.x);
+			ymin = Math.min(ymin, p.p.y);
+			xmax = Math.max(xmax, p.p.x);
+			ymax = Math.max(ymax, p.p.y);
+		}
+
+		tile = Math.max(tileSize.getValue(), Math.max(xmax - xmin, ymax - ymin) / MAX_TILES);
+		int nx = (int) ((xmax - xmin) / tile) + 1;
+		int ny = (int) ((ymax - ymin) / tile) + 1;
+		if (counts.length < nx * ny) counts = new int[nx * ny];
+		for (int i = 0; i < nx * ny; i++) counts[i] = 0;
+
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			int tx = (int) ((p.p.x - xmin) / tile);
+			int ty = (int) ((p.p.y - ymin) / tile);
+			counts[ty * nx + tx]++;
+		}
+
+		for (int ty = 0; ty < ny; ty++) {
+			for (int tx = 0; tx < nx; tx++) {
+				int c = counts[ty * nx + tx];
+				if (c == 0) continue;
+				splats.color(0, 0.95, 0, Math.min(1, 0.2 + 0.8 * c / OPAQUE));
+				splats.vertex(xmin + (tx + 0.5) * tile, ymin + (ty + 0.5) * tile);
+			}
+		}
+	}
+
+	/**
+	 * @return the level of detail controls
+	 */
+	public JPanel getControls() {
+		VerticalFlowPanel vfp = new VerticalFlowPanel();
+		vfp.setBorder(BorderFactory.createTitledBorder(BorderFactory
+				.createEtchedBorder(), "Level of detail"));
+		vfp.add(auto.getControls());
+		vfp.add(maxParticles.getSliderControls());
+		vfp.add(tileSize.getSliderControls(false));
+		vfp.add(minSpringLength.getSliderControls(false));
+		return vfp.getPanel();
+	}
+}
@@ -20,18 +20,29 @@ public class LinearSpring implements Spring{
     /**
      * Spring stiffness.
      */
-    private double k;
+    double k;
     
     /**
      * Spring damping.
      */
-    private double b;
+    double b;
 
     /**
      * Rest length
      */
     double l0 = 0;
     
+    /**
+     * The packed buffer holding this spring, if any, and its slot in it.
+     */
+    SpringStore.LinearBuffer buffer = null;
+    int slot;
+    
+    /**
+     * Position in the system's spring list.
+     */
+    private int index = -1;
+    
     /**
      * Creates a spring connecting two particles.
      * The rest length should be set
@@ -52,6 +63,7 @@ public class LinearSpring implements Spring{
 	@Override
     public void setK(double k) {
     	this.k = k;
+    	if (buffer != null) buffer.k[slot] = k;
     }
     
     @Override
@@ -62,6 +74,7 @@ public class LinearSpring implements Spring{
     @Override
     public void setB(double b) {
     	this.b = b;
+    	if (buffer != null) buffer.b[slot] = b;
     }
     
     @Override
@@ -69,49 +82,66 @@ public class LinearSpring implements Spring{
     	return b;
     }
  
+    @Override
+    public int getIndex() {
+    	return index;
+    }
+    
+    @Override
+    public void setIndex(int index) {
+    	this.index = index;
+    }
+ 
+    /**
+     * Detaches this spring from its particles' spring lists.
+     */
+    public void detach() {
+        p1.springs.remove(this);
+        p2.springs.remove(this);
+    }
+    
     /**
      * Computes the rest length of the connected particles
      */
     public void computeRestLength() {
         l0 = p1.p0.distance( p2.p0 );
+        if (buffer != null) buffer.l0[slot] = l0;
     }
 
-    private Vector2d fs = new Vector2d();
-    private Vector2d fd = new Vector2d();
-    
     @Override
     public void apply() {
+        double dx = p2.p.x - p1.p.x;
+        double dy = p2.p.y - p1.p.y;
+        double l = Math.sqrt(dx * dx + dy * dy);
+        double ux = dx / l;
+        double uy = dy / l;
         
-        fs.sub( p2.p, p1.p );
-        double l = fs.length();
-        fs.normalize();
-        fs.scale( (l-l0)*k );
-        
-        fd.sub( p2.p, p1.p );
-        fd.normalize();
-        Vector2d v = new Vector2d();
-        v.sub(p2.v, p1.v);
-        double rv = fd.dot(v);
-        fd.scale(b*rv);
-
-        p1.addForce(fs);
-        p1.addForce(fd);
-
-        fs.scale(-1);
-        fd.scale(-1);
-        p2.addForce(fs);
-        p2.addForce(fd);        
+        // Elastic and damping forces along the spring
+        double rv = ux * (p2.v.x - p1.v.x) + uy * (p2.v.y - p1.v.y);
+        double f = (l - l0) * k + b * rv;
         
+        p1.f.x += f * ux;
+        p1.f.y += f * uy;
+        p2.f.x -= f * ux;
+        p2.f.y -= f * uy;
     }
     
-    private FlexCompRowMatrix dfK = new FlexCompRowMatrix(2, 2);
-    private FlexCompRowMatrix dfB = new FlexCompRowMatrix(2, 2);
-    private FlexCompRowMatrix df2 = new FlexCompRowMatrix(2, 2);
+    /**
+     * Scratch matrices of {@link #gradient(Matrix, Matrix)}, only allocated
+     * when it is first called since most springs never are.
+     */
+    private FlexCompRowMatrix dfK, dfB, df2;
     private Vector2d diff = new Vector2d();
     private double lx, ly;
     
     @Override
     public void gradient(Matrix K, Matrix B) {
+        if (dfK == null) {
+            dfK = new FlexCompRowMatrix(2, 2);
+            dfB = new FlexCompRowMatrix(2, 2);
+            df2 = new FlexCompRowMatrix(2, 2);
+        }
+        
         // Length of the spring
         double length = getLength();
 
@@ -322,6 +352,11 @@ public class LinearSpring implements Spring{
 //    	return false;
 //    }
     
+    /**
+     * End of the particle motion segment, reused by intersect().
+     */
+    private Point2d D = new Point2d();
+    
 	@Override
     public boolean intersect(Particle p, double stepSize) {
     	
@@ -329,12 +364,11 @@ public class LinearSpring implements Spring{
     	if (p == p1 || p == p2 || p.inContact ) return false;
 
     	// Line segment for spring
-    	Point2d A = new Point2d(p1.p);
-    	Point2d B = new Point2d(p2.p);
+    	Point2d A = p1.p;
+    	Point2d B = p2.p;
     	
     	// Line segment from particle position to particle + step * velocity
-    	Point2d C = new Point2d(p.p);
-    	Point2d D = new Point2d();
+    	Point2d C = p.p;
     	D.scaleAdd(2 * stepSize, p.v, C);
     	
     	if (CollisionTools.areClockwise(A, C, D) == CollisionTools.areClockwise(B, C, D)) {
@@ -348,7 +382,7 @@ public class LinearSpring implements Spring{
     		p1.inContact = true;
     		p2.inContact = true;
 
-    		CollisionTools.bounce(p, A, B, 1);
+    		CollisionTools.bounce(p, A.x, A.y, B.x, B.y, 1);
 			
     		return true;
     	}
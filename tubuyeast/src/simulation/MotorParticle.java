@@ -9,9 +9,8 @@ public class MotorParticle extends Particle {
 	}
     
     public void apply(double scale) {
-    	Vector2d fp = new Vector2d(0, -scale);
-//		this.f.set(fp);
-		addForce(fp);
+    	// Pull upwards
+		f.y += -scale;
     }
     
 	public Vector2d direction;
@@ -0,0 +1,42 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point2d;
+
+/**
+ * The particles of the nucleus membranes of a cell scene
+ */
+public class Nucleus {
+
+	private List<Particle> particles;
+
+	public Nucleus(){
+		particles = new ArrayList<Particle>();
+	}
+
+	public List<Particle> getParticles() {
+		return particles;
+	}
+
+	public void setParticles(List<Particle> particles) {
+		this.particles = particles;
+	}
+
+	/**
+	 * @param center set to the mean position of the particles, left as is
+	 *            if there are none
+	 * @return whether the nucleus has particles
+	 */
+	public boolean getCenter(Point2d center) {
+		if (particles.isEmpty()) return false;
+		center.set(0, 0);
+		for (Particle p : particles) {
+			center.add(p.p);
+		}
+		center.scale(1.0 / particles.size());
+		return true;
+	}
+
+}
@@ -0,0 +1,287 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.vecmath.Point2d;
+
+import tools.CommandLine;
+import tools.Uninterruptible;
+import tools.parameters.Parameter;
+
+/**
+ * Runs a scene for every combination of values of some parameters of the
+ * system, each run on its own {@link ParticleSystem} so that runs proceed in
+ * parallel on a fixed number of threads, and writes a table of what each run
+ * ended with: the bud radius and the center of the nucleus, left empty for
+ * scenes without one.
+ * <p>
+ * Usage: ParameterSweep -vary "name=values" [-vary ...] [-scene 3]
+ * [-steps 2000] [-h 0.0015] [-bud] [-threads cores] [-results sweep.csv]
+ * <p>
+ * Parameters are named as in the controls, e.g. "pulling force (N)",
+ * "Coulomb charge multiple", "stiffness" or "damping". Values are either
+ * listed, 100,200,400, or a range from:to:count of count values evenly
+ * spaced from from to to. They are set before the scene is created, so
+ * springs are created with the stiffness and damping of the run.
+ * <p>
+ * A run that blows up stops early and is reported as such. Rows are written
+ * in the order of the grid, the first parameter varying slowest.
+ */
+public class ParameterSweep {
+
+	/**
+	 * Steps between checks for a blown up run
+	 */
+	private static final int CHECK_EVERY = 100;
+
+	private int scene = 3;
+	private long steps = 2000;
+	private double h = 0.0015;
+	private boolean bud = false;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private File results = new File("sweep.csv");
+
+	private List<String> names = new ArrayList<String>();
+	private List<double[]> values = new ArrayList<double[]>();
+
+	/**
+	 * What a run ended with
+	 */
+	public static class Result {
+		public double[] values;
+		public boolean blewUp;
+		public long steps;
+		public double time;
+		public double budRadius;
+		public double budY;
+		/**
+		 * Center of the nucleus, null if the scene has none
+		 */
+		public Point2d nucleus;
+		public double maxSpeed;
+		public long ms;
+
+		Result(double[] values) {
+			this.values = values;
+		}
+	}
+
+	/**
+	 * Parses the command line options.
+	 * @param args
+	 */
+	ParameterSweep(String[] args) {
+		CommandLine options = new CommandLine(args, "-bud");
+		while (options.next()) {
+			if (options.is("-bud")) bud = true;
+			else if (options.is("-vary")) vary(options.getValue());
+			else if (options.is("-scene")) scene = options.getInt();
+			else if (options.is("-steps")) steps = options.getLong();
+			else if (options.is("-h")) h = options.getDouble();
+			else if (options.is("-threads")) threads = options.getInt();
+			else if (options.is("-results")) results = options.getFile();
+			else throw options.unknown();
+		}
+		if (names.isEmpty()) {
+			throw new IllegalArgumentException("Nothing to vary, use -vary \"name=values\"");
+		}
+	}
+
+	/**
+	 * Adds a parameter to the grid.
+	 * @param spec name=v1,v2,... or name=from:to:count
+	 */
+	private void vary(String spec) {
+		int eq = spec.lastIndexOf('=');
+		if (eq <= 0) throw new IllegalArgumentException("Expected name=values, got " + spec);
+		String name = spec.substring(0, eq).trim();
+		String list = spec.substring(eq + 1).trim();
+
+		double[] v;
+		if (list.indexOf(':') >= 0) {
+			String[] parts = list.split(":");
+			if (parts.length != 3) throw new IllegalArgumentException("Expected from:to:count, got " + list);
+			double from = Double.parseDouble(parts[0].trim());
+			double to = Double.parseDouble(parts[1].trim());
+			int count = Integer.parseInt(parts[2].trim());
+			if (count < 1) throw new IllegalArgumentException("No values for " + name);
+			v = new double[count];
+			for (int i = 0; i < count; i++) {
+				v[i] = count == 1 ? from : from + (to - from) * i / (count - 1);
+			}
+		}
+		else {
+			String[] parts = list.split(",");
+			v = new double[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				v[i] = Double.parseDouble(parts[i].trim());
+			}
+		}
+		// Fail now rather than in every run
+		find(new ParticleSystem(new Dimension(800, 600)), name);
+		names.add(name);
+		values.add(v);
+	}
+
+	private static Parameter find(ParticleSystem system, String name) {
+		StringBuilder known = new StringBuilder();
+		for (Parameter p : system.getParameters()) {
+			if (p.getName().equals(name)) return p;
+			known.append(known.length() > 0 ? ", " : "").append(p.getName());
+		}
+		throw new IllegalArgumentException("Unknown parameter " + name + ", expected one of " + known);
+	}
+
+	/**
+	 * @return the combinations of values, the first parameter varying slowest
+	 */
+	List<double[]> grid() {
+		List<double[]> grid = new ArrayList<double[]>();
+		grid.add(new double[0]);
+		for (double[] v : values) {
+			List<double[]> next = new ArrayList<double[]>(grid.size() * v.length);
+			for (double[] combination : grid) {
+				for (int i = 0; i < v.length; i++) {
+					double[] c = new double[combination.length + 1];
+					System.arraycopy(combination, 0, c, 0, combination.length);
+					c[combination.length] = v[i];
+					next.add(c);
+				}
+			}
+			grid = next;
+		}
+		return grid;
+	}
+
+	/**
+	 * Creates the scene with the values of a run and runs it.
+	 * @param v a value for each parameter
+	 * @return what the run ended with
+	 */
+	Result run(double[] v) {
+		Result r = new Result(v);
+		long t0 = System.nanoTime();
+
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		Map<String, double[]> values = new HashMap<String, double[]>();
+		for (int i = 0; i < names.size(); i++) {
+			values.put(names.get(i), new double[] { v[i] });
+		}
+		system.setParameterValues(values);
+		ParticleSimulationApp.createSystem(system, scene);
+
+		for (long i = 0; i < steps; i++) {
+			if (bud) ParticleSimulationApp.growBud(system);
+			system.step(h);
+			if ((i + 1) % CHECK_EVERY == 0 && system.blewUp()) {
+				r.blewUp = true;
+				break;
+			}
+		}
+		r.blewUp |= system.blewUp();
+
+		r.steps = system.getSteps();
+		r.time = system.getTime();
+		r.budRadius = system.getBud().getaRadius();
+		r.budY = system.getBud().getYTranspose();
+		Point2d center = new Point2d();
+		if (system.getNucleus().getCenter(center)) r.nucleus = center;
+		List<Particle> particles = system.getParticles();
+		for (int i = 0; i < particles.size(); i++) {
+			r.maxSpeed = Math.max(r.maxSpeed, particles.get(i).v.length());
+		}
+		r.ms = (System.nanoTime() - t0) / 1000000;
+		return r;
+	}
+
+	/**
+	 * Runs the grid on the threads and writes the results table.
+	 * @throws IOException if the results could not be written
+	 */
+	void sweep() throws IOException {
+		List<double[]> grid = grid();
+		int n = Math.max(1, Math.min(threads, grid.size()));
+		System.out.println(grid.size() + " runs of " + steps + " steps on " + n + " threads");
+
+		ExecutorService pool = Executors.newFixedThreadPool(n);
+		PrintWriter out = new PrintWriter(new FileWriter(results));
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final double[] v : grid) {
+				futures.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return run(v);
+					}
+				}));
+			}
+
+			StringBuilder header = new StringBuilder("run");
+			for (String name : names) {
+				header.append(',').append(quote(name));
+			}
+			header.append(",blew up,steps,time,bud radius,bud y,nucleus x,nucleus y,max speed,ms");
+			out.println(header);
+
+			long t0 = System.nanoTime();
+			for (int i = 0; i < futures.size(); i++) {
+				Result r = get(futures.get(i));
+				StringBuilder row = new StringBuilder().append(i);
+				for (double x : r.values) {
+					row.append(',').append(x);
+				}
+				row.append(',').append(r.blewUp).append(',').append(r.steps).append(',').append(r.time);
+				row.append(',').append(r.budRadius).append(',').append(r.budY);
+				if (r.nucleus == null) row.append(",,");
+				else row.append(',').append(r.nucleus.x).append(',').append(r.nucleus.y);
+				row.append(',').append(r.maxSpeed).append(',').append(r.ms);
+				out.println(row);
+				out.flush();
+				System.out.println((i + 1) + "/" + futures.size() + ": " + row);
+			}
+			System.out.println("Sweep done in " + (System.nanoTime() - t0) / 1000000 + " ms, results in " + results);
+		} finally {
+			pool.shutdownNow();
+			out.close();
+		}
+		if (out.checkError()) throw new IOException("trouble writing " + results);
+	}
+
+	private static String quote(String s) {
+		return s.indexOf(',') >= 0 || s.indexOf('"') >= 0 ? '"' + s.replace("\"", "\"\"") + '"' : s;
+	}
+
+	private static Result get(Future<Result> future) {
+		try {
+			return Uninterruptible.get(future);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("A run failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Entry point for sweeps
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			new ParameterSweep(args).sweep();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -2,12 +2,13 @@ package simulation;
 //
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.LinkedList;
 
 import javax.media.opengl.GL;
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
+import tools.gl.VertexBatch;
+
 /**
  * @author epiuze
  */
@@ -86,30 +87,29 @@ public class Particle implements Serializable {
     public ArrayList<LinearSpring> springs = new ArrayList<LinearSpring>();
 
     /**
-     * An index representing this particle. Set to zero initially.
-     * There is no guarantee on the uniqueness of this index.
+     * The angular springs acting on this particle
      */
-    public int index = 0;
+    public ArrayList<AngularSpring> angularSprings = new ArrayList<AngularSpring>();
 
     /**
-     * If this particle is in contact with a boundary.
+     * The position of this particle in the system's particle list.
+     * Set to zero initially. It changes when other particles are removed,
+     * see {@link IndexRemapListener}.
      */
-    public boolean inContact = false;
-    
-    /**
-     * The list of boundaries in contact with that particle.
-     */
-    public LinkedList<Boundary> contactBoundaries = new LinkedList<Boundary>();
+    public int index = 0;
 
     /**
-     * The list of contact points.
+     * A handle identifying this particle in its system. Unlike the index,
+     * it does not change while the particle is in the system. -1 if the
+     * particle was never added to a system.
      */
-    public LinkedList<Point2d> contactPoints = new LinkedList<Point2d>();
+    public int handle = -1;
 
     /**
-     * The list of normals for boundaries in contact with this particle.
+     * If this particle is in contact with a boundary. The contacts
+     * themselves are kept in the system's {@link ContactManifold}.
      */
-    public LinkedList<Vector2d> contactNormals= new LinkedList<Vector2d>();
+    public boolean inContact = false;
 
     /**
      * Creates a particle with the given position and velocity
@@ -130,9 +130,6 @@ public class Particle implements Serializable {
     public void reset() {
         inContact = false;
         illegal = false;
-        contactBoundaries.clear();
-        contactPoints.clear();
-        contactNormals.clear();
 
         p.set(p0);
         v.set(v0);
@@ -162,17 +159,6 @@ public class Particle implements Serializable {
         return "(" + index + ")" + " mass=" + mass;
     }
 
-    /**
-     * Adds a contact between this particle and a boundary.
-     * @param bc 
-     * @param contactPoint 
-     */
-    public void addContact(Boundary bc, Point2d contactPoint, Vector2d normal) {
-        contactBoundaries.add(bc);
-        contactPoints.add(contactPoint);
-        contactNormals.add(normal);
-    }
-    
     /**
      * If this particle is in a prohibited region
      */
@@ -185,40 +171,72 @@ public class Particle implements Serializable {
      */
     public boolean grabbed = false;
     
-    public void glVertex2d(GL gl) {
+    /**
+     * The display color of this particle
+     * @param rgba
+     */
+    private void getColor(double[] rgba) {
     	
     	if (!collidable && inContact) {
     		// don't draw
-            gl.glColor4d(1, 0.3, 0.8, 0 );
+            setColor(rgba, 1, 0.3, 0.8, 0 );
     	}
     	else if (this instanceof MotorParticle) {
-            gl.glColor4d(1, 0.3, 0.8, 1 );
+            setColor(rgba, 1, 0.3, 0.8, 1 );
     	}
     	else if (!collidable) {
-            gl.glColor4d(1, 0.3, 0.8, 0.5 );
+            setColor(rgba, 1, 0.3, 0.8, 0.5 );
     	}
     	else if ( inContact ) {
-            gl.glColor4d( 1, 1, 1, 1 );
+            setColor(rgba, 1, 1, 1, 1 );
         }
         else if ( pinned ) {
-            gl.glColor4d( 1, 0, 0, alpha );
+            setColor(rgba, 1, 0, 0, alpha );
         }
         else if ( heavy ) {
-            gl.glColor4d( 0, 0, 1, alpha );
+            setColor(rgba, 0, 0, 1, alpha );
         }
         else {
-            gl.glColor4d( 0, 0.95,0, alpha );
+            setColor(rgba, 0, 0.95, 0, alpha );
         }
+    }
 
-        gl.glVertex2d( p.x, p.y );
+    private static void setColor(double[] rgba, double r, double g, double b, double a) {
+        rgba[0] = r;
+        rgba[1] = g;
+        rgba[2] = b;
+        rgba[3] = a;
+    }
 
-        gl.glColor4d( 1, 1 ,0, 1);
-        
-        if (contactPoints.size() > 0) {
-            for (Point2d cp : contactPoints) {
-                gl.glVertex2d( cp.x, cp.y );
-            }
+    /**
+     * Color buffers of the simulation thread, which packs, and of the GL
+     * thread, which draws the particle under the mouse
+     */
+    private static final double[] packColor = new double[4];
+    private static final double[] glColor = new double[4];
+
+    /**
+     * Adds this particle to a batch, in its display color, and to the batch
+     * of illegal particles if it is one.
+     * @param batch
+     * @param illegalBatch
+     */
+    public void pack(VertexBatch batch, VertexBatch illegalBatch) {
+        getColor(packColor);
+        batch.color(packColor[0], packColor[1], packColor[2], packColor[3]);
+        batch.vertex( p.x, p.y );
+
+        if ( illegal ) {
+            illegalBatch.color( 1, 0 ,0, 0.6);
+            illegalBatch.vertex( p.x, p.y );
         }
+    }
+
+    public void glVertex2d(GL gl) {
+        getColor(glColor);
+        gl.glColor4d(glColor[0], glColor[1], glColor[2], glColor[3]);
+
+        gl.glVertex2d( p.x, p.y );
 
         if ( illegal ) {
             gl.glEnd();
@@ -230,19 +248,6 @@ public class Particle implements Serializable {
         
         gl.glEnd();
         
-        if (contactNormals.size() > 0 && contactPoints.size() > 0) {
-            gl.glBegin(GL.GL_LINES);
-            gl.glColor4d( 0, 0, 1, 0.8 );
-            int ci = 0;
-            for (Point2d cp : contactPoints) {
-                gl.glVertex2d(cp.x, cp.y);
-                gl.glVertex2d(cp.x + 20*contactNormals.get(ci).x, cp.y + 20*contactNormals.get(ci).y );
-                ci++;
-            }
-            
-            gl.glEnd();
-        }
-        
         gl.glPointSize( 15f );
         gl.glBegin(GL.GL_POINTS);
 //        gl.glColor4d( 1, 0 ,0, 0.6);
@@ -7,6 +7,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,7 +17,9 @@ import javax.media.opengl.GL;
 import javax.media.opengl.GLAutoDrawable;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.vecmath.Point2d;
 import javax.vecmath.Vector2d;
 
@@ -23,7 +27,10 @@ import com.sun.opengl.util.GLUT;
 
 import tools.computations.FPSTimer;
 import tools.gl.SceneGraphNode;
+import tools.gl.FrameCapture;
+import tools.gl.HudText;
 import tools.gl.Interactor;
+import tools.gl.MetricsSink;
 import tools.gl.OpenglViewer;
 import tools.parameters.BooleanParameter;
 import tools.parameters.DoubleParameter;
@@ -45,7 +52,7 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
      * boolean to signal that the system was stepped and that a 
      * frame should be recorded if recording is enabled
      */
-    private boolean stepRequested = false;
+    private volatile boolean stepRequested = false;
     
     private BooleanParameter run = new BooleanParameter( "run", false );
     
@@ -53,6 +60,11 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
     
     private IntParameter substeps = new IntParameter( "sub steps (integer)", 1, 1, 100);
     
+    /**
+     * The test system last created
+     */
+    private int scene = 3;
+    
     private static Dimension simsize = new Dimension(800, 600);
 
     private static Dimension wsize = new Dimension(800, 800);
@@ -61,6 +73,39 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 
     private FPSTimer fpsTimer = new FPSTimer();
 
+    /**
+     * Simulation info and frame rate overlays, refreshed a few times per second
+     */
+    private HudText infoHud = new HudText(4);
+    private HudText fpsHud = new HudText(4);
+    private IntParameter hudRate = new IntParameter( "overlay updates per second", 4, 1, 60);
+    private static final float[] INFO_COLOR = { 1, 1, 1 };
+    private static final float[] FPS_COLOR = { 1, 1, 0, 0 };
+
+    /**
+     * Steps the system and publishes the snapshots that are displayed
+     */
+    private SimulationThread simulation;
+
+    /**
+     * Frames of the canvas written for a video while recording, null otherwise
+     */
+    private FrameCapture capture;
+    private volatile boolean captureToggled = false;
+    private long capturedSteps = -1;
+    private BooleanParameter captureBlock = new BooleanParameter( "wait for frame encoders rather than drop frames", false );
+
+    /**
+     * Position error allowed when recording a trajectory, 0 for a full
+     * precision recording
+     */
+    private DoubleParameter trajectoryTolerance = new DoubleParameter( "trajectory tolerance (0: full precision)", 0, 0, 1 );
+
+    /**
+     * Recorded trajectory displayed instead of the system when one is open
+     */
+    private TrajectoryReplay replay = new TrajectoryReplay();
+
     /**
      * Entry point for application
      * @param args
@@ -74,7 +119,7 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
      */
     public ParticleSimulationApp() {
         system = new ParticleSystem(simsize);
-        createSystem(system, 3);
+        createSystem(system, scene);
 
         // Add an interactor to manage mouse and keyboard controls
         interactor = new ParticleSimulationInteractor(system);
@@ -84,6 +129,13 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
         ev.addInteractor(interactor);
         ev.addInteractor(this);
         
+        simulation = new SimulationThread(system, new SimulationThread.Stepper() {
+            public boolean advance() {
+                return simulationStep();
+            }
+        });
+        simulation.start();
+        
         ev.start();
     }
      
@@ -103,15 +155,14 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
     	// Begin 2D drawing
         OpenglViewer.beginOverlay(drawable);
 
-    	// Advance the simulation
-    	simulationStep();
-        
         // Set the GL context
         GL gl = drawable.getGL();
         gl.glDisable(GL.GL_LIGHTING);
 
-        // Display particle system
-        system.display( drawable );
+        // Display the replayed frame, or the latest snapshot of the particle system
+        SystemSnapshot snapshot = replay.advance();
+        if ( snapshot == null ) snapshot = simulation.getSnapshot();
+        system.display( drawable, snapshot );
 
         // Display simulation info
         displaySimulationInfo(drawable);
@@ -120,6 +171,16 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
         
         // Done with 2D drawing
         OpenglViewer.endOverlay(drawable);    
+        
+        // Record a frame per new step of the simulation
+        if ( captureToggled ) {
+            captureToggled = false;
+            toggleCapture(drawable);
+        }
+        if ( capture != null && snapshot.getSteps() != capturedSteps ) {
+            capturedSteps = snapshot.getSteps();
+            capture.capture(drawable);
+        }
     }
 
     /**
@@ -128,47 +189,69 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
      */
     private void displaySimulationInfo(GLAutoDrawable drawable) {
         fpsTimer.tick();
-        String text = system.toString() + "\n" + 
-                      "h = " + stepsize.getValue() + "\n" +
-                      "substeps = " + (int) substeps.getValue();   
-        text += "\n" + system.swt.toString();
-        OpenglViewer.printTextLines( drawable, text );
+        infoHud.setRate(hudRate.getValue());
+        fpsHud.setRate(hudRate.getValue());
         
-        OpenglViewer.printTextLines(drawable, fpsTimer.toString(), wsize.getWidth() - 70, 30,  new float[] { 1, 1, 0, 0}, GLUT.BITMAP_HELVETICA_18 );
+        if ( infoHud.isDue() ) {
+            String text = system.toString() + "\n" + 
+                          "h = " + stepsize.getValue() + "\n" +
+                          "substeps = " + (int) substeps.getValue();   
+            text += "\n" + system.swt.toString();
+            text += "\n" + system.counters.toString();
+            if ( replay.isActive() ) {
+                text += "\n" + replay.toString();
+            }
+            if ( capture != null ) {
+                text += "\nrecording frame " + capture.getCaptured() + " (" + capture.getDropped() + " dropped)";
+            }
+            infoHud.setText(text);
+        }
+        infoHud.display( drawable, 10, 10, 12, GLUT.BITMAP_HELVETICA_10, INFO_COLOR );
+        
+        if ( fpsHud.isDue() ) fpsHud.setText(fpsTimer.toString());
+        fpsHud.display(drawable, wsize.getWidth() - 70, 30, 12, GLUT.BITMAP_HELVETICA_18, FPS_COLOR );
 	}
 
-	private void simulationStep() {
+	/**
+	 * Advances the simulation by a frame, on the simulation thread.
+	 * @return whether the system was stepped
+	 */
+	private boolean simulationStep() {
         // Advance the simulation by a number of substeps
     	// if it is running or wants to be stepped
         if ( isRunning() || stepRequested ) {   
             for ( int i = 0; i < substeps.getValue(); i++ ) {
             	//BUD GROWING!
-        		growBud();
+        		growBud(system);
             	system.step( stepsize.getValue());                
             }
             stepRequested = false;        
+            return true;
         }
+        return false;
 	}
 	
-	private void growBud(){
+	/**
+	 * Grows the bud of the complete cell a little by replacing its membrane.
+	 * @param system
+	 */
+	static void growBud(ParticleSystem system){
 		
-		List<Particle> particlesWithoutBud = new ArrayList<Particle>();
+		List<Particle> budParticles = new ArrayList<Particle>();
 		for(Particle p: system.particles){
-			if (!(p instanceof BudParticle)){
-				particlesWithoutBud.add(p);
+			if (p instanceof BudParticle){
+				budParticles.add(p);
 			}
 		}
-		system.particles.clear();
-		system.particles.addAll(particlesWithoutBud);
 		
-		List<Spring> springsWithoutBud = new ArrayList<Spring>();
+		List<Spring> budSprings = new ArrayList<Spring>();
 		for(Spring s: system.springs){
-			if (!(s instanceof BudSpring)){
-				springsWithoutBud.add(s);
+			if (s instanceof BudSpring){
+				budSprings.add(s);
 			}
 		}
-		system.springs.clear();
-		system.springs.addAll(springsWithoutBud);
+		system.removeSprings(budSprings);
+		system.removeParticles(budParticles);
 		
 		
 		if(system.getBud().getaRadius()*2 < (0.65*system.getCellDiameter() )){
@@ -230,22 +313,30 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 			
 		}
 		
-		system.springs.add(new BudSpring(budOuterMembrane.get(budOuterMembrane.size()-1),budInnerMembrane.get(0),k,b));
-		system.springs.add(new BudSpring(budOuterMembrane.get(0),budInnerMembrane.get(budInnerMembrane.size()-1),k,b));
-		system.springs.add(new BudSpring(budInnerMembrane.get(0),budInnerMembrane.get(budInnerMembrane.size()-1),k,b));
-		system.springs.add(new BudSpring(budOuterMembrane.get(budOuterMembrane.size()-1),budOuterMembrane.get(0),k,b));
+		// Particles first, the springs added next refer to their indices
+		for(Particle p: budInnerMembrane){
+			system.addParticle(p);
+		}
+		for(Particle p: budOuterMembrane){
+			system.addParticle(p);
+		}
+		
+		system.addSpring(new BudSpring(budOuterMembrane.get(budOuterMembrane.size()-1),budInnerMembrane.get(0),k,b));
+		system.addSpring(new BudSpring(budOuterMembrane.get(0),budInnerMembrane.get(budInnerMembrane.size()-1),k,b));
+		system.addSpring(new BudSpring(budInnerMembrane.get(0),budInnerMembrane.get(budInnerMembrane.size()-1),k,b));
+		system.addSpring(new BudSpring(budOuterMembrane.get(budOuterMembrane.size()-1),budOuterMembrane.get(0),k,b));
 		
 		for(int i = 0; i < budOuterMembrane.size(); i++){
-			system.springs.add(new BudSpring(budOuterMembrane.get(i),budInnerMembrane.get(i),k,b));
+			system.addSpring(new BudSpring(budOuterMembrane.get(i),budInnerMembrane.get(i),k,b));
 			if(i+1 < budOuterMembrane.size() && (i!=(int)(numberOfBudParticles-13))){
-				system.springs.add(new BudSpring(budOuterMembrane.get(i),budOuterMembrane.get(i+1),k,b));
-				system.springs.add(new BudSpring(budInnerMembrane.get(i),budInnerMembrane.get(i+1),k,b));
+				system.addSpring(new BudSpring(budOuterMembrane.get(i),budOuterMembrane.get(i+1),k,b));
+				system.addSpring(new BudSpring(budInnerMembrane.get(i),budInnerMembrane.get(i+1),k,b));
 			}
 			if(i+1 < budInnerMembrane.size() && (i!=(int)(numberOfBudParticles-13))){
-				system.springs.add(new BudSpring(budOuterMembrane.get(i),budInnerMembrane.get(i+1),k,b));
+				system.addSpring(new BudSpring(budOuterMembrane.get(i),budInnerMembrane.get(i+1),k,b));
 			}
 			if(i+1 < budOuterMembrane.size() && (i!=(int)(numberOfBudParticles-13))){
-				system.springs.add(new BudSpring(budOuterMembrane.get(i+1),budInnerMembrane.get(i),k,b));
+				system.addSpring(new BudSpring(budOuterMembrane.get(i+1),budInnerMembrane.get(i),k,b));
 			}
 		}
 		
@@ -259,8 +350,6 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 		system.springs.add(new BudSpring(system.getMotherCell().getOuterMembraneParticles().get(50),budOuterMembrane.get((int)(numberOfBudParticles-13)),k,b));
 		system.springs.add(new BudSpring(system.getMotherCell().getOuterMembraneParticles().get(50),budInnerMembrane.get((int)(numberOfBudParticles-13)),k,b));
 		*/
-		system.particles.addAll(budInnerMembrane);
-		system.particles.addAll(budOuterMembrane);
 		
 	}
 	
@@ -282,17 +371,34 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
             cb.addActionListener( new ActionListener() {
                 
                 public void actionPerformed(ActionEvent e) {
-                    createSystem(system, si);
+                    scene = si;
+                    synchronized (system) {
+                        createSystem(system, si);
+                    }
                 }
             });
         }
         
+        JButton sceneButton = new JButton("scene...");
+        cpanel.add( sceneButton );
+        sceneButton.addActionListener( new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser chooser = new JFileChooser(".");
+                if ( chooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION ) return;
+                loadScene( chooser.getSelectedFile() );
+            }
+        });
+        
         vfp.add(cpanel);
         
         vfp.add( run.getControls() );        
         vfp.add( stepsize.getSliderControls(true) );
         vfp.add( substeps.getSliderControls() );
+        vfp.add( hudRate.getSliderControls() );
+        vfp.add( captureBlock.getControls() );
+        vfp.add( trajectoryTolerance.getSliderControls() );
         vfp.add( system.getControls() );
+        vfp.add( replay.getControls() );
         
         vfp.add(interactor.getControls());
         return vfp.getPanel();
@@ -303,23 +409,57 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
             
             public void keyPressed(KeyEvent e) {
 
-                if ( e.getKeyCode() == KeyEvent.VK_SPACE ) {
-                	setRunning(!isRunning());
+                if ( e.getKeyCode() == KeyEvent.VK_ESCAPE ) {
+                    // quit the program, after the simulation thread
+                    simulation.finish();
+                    if ( system.getMetricsSink() != null ) toggleMetrics();
+                    if ( system.getTrajectoryRecorder() != null ) toggleTrajectory();
+                    replay.close();
+                    ev.stop();
+                    return;
+                }
 
-                    // Initialize the particle system
-                    system.updateSystem();
+                // Replay keys: play or pause, and step through frames
+                if ( replay.isActive() ) {
+                    if ( e.getKeyCode() == KeyEvent.VK_SPACE ) {
+                        replay.togglePlay();
+                        return;
+                    } else if ( e.getKeyCode() == KeyEvent.VK_LEFT || e.getKeyCode() == KeyEvent.VK_RIGHT ) {
+                        int frames = e.isShiftDown() ? 10 : 1;
+                        replay.step( e.getKeyCode() == KeyEvent.VK_LEFT ? -frames : frames );
+                        return;
+                    }
+                }
 
-                } else if ( e.getKeyCode() == KeyEvent.VK_S ) {                    
-                    stepRequested = true;
-                } else if ( e.getKeyCode() == KeyEvent.VK_R ) {
-                	setRunning(!isRunning());
-                	
-                    system.resetParticles();                  
-                } else if ( e.getKeyCode() == KeyEvent.VK_ESCAPE ) {
-                    // quit the program
-                    ev.stop();
+                // Do not change the system while the simulation thread steps it
+                synchronized (system) {
+                    if ( e.getKeyCode() == KeyEvent.VK_SPACE ) {
+                    	setRunning(!isRunning());
+
+                        // Initialize the particle system
+                        system.updateSystem();
+
+                    } else if ( e.getKeyCode() == KeyEvent.VK_S ) {                    
+                        stepRequested = true;
+                    } else if ( e.getKeyCode() == KeyEvent.VK_R ) {
+                    	setRunning(!isRunning());
+                    	
+                        system.resetParticles();                  
+                    } else if ( e.getKeyCode() == KeyEvent.VK_M ) {
+                        toggleMetrics();
+                    } else if ( e.getKeyCode() == KeyEvent.VK_T ) {
+                        autotune();
+                    } else if ( e.getKeyCode() == KeyEvent.VK_V ) {
+                        captureToggled = true;
+                    } else if ( e.getKeyCode() == KeyEvent.VK_J ) {
+                        toggleTrajectory();
+                    } else if ( e.getKeyCode() == KeyEvent.VK_C ) {
+                        saveCheckpoint();
+                    } else if ( e.getKeyCode() == KeyEvent.VK_L ) {
+                        loadCheckpoint();
+                    }
                 }
-                if ( e.getKeyCode() != KeyEvent.VK_ESCAPE ) ev.redisplay();
+                ev.redisplay();
             }
         } );
     }
@@ -329,7 +469,7 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 	 * @param system
 	 * @param which
 	 */
-	private static void createSystem(ParticleSystem system, int which) {
+	static void createSystem(ParticleSystem system, int which) {
 		List<Particle> particles = system.getParticles();
 		List<Spring> springs = system.getSprings();
 		double k = system.getK();
@@ -338,6 +478,7 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 		Particle p1, p2, p3, p4;
 		LinearSpring newSpring;
 		int N;
+		system.getNucleus().setParticles(new ArrayList<Particle>());
 			
 		switch (which) {
 
@@ -639,6 +780,8 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 				
 				particles.addAll(innerNuc);
 				particles.addAll(outerNuc);
+				system.getNucleus().setParticles(new ArrayList<Particle>(innerNuc));
+				system.getNucleus().getParticles().addAll(outerNuc);
 				
 				//outerNuc.get(21)
 				//budInnerMembrane.get(10)
@@ -943,6 +1086,8 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 				
 				particles.addAll(innerNuc);
 				particles.addAll(outerNuc);
+				system.getNucleus().setParticles(new ArrayList<Particle>(innerNuc));
+				system.getNucleus().getParticles().addAll(outerNuc);
 				
 				//outerNuc.get(21)
 				//budInnerMembrane.get(14)
@@ -1239,6 +1384,8 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 				
 				particles.addAll(innerNuc);
 				particles.addAll(outerNuc);
+				system.getNucleus().setParticles(new ArrayList<Particle>(innerNuc));
+				system.getNucleus().getParticles().addAll(outerNuc);
 				
 				//outerNuc.get(21)
 				//budInnerMembrane.get(14)
@@ -1290,6 +1437,176 @@ public class ParticleSimulationApp implements SceneGraphNode, Interactor  {
 		system.updateSystem();		
 	}
     
+    /**
+     * Starts recording the metrics of every step to a new CSV file in the
+     * working directory, or stops recording.
+     */
+    private void toggleMetrics() {
+        MetricsSink sink = system.getMetricsSink();
+        system.setMetricsSink(null);
+        try {
+            if ( sink != null ) {
+                sink.close();
+                System.out.println("Metrics recording stopped, " + sink.getDropped() + " steps dropped");
+            }
+            else {
+                File file = new File("metrics-" + System.currentTimeMillis() + ".csv");
+                system.setMetricsSink(new MetricsSink(file, system.swt, ParticleSystem.METRICS_COUNTERS, 4096));
+                System.out.println("Recording metrics to " + file);
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println("Metrics recording failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * File of the checkpoint saved and restored with the C and L keys
+     */
+    private static final File CHECKPOINT = new File("checkpoint.bin");
+    
+    /**
+     * Saves the state of the system to {@link #CHECKPOINT}.
+     */
+    private void saveCheckpoint() {
+        try {
+            Checkpoint.save(system, CHECKPOINT, stepsize, substeps);
+            System.out.println("State at step " + system.getSteps() + " saved to " + CHECKPOINT);
+        }
+        catch ( IOException e ) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Restores the state of the system from {@link #CHECKPOINT}.
+     */
+    private void loadCheckpoint() {
+        try {
+            Checkpoint.load(system, CHECKPOINT, stepsize, substeps);
+            System.out.println("State at step " + system.getSteps() + " restored from " + CHECKPOINT);
+        }
+        catch ( IOException e ) {
+            System.err.println("Restore failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Replaces the system with a scene file, binary or XML, see {@link Scene}.
+     * @param file
+     */
+    private void loadScene( File file ) {
+        try {
+            Scene scene = Scene.load(file);
+            synchronized (system) {
+                scene.build(system);
+            }
+            System.out.println("Scene " + file + " loaded, " + scene.getParticleCount() + " particles, "
+                    + scene.getSpringCount() + " springs");
+        }
+        catch ( IOException e ) {
+            System.err.println("Scene failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Starts recording the particles of every 10th step to a new trajectory
+     * file in the working directory, or stops recording. Full precision
+     * frames have room for twice the current number of particles, to let the
+     * bud grow; with a tolerance the positions are compressed.
+     */
+    private void toggleTrajectory() {
+        TrajectoryWriter recorder = system.getTrajectoryRecorder();
+        system.setTrajectoryRecorder(null);
+        try {
+            if ( recorder != null ) {
+                recorder.close();
+                System.out.println("Trajectory recording stopped, " + recorder.getFrames() + " frames");
+            }
+            else {
+                File file = new File("trajectory-" + System.currentTimeMillis() + ".bin");
+                double tolerance = trajectoryTolerance.getValue();
+                if ( tolerance > 0 ) {
+                    system.setTrajectoryRecorder(new CompressedTrajectoryRecorder(file, 10, tolerance, 100));
+                }
+                else {
+                    int capacity = 2 * system.getParticles().size();
+                    system.setTrajectoryRecorder(new TrajectoryRecorder(file, capacity, 10, false));
+                }
+                System.out.println("Recording trajectory to " + file);
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println("Trajectory recording failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Starts recording the frames of the canvas to numbered png files in a
+     * new directory of the working directory, or stops recording and waits
+     * for the remaining frames to be written.
+     * @param drawable
+     */
+    private void toggleCapture(GLAutoDrawable drawable) {
+        try {
+            if ( capture != null ) {
+                FrameCapture c = capture;
+                capture = null;
+                c.finish(drawable);
+                System.out.println("Recording stopped, " + c.getWritten() + " frames written to " 
+                        + c.getDirectory() + ", " + c.getDropped() + " dropped");
+            }
+            else {
+                File dir = new File("frames-" + System.currentTimeMillis());
+                int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+                capture = new FrameCapture(dir, "frame", 3, threads, 4 * threads, captureBlock.getValue());
+                capturedSteps = -1;
+                System.out.println("Recording frames to " + dir);
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println("Recording failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Tunes the integrator, step size and substeps of the current test system
+     * in the background, keeping the simulated time per frame and the current
+     * parameter values, then applies the cheapest configuration within the
+     * tuner's tolerance.
+     */
+    private void autotune() {
+        final Autotuner tuner = new Autotuner();
+        final double frame = stepsize.getValue() * substeps.getValue();
+        tuner.setScene(scene, frame);
+        synchronized (system) {
+            tuner.setParameters(system.getParameters());
+        }
+        System.out.println("Tuning test " + scene + "...");
+        
+        new Thread("autotuner") {
+            @Override
+            public void run() {
+                final Autotuner.Config best = tuner.best(tuner.evaluate());
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        if (best == null) {
+                            System.out.println("No configuration is accurate enough");
+                            return;
+                        }
+                        System.out.println("Using " + best.name + ", " + best.substeps + " substeps");
+                        synchronized (system) {
+                            system.setIntegrationMethod(best.method);
+                            if (best.implicit) system.getNumIterations().setValue(best.iterations);
+                            stepsize.setValue(best.getStepSize(frame));
+                            substeps.setValue(best.substeps);
+                        }
+                    }
+                });
+            }
+        }.start();
+    }
+    
     public void setRunning(boolean b) {
     	run.setValue(b);
     	interactor.setCreationEnabled(!b);
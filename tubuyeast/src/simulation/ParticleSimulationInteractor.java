@@ -14,7 +14,6 @@ import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 import javax.vecmath.Point2d;
 import javax.vecmath.Point3d;
-import javax.vecmath.Vector2d;
 
 import tools.computations.Contour;
 import tools.gl.Interactor;
@@ -102,47 +101,49 @@ public class ParticleSimulationInteractor implements Interactor {
         component.addMouseMotionListener( new MouseMotionListener() {
             
             public void mouseDragged(MouseEvent e) {
-                Point2d downPt = new Point2d(xdown, ydown);
+                synchronized (system) {
+                    Point2d downPt = new Point2d(xdown, ydown);
                 
-                xcurrent = e.getPoint().x;
-                ycurrent = e.getPoint().y;
-                dummyPt.set(xcurrent, ycurrent);
+                    xcurrent = e.getPoint().x;
+                    ycurrent = e.getPoint().y;
+                    dummyPt.set(xcurrent, ycurrent);
                 
-                if ( grabbed ) {
-                    if (! softPulling) {
-                        p1.p.set(xcurrent, ycurrent);
-                        p1.v.set(0, 0); 
+                    if ( grabbed ) {
+                        if (! softPulling) {
+                            p1.p.set(xcurrent, ycurrent);
+                            p1.v.set(0, 0); 
 
-                        if (creationEnabled) {
-                          p1.p0.set( p1.p );
-//                          p1.v0.set( p1.v );
-                        }
+                            if (creationEnabled) {
+                              p1.p0.set( p1.p );
+//                              p1.v0.set( p1.v );
+                            }
                         
-                        if (creationEnabled) {
-                            for ( LinearSpring s : p1.springs ) {
-                                s.computeRestLength();
+                            if (creationEnabled) {
+                                for ( LinearSpring s : p1.springs ) {
+                                    s.computeRestLength();
+                                }
                             }
                         }
-                    }
                     
-                    system.grab(p1, dummyPt);
+                        system.grab(p1, dummyPt);
 
-                } else {
-                	if (shiftDown && altDown) {
-                		Point3d lpt = contour.getLastPoint();
-                		if (lpt == null) {
-                        	contour.addPoint(new Point3d(xcurrent, ycurrent, 0));
-                		}
-                		else {
-                    		Point2d lastpt = new Point2d(lpt.x, lpt.y);
-                            if (dummyPt.distance(lastpt) >= pointsres.getValue()) {
+                    } else {
+                    	if (shiftDown && altDown) {
+                    		Point3d lpt = contour.getLastPoint();
+                    		if (lpt == null) {
                             	contour.addPoint(new Point3d(xcurrent, ycurrent, 0));
-                            }
-                		}
-                	}
-                	else {
-                        findCloseParticles(xcurrent, ycurrent);
-                	}
+                    		}
+                    		else {
+                        		Point2d lastpt = new Point2d(lpt.x, lpt.y);
+                                if (dummyPt.distance(lastpt) >= pointsres.getValue()) {
+                                	contour.addPoint(new Point3d(xcurrent, ycurrent, 0));
+                                }
+                    		}
+                    	}
+                    	else {
+                            findCloseParticles(xcurrent, ycurrent);
+                    	}
+                    }
                 }
             }
             
@@ -172,107 +173,113 @@ public class ParticleSimulationInteractor implements Interactor {
             }
             
             public void mousePressed(MouseEvent e) {
-                xdown = e.getPoint().x;
-                ydown = e.getPoint().y;
-                xcurrent = xdown;
-                ycurrent = ydown;
-                mouseDown = true;
-                controlDown = e.isControlDown();
-                shiftDown = e.isShiftDown();
-                altDown = e.isAltDown();
+                synchronized (system) {
+                    xdown = e.getPoint().x;
+                    ydown = e.getPoint().y;
+                    xcurrent = xdown;
+                    ycurrent = ydown;
+                    mouseDown = true;
+                    controlDown = e.isControlDown();
+                    shiftDown = e.isShiftDown();
+                    altDown = e.isAltDown();
                 
-                boolean leftClick = (e.getButton() == MouseEvent.BUTTON1);
+                    boolean leftClick = (e.getButton() == MouseEvent.BUTTON1);
                 
-                if (leftClick) {
-                	findCloseParticles(xcurrent, ycurrent);
-                	if ( p1 != null && d1 < grabThresh ) {
-                		grabbed = true;
+                    if (leftClick) {
+                    	findCloseParticles(xcurrent, ycurrent);
+                    	if ( p1 != null && d1 < grabThresh ) {
+                    		grabbed = true;
                 		
-                		pindown = p1.pinned;
+                    		pindown = p1.pinned;
                 		
-                		p1.pinned = true;
+                    		p1.pinned = true;
                 		
-                		dummyPt.set(xdown, ydown);
-                		system.grab(p1, dummyPt);
-                	}
-                }
-                else {
-                	createContour();
+                    		dummyPt.set(xdown, ydown);
+                    		system.grab(p1, dummyPt);
+                    	}
+                    }
+                    else {
+                    	createContour();
+                    }
                 }
             }
             
             public void mouseReleased(MouseEvent e) {
-                boolean leftClick = (e.getButton() == MouseEvent.BUTTON1);
+                synchronized (system) {
+                    boolean leftClick = (e.getButton() == MouseEvent.BUTTON1);
 
-                if (!leftClick || (shiftDown && altDown)) {
-                	// Creating contour, do nothing
-                	return;
-                }
-                else if (! grabbed && ! softPulling && creationEnabled) {
-                    double x = e.getPoint().x;
-                    double y = e.getPoint().y;
-                    Particle p = system.createParticle( x, y, 0, 0 );
-                    if ( p1 != null && d1 < maxDist ) {
-                        system.createSpring( p, p1 );
+                    if (!leftClick || (shiftDown && altDown)) {
+                    	// Creating contour, do nothing
+                    	return;
                     }
-                    if ( p2 != null && d2 < maxDist ) {
-                        system.createSpring( p, p2 );
-                    }  
-                    // Keeps the particle pinned if shift is down on mouse release
-                    p.pinned = shiftDown;
+                    else if (! grabbed && ! softPulling && creationEnabled) {
+                        double x = e.getPoint().x;
+                        double y = e.getPoint().y;
+                        Particle p = system.createParticle( x, y, 0, 0 );
+                        if ( p1 != null && d1 < maxDist ) {
+                            system.createSpring( p, p1 );
+                        }
+                        if ( p2 != null && d2 < maxDist ) {
+                            system.createSpring( p, p2 );
+                        }  
+                        // Keeps the particle pinned if shift is down on mouse release
+                        p.pinned = shiftDown;
 
-                    if (e.isShiftDown())
-                    	p.pinned = true;
-                    else 
-                    	p.pinned = false;
+                        if (e.isShiftDown())
+                        	p.pinned = true;
+                        else 
+                        	p.pinned = false;
                     
-                    // Make the particle heavy if control is pressed
-                    if (e.isControlDown()) {
-                    	p.mass = Particle.MassHeavy;
-                        p.heavy = controlDown;
-                    }
+                        // Make the particle heavy if control is pressed
+                        if (e.isControlDown()) {
+                        	p.mass = Particle.MassHeavy;
+                            p.heavy = controlDown;
+                        }
                     
-                    if (e.isAltDown()) {
-                    	p.pinned = false;
-                    	p.mass = Particle.MassNormal;
-                        p.heavy = false;
-                    }
-                } else {
-                    if ( p1 != null ) {
-//                    	if (pindown) {
-//                    		p1.pinned = true;
-//                    	}
-//                    	else {
-                            // Keep the particle pinned if shift is down on mouse release
-                            p1.pinned = e.isShiftDown();
-//                    	}
+                        if (e.isAltDown()) {
+                        	p.pinned = false;
+                        	p.mass = Particle.MassNormal;
+                            p.heavy = false;
+                        }
+                    } else {
+                        if ( p1 != null ) {
+//                        	if (pindown) {
+//                        		p1.pinned = true;
+//                        	}
+//                        	else {
+                                // Keep the particle pinned if shift is down on mouse release
+                                p1.pinned = e.isShiftDown();
+//                        	}
                     	
-                        if (p1.pinned) p1.v.set(0, 0);
+                            if (p1.pinned) p1.v.set(0, 0);
 
-                        p1.mass = e.isControlDown() ? Particle.MassHeavy : Particle.MassNormal;
-                        p1.heavy = e.isControlDown();
-                    }
+                            p1.mass = e.isControlDown() ? Particle.MassHeavy : Particle.MassNormal;
+                            p1.heavy = e.isControlDown();
+                        }
 
-                    system.ungrab();
-                }
-                grabbed = false;
+                        system.ungrab();
+                    }
+                    grabbed = false;
                 
-                mouseDown = false;
-                controlDown = false;
-                shiftDown = false;
-                altDown = false;
+                    mouseDown = false;
+                    controlDown = false;
+                    shiftDown = false;
+                    altDown = false;
+                }
             }
         } );
         component.addKeyListener( new KeyAdapter() {
             
             public void keyPressed(KeyEvent e) {
-                controlDown = e.isControlDown();
-                shiftDown = e.isShiftDown();
+                synchronized (system) {
+                    controlDown = e.isControlDown();
+                    shiftDown = e.isShiftDown();
 
-                if ( e.getKeyCode() == KeyEvent.VK_C ) {                   
-                    system.clearParticles();
-                    p1 = null;
-                    p2 = null;
+                    if ( e.getKeyCode() == KeyEvent.VK_C ) {                   
+                        system.clearParticles();
+                        p1 = null;
+                        p2 = null;
+                    }
                 }
             }
         } );
@@ -390,29 +397,22 @@ public class ParticleSimulationInteractor implements Interactor {
 			// Don't use damping. Remove this to use max damping found
 			kd = 0;
 			
-			Vector2d ddx = new Vector2d();
-			ddx.sub(pt, pt0);
-//			ddx.set(pt.x - pt0.x, pt.y - pt0.y);
-			ddx.scale(0.5);
-
-			Vector2d force = new Vector2d();
+			double ddx = 0.5 * (pt.x - pt0.x);
+			double ddy = 0.5 * (pt.y - pt0.y);
 
 			// Spring
-			force.sub(pt, p.p);
-			double l = force.length();
-			force.normalize();
-			force.scale((l) * ks);
-			p.addForce(force);
-			force.scale(-1);
+			double dx = pt.x - p.p.x;
+			double dy = pt.y - p.p.y;
+			double l = Math.sqrt(dx * dx + dy * dy);
+			dx /= l;
+			dy /= l;
+			p.f.x += dx * l * ks;
+			p.f.y += dy * l * ks;
 
 			// Damping
-			force.sub(pt, p.p);
-			force.normalize();
-			Vector2d v = new Vector2d();
-			v.sub(ddx, p.v);
-			double rv = force.dot(v);
-			force.scale(kd * rv);
-			p.addForce(force);
+			double rv = dx * (ddx - p.v.x) + dy * (ddy - p.v.y);
+			p.f.x += dx * kd * rv;
+			p.f.y += dy * kd * rv;
 		}
 	}
 
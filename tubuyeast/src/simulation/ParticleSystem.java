@@ -2,17 +2,18 @@ package simulation;
 
 import java.awt.Dimension;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GLAutoDrawable;
 import javax.swing.BorderFactory;
 import javax.swing.JPanel;
 import javax.vecmath.Point2d;
-import javax.vecmath.Vector2d;
 
-import numerical.BoxCollider;
 import numerical.ForwardEuler;
 import numerical.ImplicitEuler;
 import numerical.Integrator;
@@ -20,6 +21,9 @@ import numerical.RungeKutta;
 import numerical.VelocityIndependentVerlet;
 import numerical.VelocityVerlet;
 import tools.gl.SceneGraphNode;
+import tools.gl.CounterRegistry;
+import tools.gl.CounterRegistry.Counter;
+import tools.gl.MetricsSink;
 import tools.gl.StopWatch;
 import tools.gl.StopWatchTree;
 import tools.parameters.DoubleParameter;
@@ -39,7 +43,12 @@ public class ParticleSystem implements SceneGraphNode {
 
 	private List<Integrator> integrationMethods;
 
-	private ArrayList<Boundary> wall = new ArrayList<Boundary>();
+	/**
+	 * Walls of the window box and other boundaries that do not move
+	 */
+	private StaticGeometry geometry = new StaticGeometry();
+
+	private LevelOfDetail lod = new LevelOfDetail();
 
 	/**
 	 * List of particles in the system.
@@ -50,19 +59,56 @@ public class ParticleSystem implements SceneGraphNode {
 	
 	private MotherCell MC = new MotherCell();
 	
+	private Nucleus nucleus = new Nucleus();
+	
 	private double cellDiameter = 205.0;
 	
 	//private int budDiameter = 80;
 	
 	//private ArrayList<Particle> budParticles = new ArrayList<Particle>();
 	
-	public List<Spring> springs = new LinkedList<Spring>();
-	private QuadTree qt;
+	public List<Spring> springs = new ArrayList<Spring>();
+	
+	/**
+	 * Packed copy of the springs used by the per-step passes.
+	 */
+	private SpringStore springStore = new SpringStore(particles);
+	
+	private QuadTree qt = new QuadTree();
+	
+	/**
+	 * Neighbors found in the quad tree, reused for every particle.
+	 */
+	private ArrayList<Particle> closeParticles = new ArrayList<Particle>();
+	
+	/**
+	 * Contacts with boundaries, cleared every step.
+	 */
+	private ContactManifold contacts = new ContactManifold();
+	
+	/**
+	 * Log of the particles and springs added and removed since the last
+	 * full rebuild.
+	 */
+	private TopologyLog topology = new TopologyLog();
+	
+	/**
+	 * Particles by handle, null for free handles.
+	 */
+	private ArrayList<Particle> handles = new ArrayList<Particle>();
+	
+	/**
+	 * Stack of free handles.
+	 */
+	private int[] freeHandles = new int[16];
+	private int numFreeHandles = 0;
+	
+	private ArrayList<IndexRemapListener> remapListeners = new ArrayList<IndexRemapListener>();
 	
 
 	private Dimension wsize;
 
-	public static DoubleParameter g = new DoubleParameter("gravity", 9.8, -100,
+	private DoubleParameter g = new DoubleParameter("gravity", 9.8, -100,
 			100);
 
 	private IntParameter q = new IntParameter("Coulomb charge multiple", 40, -1000,
@@ -82,7 +128,7 @@ public class ParticleSystem implements SceneGraphNode {
 	private IntParameter numIterations = new IntParameter("iterations", 5, 1,
 			1000);
 
-	public static DoubleParameter friction = new DoubleParameter(
+	private DoubleParameter friction = new DoubleParameter(
 			"floor friction", 0.3, 0, 2);
 
 	private DoubleParameter rc = new DoubleParameter(
@@ -92,12 +138,57 @@ public class ParticleSystem implements SceneGraphNode {
 
 	private double time = 0;
 
+	/**
+	 * Number of steps taken since the last reset
+	 */
+	private long steps = 0;
+
+	/**
+	 * Distance from the window beyond which a particle has blown up
+	 */
+	public static final double BLOW_UP_DISTANCE = 1e4;
+
+	/**
+	 * Names of the counters recorded with each step, see
+	 * {@link #setMetricsSink(MetricsSink)}.
+	 */
+	public static final String[] METRICS_COUNTERS = { "particles", "springs", "neighbor pairs" };
+
+	/**
+	 * Set by the interface thread while the simulation thread steps
+	 */
+	private volatile MetricsSink metrics = null;
+	private long[] metricsCounters = new long[METRICS_COUNTERS.length];
+
+	private volatile TrajectoryWriter trajectory = null;
+
 	/**
 	 * The integrator
 	 */
 	public Integrator integrationMethod = null;
 
+	/**
+	 * Integrators that are initialized when they are next used, see
+	 * {@link #updateSystem()} and {@link #ensureInitialized(Integrator)}
+	 */
+	private List<Integrator> uninitialized = new ArrayList<Integrator>();
+
 	public StopWatchTree swt = new StopWatchTree();
+
+	/**
+	 * Work counts of the last step, see {@link #CG_ITERATIONS} and
+	 * {@link #MATRIX_NONZEROS} for those counted by the implicit integrator.
+	 */
+	public CounterRegistry counters = new CounterRegistry();
+
+	public static final String CG_ITERATIONS = "CG iterations";
+	public static final String MATRIX_NONZEROS = "matrix non-zeros";
+
+	private Counter cCandidates;
+	private Counter cCoulombPairs;
+	private Counter cIntersectionTests;
+	private Counter cCollisionHits;
+
 	private StopWatch swQT;
 	private StopWatch swQTcreate;
 	private StopWatch swQTcoulomb;
@@ -115,6 +206,9 @@ public class ParticleSystem implements SceneGraphNode {
 	 */
 	public ParticleSystem(Dimension bsize) {
 		wsize = new Dimension(bsize);
+		geometry.setSize(wsize.width, wsize.height);
+		
+		addIndexRemapListener(springStore);
 
 		integrationMethods = new ArrayList<Integrator>();
 		integrationMethods.add(new ImplicitEuler());
@@ -138,6 +232,13 @@ public class ParticleSystem implements SceneGraphNode {
 		swUpdateForces = swt.addStopWatch("update forces", "System step");
 		swCollisions = swt.addStopWatch("collisions", "System step");
 		swIntegrate = swt.addStopWatch("integration", "System step");
+		
+		cCandidates = counters.addCounter("neighbor candidates");
+		cCoulombPairs = counters.addCounter("Coulomb pairs");
+		cIntersectionTests = counters.addCounter("intersection tests");
+		cCollisionHits = counters.addCounter("collision hits");
+		counters.addCounter(CG_ITERATIONS);
+		counters.addCounter(MATRIX_NONZEROS);
 	}
 	
 	/**
@@ -148,6 +249,10 @@ public class ParticleSystem implements SceneGraphNode {
 	public void step(double h) {
 		swStep.start();
 		
+		// Bring the integrator up to date with topology changes
+		ensureInitialized(integrationMethod);
+		integrationMethod.update();
+		
 		swUpdateForces.start();
 		updateForces();
 		swUpdateForces.stop();
@@ -167,13 +272,74 @@ public class ParticleSystem implements SceneGraphNode {
 //				particles);
 
 		time = time + h;
+		steps++;
 		
 		swStep.stop();
+		
+		counters.snapshot();
+		
+		MetricsSink sink = metrics;
+		if (sink != null) {
+			metricsCounters[0] = particles.size();
+			metricsCounters[1] = springs.size();
+			metricsCounters[2] = cCoulombPairs.getLast();
+			sink.record(steps, time, metricsCounters);
+		}
+		
+		TrajectoryWriter recorder = trajectory;
+		if (recorder != null) {
+			recorder.record(steps, time, h, particles);
+		}
+	}
+	
+	/**
+	 * Records the timings of every step from now on.
+	 * 
+	 * @param sink
+	 *            created for {@link #swt} and {@link #METRICS_COUNTERS}, or
+	 *            null to stop recording
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+	}
+	
+	/**
+	 * @return the metrics sink, or null
+	 */
+	public MetricsSink getMetricsSink() {
+		return metrics;
+	}
+	
+	/**
+	 * Records the particles after every step from now on, every k-th step
+	 * being kept by the recorder.
+	 * 
+	 * @param recorder
+	 *            the trajectory recorder, or null to stop recording
+	 */
+	public void setTrajectoryRecorder(TrajectoryWriter recorder) {
+		trajectory = recorder;
+	}
+	
+	/**
+	 * @return the trajectory recorder, or null
+	 */
+	public TrajectoryWriter getTrajectoryRecorder() {
+		return trajectory;
 	}
 	
-	private void collide(double h) {
+	/**
+	 * Collides the particles with the springs.
+	 * 
+	 * @param h
+	 */
+	void collide(double h) {
+		contacts.clear(particles.size());
+		
 		// Collide particles
-		for (Particle p : particles) {
+		long hits = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
 			if (p instanceof MotorParticle || !p.collidable) {
 				// could competely avoid collision
 //				continue;
@@ -182,10 +348,10 @@ public class ParticleSystem implements SceneGraphNode {
 				p.inContact = false;
 			}
 			
-			for (Spring s : springs) {
-				s.intersect(p, h);
-			}
+			if (springStore.intersect(p, h)) hits++;
 		}		
+		cCollisionHits.add(hits);
+		cIntersectionTests.add(springStore.takeIntersectionTests());
 	}
 
 	/**
@@ -200,10 +366,22 @@ public class ParticleSystem implements SceneGraphNode {
 			p.index = ind++;
 			p.q = q.getValue();
 		}
-
-		for (Integrator i : integrationMethods) {
-			i.initialize(this);
+		rebuildHandles();
+		
+		ind = 0;
+		for (Spring s : springs) {
+			s.setIndex(ind++);
 		}
+
+		springStore.rebuild(springs);
+		topology.rebuild();
+		
+		// Only the integrator in use is initialized now, the implicit one
+		// builds matrices that take as long as creating a large system
+		uninitialized.clear();
+		uninitialized.addAll(integrationMethods);
+		uninitialized.remove(integrationMethod);
+		integrationMethod.initialize(this);
 	}
 
 	/**
@@ -223,6 +401,7 @@ public class ParticleSystem implements SceneGraphNode {
 			p.reset();
 		}
 		time = 0;
+		steps = 0;
 
 		ungrab();
 
@@ -233,28 +412,40 @@ public class ParticleSystem implements SceneGraphNode {
 	 * Deletes all particles
 	 */
 	public void clearParticles() {
-		List<Particle> toRemove = new LinkedList<Particle>();
-		for (Particle p : particles) {
-			// TODO: could add a deletion filter here
-			toRemove.add(p);
-		}
-
-		particles.removeAll(toRemove);
+		particles.clear();
 		springs.clear();
 
 		updateSystem();
 	}
 
+	/**
+	 * Builds the quad tree over the window, grown to contain the particles
+	 * that left it. Particles outside the tree would be subdivided forever.
+	 */
+	void buildQuadTree() {
+		// Lower left corner is (x1, y1), upper right is (x2, y2)
+		double x1 = 9, y1 = 747, x2 = 792, y2 = 10;
+		for (int i = 0; i < particles.size(); i++) {
+			Point2d p = particles.get(i).p;
+			if (p.x < x1) x1 = p.x - 1;
+			if (p.x > x2) x2 = p.x + 1;
+			if (p.y > y1) y1 = p.y + 1;
+			if (p.y < y2) y2 = p.y - 1;
+		}
+		
+		qt.build(particles, x1, y1, x2, y2);
+	}
+	
 	/**
 	 * Updates the current forces
 	 */
 	public void updateForces() {
 
 		// Initialize forces to the the gravity force (mg)
-		Vector2d fg = g.isChecked() ? new Vector2d(0, g.getValue())
-				: new Vector2d();
-		for (Particle p : particles) {
-			p.f.set(fg);
+		double gy = g.isChecked() ? g.getValue() : 0;
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			p.f.set(0, gy);
 			p.f.scale(p.mass);
 
 		}
@@ -265,8 +456,11 @@ public class ParticleSystem implements SceneGraphNode {
 		
 		//Create QuadTree
 		swQTcreate.start();
-		qt = new QuadTree(particles, new Point2d(9, 747), new Point2d(792, 10));
+		buildQuadTree();
 		swQTcreate.stop();
+		
+		// Room for every neighbor so the list never grows while querying
+		closeParticles.ensureCapacity(particles.size());
 		//END OF MOHAMED'S CODE
 		
 		// OLD COULOMB FORCES
@@ -284,27 +478,33 @@ public class ParticleSystem implements SceneGraphNode {
 		
 		// 2. MOHAMED's CODE - if you want to test without it, comment and above OLD COULOMB FORCES
 		swQTcoulomb.start();
-		for (Particle p1: particles) {
+		long candidates = 0, pairs = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p1 = particles.get(i);
 			if (!p1.collidable) continue;
-			ArrayList<Particle> closeParticles = qt.getParticles(p1, 60);
-			for (Particle p2: closeParticles) {
+			qt.getParticles(p1, 60, closeParticles);
+			candidates += closeParticles.size();
+			for (int j = 0; j < closeParticles.size(); j++) {
+				Particle p2 = closeParticles.get(j);
 				if (p1 == p2 || !p2.collidable) continue;
 				
 				CoulombForce.apply(p1, p2);
+				pairs++;
 			}
 		}
+		cCandidates.add(candidates);
+		cCoulombPairs.add(pairs);
 		swQTcoulomb.stop();
 		swQT.stop();
 		// END OF MOHAMED's CODE
 		
 		
 		// Computes and adds the spring forces
-		for (Spring spring : springs) {
-			spring.apply();
-		}
+		springStore.apply();
 		
 		// Add pulling to motor proteins
-		for (Particle p: particles) {
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
 			if (p instanceof MotorParticle) {
 				((MotorParticle) p).apply(pforce.getValue());
 			}
@@ -315,12 +515,13 @@ public class ParticleSystem implements SceneGraphNode {
 		double sign = 0;
 		double gv = g.getValue();
 		double mu = friction.getValue();
-		for (Particle p : particles) {
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
 
 			// Use some offset
 			if (p.p.y >= wsize.getHeight() - 13) {
 				sign = -1 * Math.signum(p.v.x);
-				p.addForce(new Vector2d(mu * sign * p.mass * gv, 0));
+				p.f.x += mu * sign * p.mass * gv;
 			}
 
 			// System.out.println(p.index + ": " + p.f);
@@ -343,11 +544,210 @@ public class ParticleSystem implements SceneGraphNode {
 	public Particle createParticle(double x, double y, double vx, double vy) {
 		Particle p = new Particle(x, y, vx, vy);
 		p.q = q.getValue();
-		particles.add(p);
+		addParticle(p);
 		//System.out.println(p.p);
 		return p;
 	}
 
+	/**
+	 * Adds a particle at the end of the particle list and records the change.
+	 * 
+	 * @param p
+	 */
+	public void addParticle(Particle p) {
+		p.index = particles.size();
+		p.handle = allocateHandle(p);
+		particles.add(p);
+		topology.particleAdded(p);
+	}
+
+	/**
+	 * Removes a particle and the springs attached to it. The last
+	 * particle takes its index, so the cost does not depend on the number of
+	 * particles.
+	 * 
+	 * @param p
+	 */
+	public void removeParticle(Particle p) {
+		int i = p.index;
+		int last = particles.size() - 1;
+		if (i < 0 || i > last || particles.get(i) != p) return;
+
+		// Springs would otherwise refer to a stale index
+		for (int j = p.springs.size() - 1; j >= 0; j--) {
+			removeSpring(p.springs.get(j));
+		}
+		for (int j = p.angularSprings.size() - 1; j >= 0; j--) {
+			removeSpring(p.angularSprings.get(j));
+		}
+
+		Particle moved = particles.remove(last);
+		topology.particleRemoved(p, i);
+		for (IndexRemapListener l : remapListeners) {
+			l.particleRemoved(p, i);
+		}
+
+		if (i != last) {
+			particles.set(i, moved);
+			moved.index = i;
+			topology.particleMoved(moved, last, i);
+			for (IndexRemapListener l : remapListeners) {
+				l.particleMoved(moved, last, i);
+			}
+		}
+
+		releaseHandle(p);
+	}
+
+	/**
+	 * Adds a spring to the system and records the change. Both of its
+	 * particles should already be in the system.
+	 * 
+	 * @param s
+	 */
+	public void addSpring(Spring s) {
+		s.setIndex(springs.size());
+		springs.add(s);
+		springStore.add(s);
+		topology.springAdded(s);
+	}
+
+	/**
+	 * Removes particles and the springs attached to them, see
+	 * {@link #removeParticle(Particle)}.
+	 * 
+	 * @param toRemove
+	 */
+	public void removeParticles(Collection<? extends Particle> toRemove) {
+		for (Particle p : toRemove) {
+			removeParticle(p);
+		}
+	}
+
+	/**
+	 * Removes a spring. The last spring takes its place in the spring list.
+	 * 
+	 * @param s
+	 */
+	public void removeSpring(Spring s) {
+		int i = s.getIndex();
+		int last = springs.size() - 1;
+		if (i < 0 || i > last || springs.get(i) != s) return;
+
+		Spring moved = springs.remove(last);
+		if (i != last) {
+			springs.set(i, moved);
+			moved.setIndex(i);
+		}
+		s.setIndex(-1);
+
+		if (s instanceof LinearSpring) {
+			((LinearSpring) s).detach();
+		}
+		else if (s instanceof AngularSpring) {
+			((AngularSpring) s).detach();
+		}
+
+		springStore.remove(s);
+		topology.springRemoved(s);
+	}
+
+	/**
+	 * Removes springs, see {@link #removeSpring(Spring)}.
+	 * 
+	 * @param toRemove
+	 */
+	public void removeSprings(Collection<? extends Spring> toRemove) {
+		for (Spring s : toRemove) {
+			removeSpring(s);
+		}
+	}
+
+	/**
+	 * @param handle
+	 * @return the particle with this handle, or null if there is none.
+	 */
+	public Particle getParticle(int handle) {
+		return handle >= 0 && handle < handles.size() ? handles.get(handle) : null;
+	}
+
+	private int allocateHandle(Particle p) {
+		if (numFreeHandles > 0) {
+			int h = freeHandles[--numFreeHandles];
+			handles.set(h, p);
+			return h;
+		}
+
+		handles.add(p);
+		return handles.size() - 1;
+	}
+
+	private void releaseHandle(Particle p) {
+		handles.set(p.handle, null);
+		if (numFreeHandles == freeHandles.length) {
+			freeHandles = Arrays.copyOf(freeHandles, 2 * numFreeHandles);
+		}
+		freeHandles[numFreeHandles++] = p.handle;
+		p.handle = -1;
+	}
+
+	/**
+	 * Rebuilds the handle table after the particle list was modified
+	 * directly. Particles that already had a handle keep it.
+	 */
+	private void rebuildHandles() {
+		ArrayList<Particle> old = handles;
+		handles = new ArrayList<Particle>(old.size());
+		
+		ArrayList<Particle> unassigned = new ArrayList<Particle>();
+		for (Particle p : particles) {
+			if (p.handle >= 0 && p.handle < old.size() && old.get(p.handle) == p) {
+				while (handles.size() <= p.handle) handles.add(null);
+				handles.set(p.handle, p);
+			}
+			else {
+				unassigned.add(p);
+			}
+		}
+		
+		numFreeHandles = 0;
+		for (int h = handles.size() - 1; h >= 0; h--) {
+			if (handles.get(h) == null) {
+				if (numFreeHandles == freeHandles.length) {
+					freeHandles = Arrays.copyOf(freeHandles, 2 * numFreeHandles);
+				}
+				freeHandles[numFreeHandles++] = h;
+			}
+		}
+		
+		for (Particle p : unassigned) {
+			p.handle = allocateHandle(p);
+		}
+	}
+
+	/**
+	 * Registers a structure to be notified when particles change index.
+	 * 
+	 * @param l
+	 */
+	public void addIndexRemapListener(IndexRemapListener l) {
+		remapListeners.add(l);
+	}
+
+	/**
+	 * @param l
+	 */
+	public void removeIndexRemapListener(IndexRemapListener l) {
+		remapListeners.remove(l);
+	}
+	
+	/**
+	 * @return the log of topology changes of this system.
+	 */
+	public TopologyLog getTopologyLog() {
+		return topology;
+	}
+
 	/**
 	 * Creates a new spring between two particles and adds it to the system.
 	 * 
@@ -357,7 +757,7 @@ public class ParticleSystem implements SceneGraphNode {
 	 */
 	public LinearSpring createSpring(Particle p1, Particle p2) {
 		LinearSpring s = new LinearSpring(p1, p2, k.getValue(), b.getValue());
-		springs.add(s);
+		addSpring(s);
 		return s;
 	}
 
@@ -365,42 +765,57 @@ public class ParticleSystem implements SceneGraphNode {
 		// do nothing
 	}
 	
+	/**
+	 * Snapshot reused to display the system directly
+	 */
+	private SystemSnapshot liveSnapshot = new SystemSnapshot();
+
+	/**
+	 * Fills a snapshot with the current state of the system.
+	 * @param snapshot
+	 */
+	public void pack(SystemSnapshot snapshot) {
+		snapshot.clear();
+		snapshot.time = time;
+		snapshot.steps = steps;
+		if (lod.isActive(particles.size())) {
+			lod.pack(particles, snapshot.splats);
+			snapshot.splatSize = lod.getSplatSize();
+			springStore.pack(snapshot.springLines, snapshot.springMidpoints, snapshot.springArcs, lod.getMinSpringLength());
+		} else {
+			for (int i = 0; i < particles.size(); i++) {
+				Particle p = particles.get(i);
+				p.pack(p.heavy ? snapshot.heavyParticles : snapshot.lightParticles, snapshot.illegalParticles);
+			}
+			springStore.pack(snapshot.springLines, snapshot.springMidpoints, snapshot.springArcs);
+		}
+		contacts.pack(snapshot.contactPoints, snapshot.contactNormals);
+	}
+
 	public void display(GLAutoDrawable drawable) {
+		pack(liveSnapshot);
+		display(drawable, liveSnapshot);
+	}
+
+	/**
+	 * Displays a snapshot of the system, with the walls and the grab line.
+	 * @param drawable
+	 * @param snapshot
+	 */
+	public void display(GLAutoDrawable drawable, SystemSnapshot snapshot) {
 		GL gl = drawable.getGL();
 
 		// Keep track of the width and the height
 		// to be able to process collisions with walls
 		wsize.setSize(drawable.getWidth(), drawable.getHeight());
 
-		// Particle box
-		Point2d b1, b2, b3, b4;
-		b1 = new Point2d(BoxCollider.WDX, wsize.height - BoxCollider.WDY - 0);
-		b2 = new Point2d(BoxCollider.WDX, BoxCollider.WDY);
-		b3 = new Point2d(wsize.width - BoxCollider.WDX, BoxCollider.WDY);
-		b4 = new Point2d(wsize.width - BoxCollider.WDX, wsize.height
-				- BoxCollider.WDY - 0);
-		wall = ConstraintTool.createBox(b1, b2, b3, b4);
-		for (Boundary b : wall) {
-			b.display(drawable);
-		}
+		// Particle box, rebuilt only when the window is resized
+		geometry.setSize(wsize.width, wsize.height);
+		geometry.display(drawable);
 
-		for (Particle p : particles) {
-			if (p.heavy) {
-				gl.glPointSize(25);
-			} else {
-				gl.glPointSize(10);
-			}
-
-			gl.glBegin(GL.GL_POINTS);
-
-			p.glVertex2d(gl);
-
-			gl.glEnd();
-		}
+		snapshot.draw(gl);
 
-		for (Spring s : springs) {
-			s.display(drawable);
-		}
+		springStore.displayOthers(drawable);
 
 		if (pgrabbed != null) {
 			ParticleSimulationInteractor.drawLineToParticle(drawable,
@@ -425,7 +840,10 @@ public class ParticleSystem implements SceneGraphNode {
 				.addParameterListener(new ParameterListener() {
 					@Override
 					public void parameterChanged(Parameter parameter) {
-						integrationMethod = (Integrator) integrationMethodsComboBox.getSelected();
+						synchronized (ParticleSystem.this) {
+							integrationMethod = (Integrator) integrationMethodsComboBox.getSelected();
+							ensureInitialized(integrationMethod);
+						}
 					}
 				});
 
@@ -442,9 +860,8 @@ public class ParticleSystem implements SceneGraphNode {
 		ParameterListener springl = new ParameterListener() {
 			@Override
 			public void parameterChanged(Parameter parameter) {
-				for (Spring spring : springs) {
-					spring.setK(k.getValue());
-					spring.setB(b.getValue());
+				synchronized (ParticleSystem.this) {
+					springStore.setStiffness(k.getValue(), b.getValue());
 				}
 			}
 		};
@@ -455,10 +872,8 @@ public class ParticleSystem implements SceneGraphNode {
 		ParameterListener springal = new ParameterListener() {
 			@Override
 			public void parameterChanged(Parameter parameter) {
-				for (Spring spring : springs) {
-					if (spring instanceof AngularSpring) {
-						spring.setK(ak.getValue());
-					}
+				synchronized (ParticleSystem.this) {
+					springStore.setAngularStiffness(ak.getValue());
 				}
 			}
 		};
@@ -468,8 +883,10 @@ public class ParticleSystem implements SceneGraphNode {
 		ParameterListener el = new ParameterListener() {
 			@Override
 			public void parameterChanged(Parameter parameter) {
-				for (Particle p : particles) {
-					p.q = q.getValue();
+				synchronized (ParticleSystem.this) {
+					for (Particle p : particles) {
+						p.q = q.getValue();
+					}
 				}
 			}
 		};
@@ -477,6 +894,7 @@ public class ParticleSystem implements SceneGraphNode {
 
 		vfp.add(friction.getSliderControls(false));
 		vfp.add(rc.getSliderControls(false));
+		vfp.add(lod.getControls());
 
 		return vfp.getPanel();
 	}
@@ -519,6 +937,169 @@ public class ParticleSystem implements SceneGraphNode {
 		return springs;
 	}
 
+	/**
+	 * @return the available integrators, one of which is
+	 *         {@link #integrationMethod}.
+	 */
+	public List<Integrator> getIntegrationMethods() {
+		return integrationMethods;
+	}
+
+	/**
+	 * @return the walls of the window box and the other boundaries that do
+	 *         not move
+	 */
+	public StaticGeometry getStaticGeometry() {
+		return geometry;
+	}
+
+	/**
+	 * @return the level of detail used to display the system
+	 */
+	public LevelOfDetail getLevelOfDetail() {
+		return lod;
+	}
+
+	/**
+	 * Selects an integrator, as the combo box does.
+	 * @param method
+	 *            the index of the integrator in {@link #getIntegrationMethods()}
+	 */
+	public void setIntegrationMethod(int method) {
+		integrationMethodsComboBox.setSelected(method);
+		integrationMethod = integrationMethods.get(method);
+		ensureInitialized(integrationMethod);
+	}
+
+	/**
+	 * Initializes an integrator for the current system if it has not been
+	 * since the last {@link #updateSystem()}. Must be called before using an
+	 * integrator other than through {@link #step(double)}.
+	 * @param integrator one of {@link #getIntegrationMethods()}
+	 */
+	public void ensureInitialized(Integrator integrator) {
+		if (!uninitialized.isEmpty() && uninitialized.remove(integrator)) {
+			integrator.initialize(this);
+		}
+	}
+
+	/**
+	 * @return the simulation time since the last reset
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the number of steps taken since the last reset
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return whether a particle is farther than {@link #BLOW_UP_DISTANCE}
+	 *         from the window or is NaN, which unstable runs come to
+	 */
+	public boolean blewUp() {
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			// Also true for NaN
+			if (!(Math.abs(p.p.x) < BLOW_UP_DISTANCE && Math.abs(p.p.y) < BLOW_UP_DISTANCE)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the simulation time and number of steps, as when restoring a
+	 * checkpoint.
+	 * @param time
+	 * @param steps
+	 */
+	void setTime(double time, long steps) {
+		this.time = time;
+		this.steps = steps;
+	}
+
+	/**
+	 * @return the parameters of the system, saved with its state by a
+	 *         {@link Checkpoint}
+	 */
+	public Parameter[] getParameters() {
+		return new Parameter[] { g, q, k, ak, pforce, b, numIterations, friction, rc };
+	}
+
+	/**
+	 * @param parameters
+	 * @return the values of the parameters by name, in order: the value then
+	 *         1 if it is checked, 0 otherwise
+	 */
+	public static Map<String, double[]> getParameterValues(Parameter[] parameters) {
+		Map<String, double[]> values = new LinkedHashMap<String, double[]>();
+		for (Parameter p : parameters) {
+			if (p instanceof IntParameter) {
+				values.put(p.getName(), new double[] { ((IntParameter) p).getValue(), 0 });
+			}
+			else if (p instanceof DoubleParameter) {
+				DoubleParameter dp = (DoubleParameter) p;
+				values.put(p.getName(), new double[] { dp.getValue(), dp.isChecked() ? 1 : 0 });
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Sets the parameters of the system that have a value, see
+	 * {@link #setParameterValues(Parameter[], Map)}.
+	 * @param values
+	 */
+	public void setParameterValues(Map<String, double[]> values) {
+		setParameterValues(getParameters(), values);
+	}
+
+	/**
+	 * Sets parameters by name. Parameters without a value are left as they
+	 * are, as is whether a parameter is checked when only its value is given.
+	 * @param parameters
+	 * @param values by name: the value, rounded for int parameters, then
+	 *            optionally 1 if the parameter is checked, 0 otherwise
+	 */
+	public static void setParameterValues(Parameter[] parameters, Map<String, double[]> values) {
+		for (Parameter p : parameters) {
+			double[] v = values.get(p.getName());
+			if (v == null) continue;
+			if (p instanceof IntParameter) {
+				((IntParameter) p).setValue((int) Math.round(v[0]));
+			}
+			else if (p instanceof DoubleParameter) {
+				((DoubleParameter) p).setValue(v[0]);
+				if (v.length > 1) ((DoubleParameter) p).setChecked(v[1] != 0);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of CG iterations of the implicit integrator
+	 */
+	public IntParameter getNumIterations() {
+		return numIterations;
+	}
+
+	/**
+	 * @return the packed springs, in sync with {@link #getSprings()} as long
+	 *         as springs are added and removed through this system.
+	 */
+	public SpringStore getSpringStore() {
+		return springStore;
+	}
+
+	/**
+	 * @return the contacts of this step.
+	 */
+	public ContactManifold getContacts() {
+		return contacts;
+	}
+
 	/**
 	 * @return the default spring stiffness constant.
 	 */
@@ -545,6 +1126,10 @@ public class ParticleSystem implements SceneGraphNode {
 		return MC;
 	}
 	
+	public Nucleus getNucleus(){
+		return nucleus;
+	}
+	
 	public DoubleParameter getPForce(){
 		return pforce;
 	}
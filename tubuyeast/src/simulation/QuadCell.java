@@ -9,19 +9,53 @@ public class QuadCell {
 	
 	private Particle child = null;
 	boolean leaf;
-	private Point2d pll, pur, center;
+	private Point2d pll = new Point2d(), pur = new Point2d(), center = new Point2d();
 	private QuadCell SW = null, SE = null, NE = null, NW = null, parent = null;
 	
+	/******************************************************
+	 * The tree whose pool provides the children, if any
+	 ******************************************************/
+	private QuadTree tree = null;
+	
 	/******************************************************
 	 * c1 is lower left point, and c2 is upper right point
 	 ******************************************************/
 	public QuadCell(Point2d c1, Point2d c2){
-		this.pll = c1;
-		this.pur = c2;
-		this.center = new Point2d( (c1.x + c2.x) / 2, (c1.y + c2.y) / 2);
+		reset(null, c1.x, c1.y, c2.x, c2.y);
+	}
+	
+	/******************************************************
+	 * Creates a pooled cell, see reset()
+	 ******************************************************/
+	QuadCell(QuadTree tree){
+		this.tree = tree;
+	}
+	
+	/******************************************************
+	 * Makes this an empty leaf, c1 is lower left point, and
+	 * c2 is upper right point
+	 ******************************************************/
+	void reset(QuadCell parent, double c1x, double c1y, double c2x, double c2y){
+		this.parent = parent;
+		this.pll.set(c1x, c1y);
+		this.pur.set(c2x, c2y);
+		this.center.set( (c1x + c2x) / 2, (c1y + c2y) / 2);
+		child = null;
+		SW = SE = NE = NW = null;
 		leaf = true;
 	}
 	
+	/******************************************************
+	 * Creates a child cell, from the pool when there is one
+	 ******************************************************/
+	private QuadCell createChild(double c1x, double c1y, double c2x, double c2y){
+		if(tree != null) return tree.obtain(this, c1x, c1y, c2x, c2y);
+		
+		QuadCell cell = new QuadCell(new Point2d(c1x, c1y), new Point2d(c2x, c2y));
+		cell.parent = this;
+		return cell;
+	}
+	
 	
 	/************************************************************************************
 	 * Inserts a particle into the QuadTree and finds appropriate QuadCell it belongs to
@@ -65,16 +99,14 @@ public class QuadCell {
 			if(p.p.y >= this.center.y){
 				if(this.SE != null) this.SE.insert(p);
 				else{
-					this.SE = new QuadCell(new Point2d(this.center.x, this.pll.y), new Point2d(this.pur.x, this.center.y));
-					this.SE.parent = this;
+					this.SE = createChild(this.center.x, this.pll.y, this.pur.x, this.center.y);
 					this.SE.insert(p);
 				}
 			}
 			else{
 				if(this.NE != null) this.NE.insert(p);
 				else{
-					this.NE = new QuadCell(this.center, this.pur);
-					this.NE.parent = this;
+					this.NE = createChild(this.center.x, this.center.y, this.pur.x, this.pur.y);
 					this.NE.insert(p);
 				}
 			}
@@ -83,16 +115,14 @@ public class QuadCell {
 			if(p.p.y >= this.center.y){
 				if(this.SW != null) this.SW.insert(p);
 				else{
-					this.SW = new QuadCell(this.pll, this.center);
-					this.SW.parent = this;
+					this.SW = createChild(this.pll.x, this.pll.y, this.center.x, this.center.y);
 					this.SW.insert(p);
 				}
 			}
 			else{
 				if(this.NW != null)	this.NW.insert(p);
 				else{
-					this.NW = new QuadCell(new Point2d(this.pll.x, this.center.y), new Point2d(this.center.x, this.pur.y));
-					this.NW.parent = this;
+					this.NW = createChild(this.pll.x, this.center.y, this.center.x, this.pur.y);
 					this.NW.insert(p);
 				}
 			}
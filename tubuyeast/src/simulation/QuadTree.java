@@ -9,39 +9,84 @@ public class QuadTree {
 	private ArrayList<Particle> particles;
 	private QuadCell root;
 	
+	/*******************************************************************
+	 * Cells of previous builds, reused so that rebuilding the tree every
+	 * step does not allocate
+	 *******************************************************************/
+	private ArrayList<QuadCell> pool = new ArrayList<QuadCell>();
+	private int used = 0;
+	
+	/***************************************************
+	 * Instantiates an empty QuadTree, see build()
+	 ***************************************************/
+	public QuadTree(){
+		// nothing to do
+	}
+	
 	/***************************************************
 	 * Instantiates a QuadTree given a set of particles
 	 ***************************************************/
 	public QuadTree(ArrayList<Particle> po, Point2d upperRCorner, Point2d lowerLCorner){
-		particles = po;
-		this.BuildQuadTree( upperRCorner, lowerLCorner); // I found that simulation lower left corner = (9, 747) and upper right corner = (792, 10)
+		build(po, upperRCorner.x, upperRCorner.y, lowerLCorner.x, lowerLCorner.y); // I found that simulation lower left corner = (9, 747) and upper right corner = (792, 10)
 	}
 
 	/*******************************************************************
-	 * Splits space into QuadCells and assigns each particle to a cell
+	 * Splits space into QuadCells and assigns each particle to a cell,
+	 * reusing the cells of the previous build
 	 *******************************************************************/
-	private void BuildQuadTree(Point2d upperRC, Point2d lowerLC){
-		root = new QuadCell(upperRC, lowerLC);  
+	public void build(ArrayList<Particle> po, double upperRCx, double upperRCy, double lowerLCx, double lowerLCy){
+		particles = po;
+		used = 0;
+		root = obtain(null, upperRCx, upperRCy, lowerLCx, lowerLCy);  
 		
 		// Fill tree with Particles
-		for(Particle p: this.particles){
-			root.insert(p);
+		for(int i = 0; i < particles.size(); i++){
+			root.insert(particles.get(i));
 		}
 	}
 	
+	/*******************************************************************
+	 * Returns a cleared cell from the pool
+	 *******************************************************************/
+	QuadCell obtain(QuadCell parent, double c1x, double c1y, double c2x, double c2y){
+		QuadCell cell;
+		if(used < pool.size()){
+			cell = pool.get(used);
+		}
+		else{
+			cell = new QuadCell(this);
+			pool.add(cell);
+		}
+		used++;
+		
+		cell.reset(parent, c1x, c1y, c2x, c2y);
+		return cell;
+	}
+	
 	/*******************************************************************
 	 * Returns the Particles that are a radius r away from p
 	 *******************************************************************/
 	public ArrayList<Particle> getParticles(Particle p, double r){
+		ArrayList<Particle> allParticles = new ArrayList<Particle>();
+		getParticles(p, r, allParticles);
+
+		return allParticles;
+	}
+	
+	/*******************************************************************
+	 * Fills the list with the Particles that are a radius r away from p
+	 *******************************************************************/
+	public void getParticles(Particle p, double r, ArrayList<Particle> allParticles){
+		allParticles.clear();
 		
 		// Find the Quad that has all the Particles a radius r from p
 		QuadCell boundary = root.getBoundingQuad(p.p.x, p.p.y, r);
 		
+		// The radius reaches a corner of the root, all particles may be close
+		if(boundary == null) boundary = root;
+		
 		// Get all particles inside bounding QuadCell
-		ArrayList<Particle> allParticles = new ArrayList<Particle>();
 		boundary.getChildrenParticles(allParticles);
-
-		return allParticles;
 	}
 	
 	public void printBoxes(GLAutoDrawable drawable){
@@ -0,0 +1,305 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import tools.CommandLine;
+import tools.gl.StopWatch;
+
+/**
+ * Checks that changes preserve both the physics and the speed of the
+ * simulation. Reference cases are run headlessly for a fixed number of steps.
+ * The final particle positions are compared to golden positions within a
+ * tolerance, and the time per step of each stopwatch of the system is
+ * compared to a baseline. Exits with 1 if positions differ or whole steps are
+ * slower than the baseline by more than the threshold. The phases of a step
+ * are too short to be timed reliably, their changes are only reported.
+ * <p>
+ * A case is a scene of {@link ParticleSimulationApp#createSystem(ParticleSystem, int)},
+ * optionally followed by /i to use integrator i of
+ * {@link ParticleSystem#getIntegrationMethods()} and b to grow the bud as
+ * the application does, e.g. 3/0b.
+ * <p>
+ * Usage: RegressionCheck [-dir regression] [-cases 6,2,3,3/0,3b]
+ * [-steps 500] [-runs 5] [-tolerance 1e-6] [-threshold 0.25] [-record]
+ * <p>
+ * With -record the golden positions and the timing baseline are written
+ * instead of checked. Golden positions do not depend on the machine; timings
+ * do, so the baseline should be recorded on the machine that checks it. When
+ * there is no baseline, timings are only printed.
+ */
+public class RegressionCheck {
+
+	private static final double H = 0.0015;
+
+	private static final String TIMINGS = "timings.properties";
+
+	/**
+	 * The stopwatch of whole steps, the one checked
+	 */
+	private static final String STEP = "System step";
+
+	private File dir = new File("regression");
+	private String[] cases = { "6", "2", "3", "3/0", "3b" };
+	private int steps = 500;
+	private int runs = 5;
+	private double tolerance = 1e-6;
+	private double threshold = 0.25;
+	private boolean record = false;
+
+	private Properties timings = new Properties();
+	private int failures = 0;
+
+	/**
+	 * Parses the command line options.
+	 * @param args
+	 */
+	RegressionCheck(String[] args) {
+		CommandLine options = new CommandLine(args, "-record");
+		while (options.next()) {
+			if (options.is("-record")) record = true;
+			else if (options.is("-dir")) dir = options.getFile();
+			else if (options.is("-cases")) cases = options.getValue().split(",");
+			else if (options.is("-steps")) steps = options.getInt();
+			else if (options.is("-runs")) runs = options.getInt();
+			else if (options.is("-tolerance")) tolerance = options.getDouble();
+			else if (options.is("-threshold")) threshold = options.getDouble();
+			else throw options.unknown();
+		}
+	}
+
+	/**
+	 * Creates the system of a case.
+	 * @param c the case
+	 * @return the system
+	 */
+	private static ParticleSystem create(String c) {
+		String spec = c.endsWith("b") ? c.substring(0, c.length() - 1) : c;
+		int slash = spec.indexOf('/');
+		int scene = Integer.parseInt(slash < 0 ? spec : spec.substring(0, slash));
+
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		ParticleSimulationApp.createSystem(system, scene);
+		if (slash >= 0) {
+			int method = Integer.parseInt(spec.substring(slash + 1));
+			system.integrationMethod = system.getIntegrationMethods().get(method);
+		}
+		return system;
+	}
+
+	/**
+	 * @param c a case
+	 * @return the name of its golden file
+	 */
+	private File goldenFile(String c) {
+		return new File(dir, "case" + c.replace('/', '-') + ".txt");
+	}
+
+	/**
+	 * Runs a case from a fresh system.
+	 * @param c the case
+	 * @return the system after the run
+	 */
+	private ParticleSystem run(String c) {
+		ParticleSystem system = create(c);
+		boolean bud = c.endsWith("b");
+		for (int i = 0; i < steps; i++) {
+			if (bud) ParticleSimulationApp.growBud(system);
+			system.step(H);
+		}
+		return system;
+	}
+
+	/**
+	 * Checks or records a case.
+	 * @param c
+	 * @throws IOException
+	 */
+	private void check(String c) throws IOException {
+		// The first run is also the warm-up
+		ParticleSystem system = run(c);
+		List<Particle> particles = system.getParticles();
+
+		if (record) {
+			writeGolden(goldenFile(c), particles);
+		}
+		else {
+			checkGolden(c, particles);
+		}
+
+		// Time per step of each stopwatch, median over the runs
+		List<StopWatch> watches = system.swt.getStopWatches();
+		double[][] times = new double[watches.size()][runs];
+		for (int r = 0; r < runs; r++) {
+			List<StopWatch> ws = run(c).swt.getStopWatches();
+			for (int w = 0; w < ws.size(); w++) {
+				times[w][r] = ws.get(w).getTotal() / (double) steps;
+			}
+		}
+
+		for (int w = 0; w < watches.size(); w++) {
+			String name = watches.get(w).getName().replace('|', ' ').trim();
+			String key = c + "." + name;
+			Arrays.sort(times[w]);
+			double time = times[w][runs / 2];
+
+			if (record) {
+				timings.setProperty(key, Long.toString((long) time));
+				System.out.println(String.format("%-6s %-16s %10.1f us", c, name, time / 1000));
+				continue;
+			}
+
+			String value = timings.getProperty(key);
+			if (value == null) {
+				System.out.println(String.format("%-6s %-16s %10.1f us", c, name, time / 1000));
+				continue;
+			}
+
+			double baseline = Double.parseDouble(value);
+			double change = time / baseline - 1;
+			boolean slower = name.equals(STEP) && change > threshold;
+			System.out.println(String.format("%-6s %-16s %10.1f us  baseline %10.1f us  %+6.1f%%%s", c, name,
+					time / 1000, baseline / 1000, 100 * change, slower ? "  SLOWER" : ""));
+			if (slower) failures++;
+		}
+	}
+
+	/**
+	 * Writes the positions of the particles, exactly.
+	 * @param file
+	 * @param particles
+	 * @throws IOException
+	 */
+	private void writeGolden(File file, List<Particle> particles) throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write(steps + " " + particles.size() + "\n");
+			for (int i = 0; i < particles.size(); i++) {
+				Particle p = particles.get(i);
+				out.write(p.p.x + " " + p.p.y + "\n");
+			}
+		} finally {
+			out.close();
+		}
+		System.out.println(file + " recorded");
+	}
+
+	/**
+	 * Compares the positions of the particles to the golden ones.
+	 * @param c the case
+	 * @param particles
+	 * @throws IOException
+	 */
+	private void checkGolden(String c, List<Particle> particles) throws IOException {
+		File file = goldenFile(c);
+		if (!file.exists()) {
+			System.out.println(c + ": no golden positions in " + file);
+			failures++;
+			return;
+		}
+
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String[] header = in.readLine().trim().split(" ");
+			int goldenSteps = Integer.parseInt(header[0]);
+			int n = Integer.parseInt(header[1]);
+			if (goldenSteps != steps) {
+				System.out.println(c + ": golden positions are for " + goldenSteps + " steps, not " + steps);
+				failures++;
+				return;
+			}
+			if (n != particles.size()) {
+				System.out.println(c + ": " + particles.size() + " particles, golden " + n);
+				failures++;
+				return;
+			}
+
+			double maxError = 0;
+			int worst = 0;
+			for (int i = 0; i < n; i++) {
+				String[] xy = in.readLine().trim().split(" ");
+				Particle p = particles.get(i);
+				double dx = p.p.x - Double.parseDouble(xy[0]);
+				double dy = p.p.y - Double.parseDouble(xy[1]);
+				double error = Math.sqrt(dx * dx + dy * dy);
+				// NaN is an error too
+				if (!(error <= maxError)) {
+					maxError = error;
+					worst = i;
+				}
+			}
+
+			boolean ok = maxError <= tolerance;
+			System.out.println(c + ": max position error " + maxError + " (particle " + worst + ")"
+					+ (ok ? "" : "  DIFFERENT"));
+			if (!ok) failures++;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Runs all cases.
+	 * @return whether there were no failures
+	 * @throws IOException
+	 */
+	boolean run() throws IOException {
+		File timingFile = new File(dir, TIMINGS);
+		if (record) {
+			dir.mkdirs();
+		}
+		else if (timingFile.exists()) {
+			InputStream in = new FileInputStream(timingFile);
+			try {
+				timings.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		else {
+			System.out.println("No timing baseline in " + timingFile + ", timings are not checked");
+		}
+
+		for (String c : cases) {
+			check(c);
+		}
+
+		if (record) {
+			OutputStream out = new FileOutputStream(timingFile);
+			try {
+				timings.store(out, steps + " steps, median of " + runs + " runs, nanoseconds per step");
+			} finally {
+				out.close();
+			}
+			return true;
+		}
+
+		System.out.println(failures == 0 ? "OK" : failures + " regression(s)");
+		return failures == 0;
+	}
+
+	/**
+	 * Entry point for regression checks
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		try {
+			if (!new RegressionCheck(args).run()) System.exit(1);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
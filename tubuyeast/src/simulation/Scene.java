@@ -0,0 +1,562 @@
+package simulation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tools.parameters.Parameter;
+
+/**
+ * The initial state of a particle system held in flat arrays: a table of
+ * particle types and of spring types, particle positions and velocities, and
+ * springs as indices of their particles. Scenes are authored as XML (see
+ * {@link SceneDescription}), captured from a system built in code, and
+ * stored in a compact binary form that loads with bulk reads.
+ * <p>
+ * Values are little-endian, arrays are stored as columns.
+ * <pre>
+ * int magic 'TUBS', int version
+ * int parameters, then for each: string name, double value, byte checked
+ *     (1), unchecked (0) or left as is (-1)
+ * int particle types, then for each: byte kind (0: particle, 1: bud,
+ *     2: motor), byte flags (1: pinned, 2: collidable, 4: heavy), double mass
+ * int spring types, then for each: byte kind (0: linear, 1: bud,
+ *     2: angular), double k, b
+ * int particles, then byte type[], double x[], y[], vx[], vy[]
+ * int linear springs, then byte type[], int p1[], p2[]
+ * int angular springs, then byte type[], int p1[], p2[], p3[]
+ * double bud radius, bud y transpose, int bud particles, their indices
+ * double cell radius, int cell particles, their indices
+ * int nucleus particles, their indices
+ * int magic
+ * </pre>
+ * Version 1 had no nucleus, versions 1 and 2 no checked parameters.
+ * Rest lengths and angles are those of the initial positions. Parameters
+ * are matched by name, and particle charges follow the charge parameter.
+ */
+public class Scene {
+
+	/**
+	 * 'TUBS'
+	 */
+	public static final int MAGIC = 0x54554253;
+
+	public static final int VERSION = 3;
+
+	/**
+	 * Types are stored in a byte
+	 */
+	public static final int MAX_TYPES = 256;
+
+	static final byte PARTICLE = 0, BUD_PARTICLE = 1, MOTOR_PARTICLE = 2;
+
+	static final byte PINNED = 1, COLLIDABLE = 2, HEAVY = 4;
+
+	static final byte LINEAR = 0, BUD_SPRING = 1, ANGULAR = 2;
+
+	/**
+	 * Parameter values by name, in order, see
+	 * {@link ParticleSystem#setParameterValues(Parameter[], Map)}
+	 */
+	Map<String, double[]> parameters = new LinkedHashMap<String, double[]>();
+
+	int particleTypes = 0;
+	byte[] particleKind = new byte[MAX_TYPES];
+	byte[] particleFlags = new byte[MAX_TYPES];
+	double[] particleMass = new double[MAX_TYPES];
+
+	int springTypes = 0;
+	byte[] springKind = new byte[MAX_TYPES];
+	double[] springK = new double[MAX_TYPES];
+	double[] springB = new double[MAX_TYPES];
+
+	int particles = 0;
+	byte[] type = new byte[16];
+	double[] x = new double[16], y = new double[16], vx = new double[16], vy = new double[16];
+
+	int springs = 0;
+	byte[] springType = new byte[16];
+	int[] p1 = new int[16], p2 = new int[16];
+
+	int angularSprings = 0;
+	byte[] angularType = new byte[16];
+	int[] a1 = new int[16], a2 = new int[16], a3 = new int[16];
+
+	double budRadius;
+	double budYTranspose;
+	int[] budParticles = new int[0];
+
+	double cellRadius;
+	int[] cellParticles = new int[0];
+
+	int[] nucleusParticles = new int[0];
+
+	/**
+	 * Creates an empty scene, with the bud and mother cell of a new system
+	 */
+	public Scene() {
+		Bud bud = new Bud();
+		budRadius = bud.getaRadius();
+		budYTranspose = bud.getYTranspose();
+		cellRadius = new MotherCell().getaRadius();
+	}
+
+	/**
+	 * @return the number of particles
+	 */
+	public int getParticleCount() {
+		return particles;
+	}
+
+	/**
+	 * @return the number of linear and angular springs
+	 */
+	public int getSpringCount() {
+		return springs + angularSprings;
+	}
+
+	/**
+	 * Adds a particle type.
+	 * @param kind
+	 * @param flags
+	 * @param mass
+	 * @return the index of the type
+	 */
+	int addParticleType(byte kind, byte flags, double mass) {
+		if (particleTypes == MAX_TYPES) throw new IllegalStateException("more than " + MAX_TYPES + " particle types");
+		particleKind[particleTypes] = kind;
+		particleFlags[particleTypes] = flags;
+		particleMass[particleTypes] = mass;
+		return particleTypes++;
+	}
+
+	/**
+	 * Adds a spring type.
+	 * @param kind
+	 * @param k
+	 * @param b
+	 * @return the index of the type
+	 */
+	int addSpringType(byte kind, double k, double b) {
+		if (springTypes == MAX_TYPES) throw new IllegalStateException("more than " + MAX_TYPES + " spring types");
+		springKind[springTypes] = kind;
+		springK[springTypes] = k;
+		springB[springTypes] = b;
+		return springTypes++;
+	}
+
+	/**
+	 * Adds a particle.
+	 * @return the index of the particle
+	 */
+	int addParticle(int t, double px, double py, double pvx, double pvy) {
+		if (particles == type.length) {
+			int n = 2 * particles;
+			type = Arrays.copyOf(type, n);
+			x = Arrays.copyOf(x, n);
+			y = Arrays.copyOf(y, n);
+			vx = Arrays.copyOf(vx, n);
+			vy = Arrays.copyOf(vy, n);
+		}
+		type[particles] = (byte) t;
+		x[particles] = px;
+		y[particles] = py;
+		vx[particles] = pvx;
+		vy[particles] = pvy;
+		return particles++;
+	}
+
+	/**
+	 * Adds a linear or bud spring between two particles.
+	 */
+	void addSpring(int t, int i, int j) {
+		if (springs == springType.length) {
+			int n = 2 * springs;
+			springType = Arrays.copyOf(springType, n);
+			p1 = Arrays.copyOf(p1, n);
+			p2 = Arrays.copyOf(p2, n);
+		}
+		springType[springs] = (byte) t;
+		p1[springs] = i;
+		p2[springs] = j;
+		springs++;
+	}
+
+	/**
+	 * Adds an angular spring at particle j between particles i and k.
+	 */
+	void addAngularSpring(int t, int i, int j, int k) {
+		if (angularSprings == angularType.length) {
+			int n = 2 * angularSprings;
+			angularType = Arrays.copyOf(angularType, n);
+			a1 = Arrays.copyOf(a1, n);
+			a2 = Arrays.copyOf(a2, n);
+			a3 = Arrays.copyOf(a3, n);
+		}
+		angularType[angularSprings] = (byte) t;
+		a1[angularSprings] = i;
+		a2[angularSprings] = j;
+		a3[angularSprings] = k;
+		angularSprings++;
+	}
+
+	/**
+	 * Captures the initial state of a system, for instance one of the test
+	 * systems built in code. Particles are taken at their initial positions
+	 * and velocities, types are shared by particles and springs with the
+	 * same properties.
+	 * @param system
+	 * @return the scene
+	 * @throws IOException if a spring is not attached to particles of the
+	 *             system or is of an unknown type
+	 */
+	public static Scene capture(ParticleSystem system) throws IOException {
+		Scene scene = new Scene();
+		scene.parameters.putAll(ParticleSystem.getParameterValues(system.getParameters()));
+
+		List<Particle> particles = system.getParticles();
+		Map<String, Integer> types = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < particles.size(); i++) {
+			Particle p = particles.get(i);
+			byte kind = p instanceof BudParticle ? BUD_PARTICLE : p instanceof MotorParticle ? MOTOR_PARTICLE : PARTICLE;
+			byte flags = (byte) ((p.pinned ? PINNED : 0) | (p.collidable ? COLLIDABLE : 0) | (p.heavy ? HEAVY : 0));
+			String key = kind + " " + flags + " " + p.mass;
+			Integer t = types.get(key);
+			if (t == null) {
+				t = scene.addParticleType(kind, flags, p.mass);
+				types.put(key, t);
+			}
+			scene.addParticle(t, p.p0.x, p.p0.y, p.v0.x, p.v0.y);
+		}
+
+		types.clear();
+		List<Spring> springs = system.getSprings();
+		for (int i = 0; i < springs.size(); i++) {
+			Spring s = springs.get(i);
+			if (s instanceof LinearSpring) {
+				LinearSpring ls = (LinearSpring) s;
+				byte kind = s instanceof BudSpring ? BUD_SPRING : LINEAR;
+				String key = kind + " " + ls.k + " " + ls.b;
+				Integer t = types.get(key);
+				if (t == null) {
+					t = scene.addSpringType(kind, ls.k, ls.b);
+					types.put(key, t);
+				}
+				scene.addSpring(t, BinaryStream.indexOf(ls.p1, particles), BinaryStream.indexOf(ls.p2, particles));
+			} else if (s instanceof AngularSpring) {
+				AngularSpring as = (AngularSpring) s;
+				String key = ANGULAR + " " + as.k;
+				Integer t = types.get(key);
+				if (t == null) {
+					t = scene.addSpringType(ANGULAR, as.k, 0);
+					types.put(key, t);
+				}
+				scene.addAngularSpring(t, BinaryStream.indexOf(as.p1, particles), BinaryStream.indexOf(as.p2, particles),
+						BinaryStream.indexOf(as.p3, particles));
+			} else {
+				throw new IOException("cannot capture springs of type " + s.getClass().getName());
+			}
+		}
+
+		Bud bud = system.getBud();
+		scene.budRadius = bud.getaRadius();
+		scene.budYTranspose = bud.getYTranspose();
+		scene.budParticles = BinaryStream.indicesOf(bud.getParticles(), particles);
+		MotherCell cell = system.getMotherCell();
+		scene.cellRadius = cell.getaRadius();
+		scene.cellParticles = BinaryStream.indicesOf(cell.getOuterMembraneParticles(), particles);
+		scene.nucleusParticles = BinaryStream.indicesOf(system.getNucleus().getParticles(), particles);
+		return scene;
+	}
+
+	/**
+	 * Replaces the contents of a system with this scene, at time 0.
+	 * @param system
+	 */
+	public void build(ParticleSystem system) {
+		ArrayList<Particle> list = new ArrayList<Particle>(particles);
+		for (int i = 0; i < particles; i++) {
+			int t = type[i] & 0xff;
+			Particle p;
+			if (particleKind[t] == BUD_PARTICLE) p = new BudParticle(x[i], y[i], vx[i], vy[i]);
+			else if (particleKind[t] == MOTOR_PARTICLE) p = new MotorParticle(x[i], y[i], vx[i], vy[i]);
+			else p = new Particle(x[i], y[i], vx[i], vy[i]);
+			int flags = particleFlags[t];
+			p.pinned = (flags & PINNED) != 0;
+			p.collidable = (flags & COLLIDABLE) != 0;
+			p.heavy = (flags & HEAVY) != 0;
+			p.mass = particleMass[t];
+			list.add(p);
+		}
+
+		ArrayList<Spring> springList = new ArrayList<Spring>(springs + angularSprings);
+		for (int i = 0; i < springs; i++) {
+			int t = springType[i] & 0xff;
+			Particle q1 = list.get(p1[i]), q2 = list.get(p2[i]);
+			springList.add(springKind[t] == BUD_SPRING ? new BudSpring(q1, q2, springK[t], springB[t])
+					: new LinearSpring(q1, q2, springK[t], springB[t]));
+		}
+		for (int i = 0; i < angularSprings; i++) {
+			int t = angularType[i] & 0xff;
+			springList.add(new AngularSpring(list.get(a1[i]), list.get(a2[i]), list.get(a3[i]), springK[t]));
+		}
+
+		system.setParameterValues(parameters);
+
+		system.ungrab();
+		system.particles.clear();
+		system.particles.addAll(list);
+		system.springs.clear();
+		system.springs.addAll(springList);
+		system.updateSystem();
+		system.setTime(0, 0);
+
+		Bud bud = system.getBud();
+		bud.setaRadius(budRadius);
+		bud.setYTranspose(budYTranspose);
+		bud.setParticles(BinaryStream.particlesOf(budParticles, list));
+		MotherCell cell = system.getMotherCell();
+		cell.setRadius(cellRadius);
+		cell.setOuterMembraneParticles(BinaryStream.particlesOf(cellParticles, list));
+		system.getNucleus().setParticles(BinaryStream.particlesOf(nucleusParticles, list));
+	}
+
+	/**
+	 * Checks that the types and particles referred to exist.
+	 * @throws IOException
+	 */
+	void validate() throws IOException {
+		for (int i = 0; i < particles; i++) {
+			if ((type[i] & 0xff) >= particleTypes) throw new IOException("particle " + i + " has no type");
+		}
+		for (int i = 0; i < springTypes; i++) {
+			if (springKind[i] < LINEAR || springKind[i] > ANGULAR) throw new IOException("unknown spring kind " + springKind[i]);
+		}
+		for (int i = 0; i < particleTypes; i++) {
+			if (particleKind[i] < PARTICLE || particleKind[i] > MOTOR_PARTICLE) throw new IOException("unknown particle kind " + particleKind[i]);
+		}
+		for (int i = 0; i < springs; i++) {
+			int t = springType[i] & 0xff;
+			if (t >= springTypes || springKind[t] == ANGULAR) throw new IOException("spring " + i + " has no linear type");
+			checkIndex(p1[i]);
+			checkIndex(p2[i]);
+		}
+		for (int i = 0; i < angularSprings; i++) {
+			int t = angularType[i] & 0xff;
+			if (t >= springTypes || springKind[t] != ANGULAR) throw new IOException("angular spring " + i + " has no angular type");
+			checkIndex(a1[i]);
+			checkIndex(a2[i]);
+			checkIndex(a3[i]);
+		}
+		for (int i : budParticles) checkIndex(i);
+		for (int i : cellParticles) checkIndex(i);
+		for (int i : nucleusParticles) checkIndex(i);
+	}
+
+	private void checkIndex(int i) throws IOException {
+		if (i < 0 || i >= particles) throw new IOException("particle index " + i + " out of range");
+	}
+
+	/**
+	 * Reads a binary scene.
+	 * @param file
+	 * @return the scene
+	 * @throws IOException if the file cannot be read or is not a valid scene
+	 */
+	public static Scene read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return new Stream(in.getChannel(), false).read();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes this scene in binary form.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			Stream s = new Stream(out.getChannel(), true);
+			s.write(this);
+			s.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Loads a scene from a binary file, or from an XML description if the
+	 * name ends with .xml or .xml.gz
+	 * @param file
+	 * @return the scene
+	 * @throws IOException
+	 */
+	public static Scene load(File file) throws IOException {
+		if (SceneDescription.isDescription(file)) return SceneDescription.load(file);
+		return read(file);
+	}
+
+	/**
+	 * Saves this scene as binary, or as an XML description if the name ends
+	 * with .xml or .xml.gz
+	 * @param file
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException {
+		if (SceneDescription.isDescription(file)) SceneDescription.save(this, file);
+		else write(file);
+	}
+
+	/**
+	 * Binary reading and writing of scenes
+	 */
+	private static class Stream extends BinaryStream {
+
+		Stream(FileChannel channel, boolean writing) {
+			super(channel, writing, "scene");
+		}
+
+		void write(Scene s) throws IOException {
+			ensure(12);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(s.parameters.size());
+			for (Map.Entry<String, double[]> e : s.parameters.entrySet()) {
+				putString(e.getKey());
+				double[] v = e.getValue();
+				ensure(9);
+				buffer.putDouble(v[0]);
+				buffer.put((byte) (v.length > 1 ? (int) v[1] : -1));
+			}
+
+			ensure(4);
+			buffer.putInt(s.particleTypes);
+			for (int i = 0; i < s.particleTypes; i++) {
+				ensure(10);
+				buffer.put(s.particleKind[i]);
+				buffer.put(s.particleFlags[i]);
+				buffer.putDouble(s.particleMass[i]);
+			}
+			ensure(4);
+			buffer.putInt(s.springTypes);
+			for (int i = 0; i < s.springTypes; i++) {
+				ensure(17);
+				buffer.put(s.springKind[i]);
+				buffer.putDouble(s.springK[i]);
+				buffer.putDouble(s.springB[i]);
+			}
+
+			ensure(4);
+			buffer.putInt(s.particles);
+			putBytes(s.type, s.particles);
+			putDoubles(s.x, s.particles);
+			putDoubles(s.y, s.particles);
+			putDoubles(s.vx, s.particles);
+			putDoubles(s.vy, s.particles);
+
+			ensure(4);
+			buffer.putInt(s.springs);
+			putBytes(s.springType, s.springs);
+			putInts(s.p1, s.springs);
+			putInts(s.p2, s.springs);
+
+			ensure(4);
+			buffer.putInt(s.angularSprings);
+			putBytes(s.angularType, s.angularSprings);
+			putInts(s.a1, s.angularSprings);
+			putInts(s.a2, s.angularSprings);
+			putInts(s.a3, s.angularSprings);
+
+			ensure(20);
+			buffer.putDouble(s.budRadius);
+			buffer.putDouble(s.budYTranspose);
+			buffer.putInt(s.budParticles.length);
+			putInts(s.budParticles, s.budParticles.length);
+			ensure(12);
+			buffer.putDouble(s.cellRadius);
+			buffer.putInt(s.cellParticles.length);
+			putInts(s.cellParticles, s.cellParticles.length);
+			ensure(4);
+			buffer.putInt(s.nucleusParticles.length);
+			putInts(s.nucleusParticles, s.nucleusParticles.length);
+
+			ensure(4);
+			buffer.putInt(MAGIC);
+		}
+
+		Scene read() throws IOException {
+			ensure(12);
+			if (buffer.getInt() != MAGIC) throw new IOException("not a scene");
+			int version = buffer.getInt();
+			if (version < 1 || version > VERSION) throw new IOException("unsupported scene version " + version);
+
+			Scene s = new Scene();
+			int n = buffer.getInt();
+			for (int i = 0; i < n; i++) {
+				String name = getString();
+				ensure(version >= 3 ? 9 : 8);
+				double value = buffer.getDouble();
+				byte checked = version >= 3 ? buffer.get() : -1;
+				s.parameters.put(name, checked < 0 ? new double[] { value } : new double[] { value, checked });
+			}
+
+			s.particleTypes = getCount(MAX_TYPES);
+			for (int i = 0; i < s.particleTypes; i++) {
+				ensure(10);
+				s.particleKind[i] = buffer.get();
+				s.particleFlags[i] = buffer.get();
+				s.particleMass[i] = buffer.getDouble();
+			}
+			s.springTypes = getCount(MAX_TYPES);
+			for (int i = 0; i < s.springTypes; i++) {
+				ensure(17);
+				s.springKind[i] = buffer.get();
+				s.springK[i] = buffer.getDouble();
+				s.springB[i] = buffer.getDouble();
+			}
+
+			n = s.particles = getCount(Integer.MAX_VALUE);
+			s.type = getBytes(n);
+			s.x = getDoubles(n);
+			s.y = getDoubles(n);
+			s.vx = getDoubles(n);
+			s.vy = getDoubles(n);
+
+			n = s.springs = getCount(Integer.MAX_VALUE);
+			s.springType = getBytes(n);
+			s.p1 = getInts(n);
+			s.p2 = getInts(n);
+
+			n = s.angularSprings = getCount(Integer.MAX_VALUE);
+			s.angularType = getBytes(n);
+			s.a1 = getInts(n);
+			s.a2 = getInts(n);
+			s.a3 = getInts(n);
+
+			ensure(16);
+			s.budRadius = buffer.getDouble();
+			s.budYTranspose = buffer.getDouble();
+			s.budParticles = getInts(getCount(Integer.MAX_VALUE));
+			ensure(8);
+			s.cellRadius = buffer.getDouble();
+			s.cellParticles = getInts(getCount(Integer.MAX_VALUE));
+			if (version >= 2) s.nucleusParticles = getInts(getCount(Integer.MAX_VALUE));
+
+			ensure(4);
+			if (buffer.getInt() != MAGIC) throw new IOException("truncated scene");
+			s.validate();
+			return s;
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import tools.xml.InitializationException;
+import tools.xml.XMLException;
+import tools.xml.XMLHelper;
+import tools.xml.XMLMappable;
+import tools.xml.XMLStreamHelper;
+
+/**
+ * Reads and writes {@link Scene}s as XML, for authoring. Types are named and
+ * particles are referred to by their position in the file, from 0.
+ * <pre>
+ * &lt;scene&gt;
+ *   &lt;parameter name="stiffness" value="400"/&gt;
+ *   &lt;parameter name="gravity" value="9.8" checked="false"/&gt;
+ *   &lt;particleType name="membrane" kind="particle" mass="1" pinned="true"/&gt;
+ *   &lt;particleType name="motor" kind="motor" mass="15" heavy="true" collidable="false"/&gt;
+ *   &lt;springType name="chain" kind="linear" k="200000" b="10"/&gt;
+ *   &lt;particle type="membrane" x="100" y="200"/&gt;
+ *   &lt;particle type="motor" x="100" y="220" vx="0" vy="0"/&gt;
+ *   &lt;spring type="chain" p1="0" p2="1"/&gt;
+ *   &lt;bud radius="40" yTranspose="130" particles=""/&gt;
+ *   &lt;cell radius="102.5" particles="0"/&gt;
+ *   &lt;nucleus particles="1"/&gt;
+ * &lt;/scene&gt;
+ * </pre>
+ * Particle kinds are particle, bud and motor, spring kinds linear, bud and
+ * angular. An angular spring has a third particle p3 and uses k only. Types
+ * must be declared before they are used. Omitted attributes take the values
+ * of a new particle or system.
+ * <p>
+ * Files are streamed one element at a time, each element being loaded into
+ * a reused mappable object, so large scenes load in the memory of their
+ * arrays. Names ending with .gz are compressed.
+ */
+public class SceneDescription {
+
+	private static final String[] PARTICLE_KINDS = { "particle", "bud", "motor" };
+
+	private static final String[] SPRING_KINDS = { "linear", "bud", "angular" };
+
+	/**
+	 * @param file
+	 * @return whether the file is named as an XML description
+	 */
+	public static boolean isDescription(File file) {
+		String name = file.getName();
+		return name.endsWith(".xml") || name.endsWith(".xml.gz");
+	}
+
+	/**
+	 * Compiles an XML description to a binary scene.
+	 * @param description
+	 * @param scene
+	 * @throws IOException
+	 */
+	public static void compile(File description, File scene) throws IOException {
+		load(description).write(scene);
+	}
+
+	/**
+	 * Loads a scene from its XML description.
+	 * @param file
+	 * @return the scene
+	 * @throws IOException if the file cannot be read or is not a valid
+	 *             description
+	 */
+	public static Scene load(File file) throws IOException {
+		Scene scene = new Scene();
+		Map<String, Integer> particleTypes = new HashMap<String, Integer>();
+		Map<String, Integer> springTypes = new HashMap<String, Integer>();
+
+		ParameterValue parameter = new ParameterValue();
+		ParticleType particleType = new ParticleType();
+		SpringType springType = new SpringType();
+		ParticleElement particle = new ParticleElement();
+		SpringElement spring = new SpringElement();
+		Membrane membrane = new Membrane();
+
+		InputStream in = XMLStreamHelper.openInput(file);
+		try {
+			XMLStreamReader reader = XMLStreamHelper.openReader(in);
+			Document scratch = XMLHelper.createDOMInMemory();
+			if (!XMLStreamHelper.nextElement(reader, null) || !reader.getLocalName().equals("scene")) {
+				throw new XMLException("missing scene element");
+			}
+			while (XMLStreamHelper.nextElement(reader, null)) {
+				String name = reader.getLocalName();
+				if (name.equals("particle")) {
+					XMLStreamHelper.load(particle, reader, scratch);
+					scene.addParticle(type(particleTypes, particle.type), particle.x, particle.y, particle.vx,
+							particle.vy);
+				} else if (name.equals("spring")) {
+					XMLStreamHelper.load(spring, reader, scratch);
+					int t = type(springTypes, spring.type);
+					if (scene.springKind[t] == Scene.ANGULAR) {
+						if (spring.p3 < 0) throw new XMLException("angular spring without p3");
+						scene.addAngularSpring(t, spring.p1, spring.p2, spring.p3);
+					} else {
+						scene.addSpring(t, spring.p1, spring.p2);
+					}
+				} else if (name.equals("particleType")) {
+					XMLStreamHelper.load(particleType, reader, scratch);
+					particleTypes.put(particleType.name, scene.addParticleType(particleType.kind,
+							particleType.flags, particleType.mass));
+				} else if (name.equals("springType")) {
+					XMLStreamHelper.load(springType, reader, scratch);
+					springTypes.put(springType.name, scene.addSpringType(springType.kind, springType.k,
+							springType.b));
+				} else if (name.equals("parameter")) {
+					XMLStreamHelper.load(parameter, reader, scratch);
+					scene.parameters.put(parameter.name, parameter.checked < 0 ? new double[] { parameter.value }
+							: new double[] { parameter.value, parameter.checked });
+				} else if (name.equals("bud")) {
+					membrane.radius = scene.budRadius;
+					membrane.yTranspose = scene.budYTranspose;
+					XMLStreamHelper.load(membrane, reader, scratch);
+					scene.budRadius = membrane.radius;
+					scene.budYTranspose = membrane.yTranspose;
+					scene.budParticles = membrane.particles;
+				} else if (name.equals("cell")) {
+					membrane.radius = scene.cellRadius;
+					XMLStreamHelper.load(membrane, reader, scratch);
+					scene.cellRadius = membrane.radius;
+					scene.cellParticles = membrane.particles;
+				} else if (name.equals("nucleus")) {
+					membrane.radius = Double.NaN;
+					XMLStreamHelper.load(membrane, reader, scratch);
+					scene.nucleusParticles = membrane.particles;
+				} else {
+					throw new XMLException("unknown scene element " + name);
+				}
+			}
+			reader.close();
+		} catch (XMLException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} catch (InitializationException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} catch (IllegalStateException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} finally {
+			in.close();
+		}
+		scene.validate();
+		return scene;
+	}
+
+	private static int type(Map<String, Integer> types, String name) throws XMLException {
+		Integer t = types.get(name);
+		if (t == null) throw new XMLException("undeclared type " + name);
+		return t;
+	}
+
+	/**
+	 * Saves a scene as an XML description.
+	 * @param scene
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void save(Scene scene, File file) throws IOException {
+		ParameterValue parameter = new ParameterValue();
+		ParticleType particleType = new ParticleType();
+		SpringType springType = new SpringType();
+		ParticleElement particle = new ParticleElement();
+		SpringElement spring = new SpringElement();
+		Membrane membrane = new Membrane();
+
+		String[] particleTypes = new String[scene.particleTypes];
+		String[] springTypes = new String[scene.springTypes];
+
+		OutputStream out = XMLStreamHelper.openOutput(file);
+		try {
+			XMLStreamWriter writer = XMLStreamHelper.openWriter(out);
+			Document scratch = XMLHelper.createDOMInMemory();
+			writer.writeCharacters("\n");
+			writer.writeStartElement("scene");
+
+			for (Map.Entry<String, double[]> e : scene.parameters.entrySet()) {
+				parameter.name = e.getKey();
+				parameter.value = e.getValue()[0];
+				parameter.checked = e.getValue().length > 1 ? (int) e.getValue()[1] : -1;
+				export(writer, "parameter", parameter, scratch);
+			}
+			for (int i = 0; i < scene.particleTypes; i++) {
+				particleType.name = particleTypes[i] = PARTICLE_KINDS[scene.particleKind[i]] + i;
+				particleType.kind = scene.particleKind[i];
+				particleType.flags = scene.particleFlags[i];
+				particleType.mass = scene.particleMass[i];
+				export(writer, "particleType", particleType, scratch);
+			}
+			for (int i = 0; i < scene.springTypes; i++) {
+				springType.name = springTypes[i] = SPRING_KINDS[scene.springKind[i]] + i;
+				springType.kind = scene.springKind[i];
+				springType.k = scene.springK[i];
+				springType.b = scene.springB[i];
+				export(writer, "springType", springType, scratch);
+			}
+			for (int i = 0; i < scene.particles; i++) {
+				particle.type = particleTypes[scene.type[i] & 0xff];
+				particle.x = scene.x[i];
+				particle.y = scene.y[i];
+				particle.vx = scene.vx[i];
+				particle.vy = scene.vy[i];
+				export(writer, "particle", particle, scratch);
+			}
+			for (int i = 0; i < scene.springs; i++) {
+				spring.type = springTypes[scene.springType[i] & 0xff];
+				spring.p1 = scene.p1[i];
+				spring.p2 = scene.p2[i];
+				spring.p3 = -1;
+				export(writer, "spring", spring, scratch);
+			}
+			for (int i = 0; i < scene.angularSprings; i++) {
+				spring.type = springTypes[scene.angularType[i] & 0xff];
+				spring.p1 = scene.a1[i];
+				spring.p2 = scene.a2[i];
+				spring.p3 = scene.a3[i];
+				export(writer, "spring", spring, scratch);
+			}
+			membrane.radius = scene.budRadius;
+			membrane.yTranspose = scene.budYTranspose;
+			membrane.particles = scene.budParticles;
+			export(writer, "bud", membrane, scratch);
+			membrane.radius = scene.cellRadius;
+			membrane.yTranspose = Double.NaN;
+			membrane.particles = scene.cellParticles;
+			export(writer, "cell", membrane, scratch);
+			membrane.radius = Double.NaN;
+			membrane.particles = scene.nucleusParticles;
+			export(writer, "nucleus", membrane, scratch);
+
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new IOException(file + ": " + e.getMessage(), e);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void export(XMLStreamWriter writer, String name, XMLMappable object, Document scratch)
+			throws XMLException, XMLStreamException {
+		writer.writeCharacters("\n\t");
+		XMLStreamHelper.export(writer, name, object, scratch);
+	}
+
+	private static byte kind(String[] kinds, String kind) throws XMLException {
+		for (int i = 0; i < kinds.length; i++) {
+			if (kinds[i].equals(kind)) return (byte) i;
+		}
+		throw new XMLException("unknown kind " + kind);
+	}
+
+	/**
+	 * A parameter value, matched by name, and whether the parameter is
+	 * checked
+	 */
+	public static class ParameterValue implements XMLMappable {
+
+		public String name;
+
+		public double value;
+
+		/**
+		 * 1 if checked, 0 if not, -1 to leave it as is
+		 */
+		public int checked = -1;
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			name = XMLHelper.getStringAttribute(e, "name", getClass());
+			value = XMLHelper.getDoubleAttribute(e, "value", getClass());
+			checked = !e.hasAttribute("checked") ? -1 : XMLHelper.getBooleanAttribute(e, "checked", false) ? 1 : 0;
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			e.setAttribute("name", name);
+			XMLHelper.exportAttribute(e, "value", value);
+			if (checked >= 0) XMLHelper.exportAttribute(e, "checked", checked != 0);
+		}
+	}
+
+	/**
+	 * A named particle type
+	 */
+	public static class ParticleType implements XMLMappable {
+
+		public String name;
+
+		public byte kind;
+
+		public byte flags;
+
+		public double mass;
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			name = XMLHelper.getStringAttribute(e, "name", getClass());
+			kind = kind(PARTICLE_KINDS, XMLHelper.getStringAttribute(e, "kind", PARTICLE_KINDS[0]));
+			mass = XMLHelper.getDoubleAttribute(e, "mass", Particle.MassNormal);
+			flags = 0;
+			if (XMLHelper.getBooleanAttribute(e, "pinned", false)) flags |= Scene.PINNED;
+			if (XMLHelper.getBooleanAttribute(e, "collidable", true)) flags |= Scene.COLLIDABLE;
+			if (XMLHelper.getBooleanAttribute(e, "heavy", false)) flags |= Scene.HEAVY;
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			e.setAttribute("name", name);
+			e.setAttribute("kind", PARTICLE_KINDS[kind]);
+			XMLHelper.exportAttribute(e, "mass", mass);
+			XMLHelper.exportAttribute(e, "pinned", (flags & Scene.PINNED) != 0);
+			XMLHelper.exportAttribute(e, "collidable", (flags & Scene.COLLIDABLE) != 0);
+			XMLHelper.exportAttribute(e, "heavy", (flags & Scene.HEAVY) != 0);
+		}
+	}
+
+	/**
+	 * A named spring type
+	 */
+	public static class SpringType implements XMLMappable {
+
+		public String name;
+
+		public byte kind;
+
+		public double k;
+
+		public double b;
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			name = XMLHelper.getStringAttribute(e, "name", getClass());
+			kind = kind(SPRING_KINDS, XMLHelper.getStringAttribute(e, "kind", SPRING_KINDS[0]));
+			k = XMLHelper.getDoubleAttribute(e, "k", getClass());
+			b = XMLHelper.getDoubleAttribute(e, "b", 0);
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			e.setAttribute("name", name);
+			e.setAttribute("kind", SPRING_KINDS[kind]);
+			XMLHelper.exportAttribute(e, "k", k);
+			if (kind != Scene.ANGULAR) XMLHelper.exportAttribute(e, "b", b);
+		}
+	}
+
+	/**
+	 * A particle, at its initial position and velocity
+	 */
+	public static class ParticleElement implements XMLMappable {
+
+		public String type;
+
+		public double x, y, vx, vy;
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			type = XMLHelper.getStringAttribute(e, "type", getClass());
+			x = XMLHelper.getDoubleAttribute(e, "x", getClass());
+			y = XMLHelper.getDoubleAttribute(e, "y", getClass());
+			vx = XMLHelper.getDoubleAttribute(e, "vx", 0);
+			vy = XMLHelper.getDoubleAttribute(e, "vy", 0);
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			e.setAttribute("type", type);
+			XMLHelper.exportAttribute(e, "x", x);
+			XMLHelper.exportAttribute(e, "y", y);
+			if (vx != 0 || vy != 0) {
+				XMLHelper.exportAttribute(e, "vx", vx);
+				XMLHelper.exportAttribute(e, "vy", vy);
+			}
+		}
+	}
+
+	/**
+	 * A spring between particles p1 and p2, or an angular spring at p2
+	 * between p1 and p3
+	 */
+	public static class SpringElement implements XMLMappable {
+
+		public String type;
+
+		public int p1, p2, p3 = -1;
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			type = XMLHelper.getStringAttribute(e, "type", getClass());
+			p1 = XMLHelper.getIntAttribute(e, "p1", getClass());
+			p2 = XMLHelper.getIntAttribute(e, "p2", getClass());
+			p3 = XMLHelper.getIntAttribute(e, "p3", -1);
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			e.setAttribute("type", type);
+			XMLHelper.exportAttribute(e, "p1", p1);
+			XMLHelper.exportAttribute(e, "p2", p2);
+			if (p3 >= 0) XMLHelper.exportAttribute(e, "p3", p3);
+		}
+	}
+
+	/**
+	 * The bud, the mother cell or the nucleus: its radius and the indices of
+	 * its membrane particles. Attributes that are absent keep their value.
+	 * The nucleus has no radius.
+	 */
+	public static class Membrane implements XMLMappable {
+
+		/**
+		 * NaN for the nucleus
+		 */
+		public double radius;
+
+		/**
+		 * NaN for the mother cell
+		 */
+		public double yTranspose = Double.NaN;
+
+		public int[] particles = new int[0];
+
+		public void loadFromXML(Node dataNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(dataNode, getClass());
+			radius = XMLHelper.getDoubleAttribute(e, "radius", radius);
+			yTranspose = XMLHelper.getDoubleAttribute(e, "yTranspose", yTranspose);
+			StringTokenizer tokenizer = new StringTokenizer(XMLHelper.getStringAttribute(e, "particles", ""));
+			particles = new int[tokenizer.countTokens()];
+			try {
+				for (int i = 0; i < particles.length; i++) {
+					particles[i] = Integer.parseInt(tokenizer.nextToken());
+				}
+			} catch (NumberFormatException nfe) {
+				throw new XMLException("invalid particle index", nfe);
+			}
+		}
+
+		public void exportAsXML(Node exportNode) throws XMLException {
+			Element e = XMLHelper.verifyNodeAsElement(exportNode, getClass());
+			if (!Double.isNaN(radius)) XMLHelper.exportAttribute(e, "radius", radius);
+			if (!Double.isNaN(yTranspose)) XMLHelper.exportAttribute(e, "yTranspose", yTranspose);
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < particles.length; i++) {
+				if (i > 0) sb.append(' ');
+				sb.append(particles[i]);
+			}
+			e.setAttribute("particles", sb.toString());
+		}
+	}
+}
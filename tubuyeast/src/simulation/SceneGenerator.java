@@ -0,0 +1,284 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates budding cells like the complete cell test system at a chosen
+ * resolution and cell count, for scaling studies. Each cell has a pinned
+ * mother membrane, a pinned bud membrane on top of it, a free nucleus and two
+ * microtubule chains: one from the bud to the nucleus, pulled by a motor
+ * particle, and one from the nucleus to the mother membrane. Cells are laid
+ * out on a grid. The membranes of the first cell are those of the mother
+ * cell, nucleus and bud of the system.
+ * <p>
+ * Membranes are double rings of particles braced by springs, as in
+ * {@link ParticleSimulationApp}. The number of particles of a ring follows
+ * from its circumference and the resolution.
+ */
+public class SceneGenerator {
+
+	/**
+	 * Distance between consecutive particles of a membrane or chain.
+	 */
+	public double resolution = 10;
+
+	/**
+	 * Gap between neighboring cells.
+	 */
+	public double spacing = 40;
+
+	/**
+	 * Number of cells.
+	 */
+	public int cells = 1;
+
+	/**
+	 * Inner radius of the mother, bud and nucleus membranes.
+	 */
+	public double motherRadius = 205, budRadius = 80, nucleusRadius = 80;
+
+	/**
+	 * Distance between the inner and outer ring of a membrane.
+	 */
+	public double thickness = 20;
+
+	/**
+	 * Stiffness of the chain pulled by the motor particle.
+	 */
+	public double chainStiffness = 200000;
+
+	/**
+	 * Center of the first cell.
+	 */
+	public double x0 = 400, y0 = 500;
+
+	/**
+	 * Rings of the cell being generated, inner ring first.
+	 */
+	private Particle[] inner, outer;
+
+	/**
+	 * @return the number of particles of a ring with this radius.
+	 */
+	private int ringSize(double radius) {
+		return Math.max(8, (int) Math.ceil(2 * Math.PI * (radius + thickness) / resolution));
+	}
+
+	/**
+	 * @return the number of particles of a chain over this distance.
+	 */
+	private int chainSize(double distance) {
+		return Math.max(2, (int) Math.round(distance / resolution));
+	}
+
+	/**
+	 * Distance from the top of the nucleus to the bottom of the bud.
+	 */
+	private double upperChainLength() {
+		return motherRadius - 60 - nucleusRadius + thickness + resolution;
+	}
+
+	/**
+	 * Distance from the bottom of the nucleus to the mother membrane.
+	 */
+	private double lowerChainLength() {
+		return motherRadius - (nucleusRadius + thickness - 60);
+	}
+
+	/**
+	 * @return the number of particles of one cell.
+	 */
+	public int getParticlesPerCell() {
+		return 2 * ringSize(motherRadius) + 2 * ringSize(budRadius) + 2 * ringSize(nucleusRadius)
+				+ chainSize(upperChainLength()) + chainSize(lowerChainLength()) - 1;
+	}
+
+	/**
+	 * @return the number of springs of one cell.
+	 */
+	public int getSpringsPerCell() {
+		return 5 * (ringSize(motherRadius) + ringSize(budRadius) + ringSize(nucleusRadius)) + 4
+				+ chainSize(upperChainLength()) + chainSize(lowerChainLength());
+	}
+
+	/**
+	 * Sets the number of cells so that the scene has about this many
+	 * particles.
+	 * @param particles
+	 */
+	public void setParticleCount(int particles) {
+		cells = Math.max(1, (int) Math.round(particles / (double) getParticlesPerCell()));
+	}
+
+	/**
+	 * Adds the cells to the system and updates it.
+	 * @param system
+	 */
+	public void generate(ParticleSystem system) {
+		ArrayList<Particle> particles = system.particles;
+		List<Spring> springs = system.getSprings();
+		double k = system.getK();
+		double b = system.getB();
+
+		particles.ensureCapacity(particles.size() + cells * getParticlesPerCell());
+		if (springs instanceof ArrayList) {
+			((ArrayList<Spring>) springs).ensureCapacity(springs.size() + cells * getSpringsPerCell());
+		}
+
+		double width = 2 * (motherRadius + thickness) + spacing;
+		double height = 2 * (motherRadius + thickness) + 2 * (budRadius + thickness) + resolution + spacing;
+		int columns = (int) Math.ceil(Math.sqrt(cells));
+
+		for (int c = 0; c < cells; c++) {
+			double cx = x0 + (c % columns) * width;
+			double cy = y0 + (c / columns) * height;
+
+			// Mother membrane
+			ring(particles, springs, cx, cy, motherRadius, k, b, true, false);
+			Particle[] motherInner = inner, motherOuter = outer;
+
+			// Bud membrane, touching the top of the mother
+			double by = cy - (motherRadius + thickness) - resolution - (budRadius + thickness);
+			ring(particles, springs, cx, by, budRadius, k, b, true, true);
+			Particle[] budInner = inner, budOuter = outer;
+
+			// Neck between the two
+			int top = 3 * motherOuter.length / 4;
+			int bottom = budOuter.length / 4;
+			springs.add(new BudSpring(motherOuter[top], budOuter[bottom], k, b));
+			springs.add(new BudSpring(motherOuter[top], budInner[bottom], k, b));
+			springs.add(new BudSpring(motherOuter[top - 1], budOuter[bottom + 1], k, b));
+			springs.add(new BudSpring(motherOuter[top + 1], budOuter[bottom - 1], k, b));
+
+			// Nucleus
+			ring(particles, springs, cx, cy - 60, nucleusRadius, k, b, false, false);
+			Particle[] nucleusInner = inner, nucleusOuter = outer;
+
+			// Chain from the bud to the top of the nucleus, pulled by a motor
+			Particle last = budInner[budInner.length / 4];
+			Particle nucleusTop = nucleusOuter[3 * nucleusOuter.length / 4];
+			int n = chainSize(upperChainLength());
+			double step = (nucleusTop.p.y - last.p.y) / (n + 1);
+			for (int i = 0; i < n; i++) {
+				Particle p;
+				if (i == 0) {
+					p = new MotorParticle(cx, last.p.y + step, 0, 0);
+					p.heavy = true;
+				}
+				else {
+					p = new Particle(cx, last.p.y + step, 0, 0);
+					LinearSpring s = new LinearSpring(last, p, chainStiffness, b);
+					s.setB(1);
+					springs.add(s);
+				}
+
+				// Don't collide the chain
+				p.collidable = false;
+				particles.add(p);
+				last = p;
+			}
+			springs.add(new LinearSpring(last, nucleusTop, k, b));
+
+			// Chain from the bottom of the nucleus to the mother membrane
+			last = nucleusOuter[nucleusOuter.length / 4];
+			Particle anchor = motherInner[motherInner.length / 4];
+			n = chainSize(lowerChainLength());
+			step = (anchor.p.y - last.p.y) / n;
+			for (int i = 0; i < n - 1; i++) {
+				Particle p = new Particle(cx, last.p.y + step, 0, 0);
+				particles.add(p);
+				springs.add(new LinearSpring(last, p, k / 10.0, b));
+				last = p;
+			}
+			springs.add(new LinearSpring(last, anchor, k / 10.0, b));
+
+			if (c == 0) {
+				system.getMotherCell().setInnerMembraneParticles(asList(motherInner));
+				system.getMotherCell().setOuterMembraneParticles(asList(motherOuter));
+
+				// Inner ring then outer ring, as in the test systems
+				List<Particle> nucleus = asList(nucleusInner);
+				nucleus.addAll(asList(nucleusOuter));
+				system.getNucleus().setParticles(nucleus);
+				List<Particle> bud = asList(budInner);
+				bud.addAll(asList(budOuter));
+				system.getBud().setParticles(bud);
+			}
+		}
+
+		system.updateSystem();
+	}
+
+	/**
+	 * Creates a membrane: an inner and an outer ring with the same number of
+	 * particles, braced by springs. The rings are left in {@link #inner} and
+	 * {@link #outer}, starting on the right and going down first.
+	 */
+	private void ring(ArrayList<Particle> particles, List<Spring> springs, double cx, double cy,
+			double radius, double k, double b, boolean pinned, boolean bud) {
+		int n = ringSize(radius);
+		inner = new Particle[n];
+		outer = new Particle[n];
+
+		double angle = 2 * Math.PI / n;
+		for (int i = 0; i < n; i++) {
+			double cos = Math.cos(i * angle);
+			double sin = Math.sin(i * angle);
+			double ro = radius + thickness;
+
+			if (bud) {
+				inner[i] = new BudParticle(cx + radius * cos, cy + radius * sin, 0, 0);
+				outer[i] = new BudParticle(cx + ro * cos, cy + ro * sin, 0, 0);
+			}
+			else {
+				inner[i] = new Particle(cx + radius * cos, cy + radius * sin, 0, 0);
+				outer[i] = new Particle(cx + ro * cos, cy + ro * sin, 0, 0);
+			}
+			inner[i].pinned = pinned;
+			outer[i].pinned = pinned;
+		}
+
+		for (int i = 0; i < n; i++) {
+			int j = (i + 1) % n;
+			springs.add(spring(outer[i], inner[i], k, b, bud));
+			springs.add(spring(outer[i], outer[j], k, b, bud));
+			springs.add(spring(inner[i], inner[j], k, b, bud));
+			springs.add(spring(outer[i], inner[j], k, b, bud));
+			springs.add(spring(outer[j], inner[i], k, b, bud));
+		}
+
+		for (int i = 0; i < n; i++) particles.add(inner[i]);
+		for (int i = 0; i < n; i++) particles.add(outer[i]);
+	}
+
+	private static LinearSpring spring(Particle p1, Particle p2, double k, double b, boolean bud) {
+		return bud ? new BudSpring(p1, p2, k, b) : new LinearSpring(p1, p2, k, b);
+	}
+
+	private static List<Particle> asList(Particle[] ring) {
+		List<Particle> list = new ArrayList<Particle>(ring.length);
+		for (Particle p : ring) list.add(p);
+		return list;
+	}
+
+	/**
+	 * Times the generation of a scene
+	 * @param args the number of particles, one million by default
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		SceneGenerator generator = new SceneGenerator();
+		generator.setParticleCount(n);
+
+		long t0 = System.nanoTime();
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		generator.generate(system);
+		long t1 = System.nanoTime();
+
+		System.out.println(generator.cells + " cells, " + system.getParticles().size() + " particles, "
+				+ system.getSprings().size() + " springs in " + (t1 - t0) / 1000000 + " ms");
+	}
+}
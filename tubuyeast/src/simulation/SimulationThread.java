@@ -0,0 +1,102 @@
+package simulation;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Steps a particle system on its own thread and publishes snapshots of it
+ * for display, so that a slow frame does not hold back the simulation and
+ * the other way around.
+ * <p>
+ * Snapshots are triple buffered: the simulation fills its back snapshot and
+ * swaps it with the ready one, and the display swaps its front snapshot with
+ * the ready one when that is newer. Neither side waits for the other and a
+ * snapshot is never written while it is drawn.
+ * <p>
+ * The system is locked while a frame is advanced and packed. Code on other
+ * threads that changes the system, such as input handlers, should hold the
+ * same lock: <code>synchronized (system)</code>.
+ */
+public class SimulationThread extends Thread {
+
+	/**
+	 * Advances the system by a frame, if it should.
+	 */
+	public interface Stepper {
+
+		/**
+		 * @return whether the system was stepped
+		 */
+		boolean advance();
+	}
+
+	/**
+	 * Time between snapshots while the system is not stepped, in milliseconds
+	 */
+	private static final long IDLE_MS = 10;
+
+	private final ParticleSystem system;
+	private final Stepper stepper;
+
+	private SystemSnapshot back = new SystemSnapshot();
+	private final AtomicReference<SystemSnapshot> ready = new AtomicReference<SystemSnapshot>(new SystemSnapshot());
+	private SystemSnapshot front = new SystemSnapshot();
+
+	private long sequence = 0;
+	private volatile boolean done = false;
+
+	/**
+	 * @param system
+	 * @param stepper called in a loop to advance the system
+	 */
+	public SimulationThread(ParticleSystem system, Stepper stepper) {
+		super("simulation");
+		this.system = system;
+		this.stepper = stepper;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		while (!done) {
+			boolean stepped;
+			synchronized (system) {
+				stepped = stepper.advance();
+				system.pack(back);
+			}
+			back.sequence = ++sequence;
+			back = ready.getAndSet(back);
+
+			if (!stepped) {
+				try {
+					Thread.sleep(IDLE_MS);
+				} catch (InterruptedException e) {
+					// check whether we are done
+				}
+			}
+		}
+	}
+
+	/**
+	 * To be called from the display thread only.
+	 * @return the latest snapshot, which stays unchanged until the next call
+	 */
+	public SystemSnapshot getSnapshot() {
+		if (ready.get().sequence > front.sequence) {
+			front = ready.getAndSet(front);
+		}
+		return front;
+	}
+
+	/**
+	 * Stops the thread after the current frame and waits for it.
+	 */
+	public void finish() {
+		done = true;
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
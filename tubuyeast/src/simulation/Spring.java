@@ -48,6 +48,17 @@ public interface Spring {
      */
     public double getB();
 
+	/**
+	 * @return the position of this spring in the system's spring list.
+	 */
+	public int getIndex();
+
+	/**
+	 * Set the position of this spring in the system's spring list.
+	 * @param index
+	 */
+	public void setIndex(int index);
+
 	/**
 	 * Display this spring.
 	 * @param drawable
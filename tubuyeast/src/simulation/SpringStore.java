@@ -0,0 +1,657 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.media.opengl.GLAutoDrawable;
+import javax.vecmath.Point2d;
+
+import no.uib.cipr.matrix.Matrix;
+import tools.computations.CollisionTools;
+import tools.gl.VertexBatch;
+
+/**
+ * Packed storage of the springs of a particle system. Springs are grouped by
+ * type and their endpoints and constants are kept in parallel arrays, so that
+ * the passes over all springs (forces, stiffness matrix, collisions, display)
+ * are tight loops instead of virtual calls on a list of objects.
+ * <p>
+ * The spring objects remain the public handles: setting their constants
+ * writes through to the arrays. Spring types the store does not know about are
+ * kept as objects and called through the {@link Spring} interface.
+ */
+public class SpringStore implements IndexRemapListener {
+
+	/**
+	 * Springs acting along the line between two particles.
+	 */
+	static class LinearBuffer {
+
+		int size = 0;
+
+		LinearSpring[] springs = new LinearSpring[0];
+
+		/**
+		 * Particle indices of the endpoints.
+		 */
+		int[] i1 = new int[0], i2 = new int[0];
+
+		/**
+		 * Stiffness, damping and rest length.
+		 */
+		double[] k = new double[0], b = new double[0], l0 = new double[0];
+
+		/**
+		 * Length and unit direction from p1 to p2, computed by
+		 * {@link SpringStore#apply()} and reused by
+		 * {@link SpringStore#gradient(Matrix, Matrix)}.
+		 */
+		double[] len = new double[0], ux = new double[0], uy = new double[0];
+
+		void ensureCapacity(int capacity) {
+			if (capacity <= springs.length) return;
+			springs = Arrays.copyOf(springs, capacity);
+			i1 = Arrays.copyOf(i1, capacity);
+			i2 = Arrays.copyOf(i2, capacity);
+			k = Arrays.copyOf(k, capacity);
+			b = Arrays.copyOf(b, capacity);
+			l0 = Arrays.copyOf(l0, capacity);
+			len = Arrays.copyOf(len, capacity);
+			ux = Arrays.copyOf(ux, capacity);
+			uy = Arrays.copyOf(uy, capacity);
+		}
+
+		void add(LinearSpring s) {
+			if (size == springs.length) ensureCapacity(Math.max(16, 2 * size));
+
+			springs[size] = s;
+			i1[size] = s.p1.index;
+			i2[size] = s.p2.index;
+			k[size] = s.getK();
+			b[size] = s.getB();
+			l0[size] = s.l0;
+			s.buffer = this;
+			s.slot = size;
+			size++;
+		}
+
+		/**
+		 * Removes the spring in this slot. The last spring takes its place.
+		 */
+		void remove(int slot) {
+			springs[slot].buffer = null;
+
+			int last = --size;
+			if (slot != last) {
+				springs[slot] = springs[last];
+				i1[slot] = i1[last];
+				i2[slot] = i2[last];
+				k[slot] = k[last];
+				b[slot] = b[last];
+				l0[slot] = l0[last];
+				len[slot] = len[last];
+				ux[slot] = ux[last];
+				uy[slot] = uy[last];
+				springs[slot].slot = slot;
+			}
+			springs[last] = null;
+		}
+
+		void reindex() {
+			for (int s = 0; s < size; s++) {
+				i1[s] = springs[s].p1.index;
+				i2[s] = springs[s].p2.index;
+			}
+		}
+
+		void clear() {
+			for (int s = 0; s < size; s++) {
+				springs[s].buffer = null;
+			}
+			Arrays.fill(springs, 0, size, null);
+			size = 0;
+		}
+	}
+
+	/**
+	 * Springs acting on the angle formed by three particles.
+	 */
+	static class AngularBuffer {
+
+		int size = 0;
+
+		AngularSpring[] springs = new AngularSpring[0];
+
+		int[] i1 = new int[0], i2 = new int[0], i3 = new int[0];
+
+		double[] k = new double[0], theta0 = new double[0];
+
+		void ensureCapacity(int capacity) {
+			if (capacity <= springs.length) return;
+			springs = Arrays.copyOf(springs, capacity);
+			i1 = Arrays.copyOf(i1, capacity);
+			i2 = Arrays.copyOf(i2, capacity);
+			i3 = Arrays.copyOf(i3, capacity);
+			k = Arrays.copyOf(k, capacity);
+			theta0 = Arrays.copyOf(theta0, capacity);
+		}
+
+		void add(AngularSpring s) {
+			if (size == springs.length) ensureCapacity(Math.max(16, 2 * size));
+
+			springs[size] = s;
+			i1[size] = s.p1.index;
+			i2[size] = s.p2.index;
+			i3[size] = s.p3.index;
+			k[size] = s.k;
+			theta0[size] = s.theta0;
+			s.buffer = this;
+			s.slot = size;
+			size++;
+		}
+
+		void remove(int slot) {
+			springs[slot].buffer = null;
+
+			int last = --size;
+			if (slot != last) {
+				springs[slot] = springs[last];
+				i1[slot] = i1[last];
+				i2[slot] = i2[last];
+				i3[slot] = i3[last];
+				k[slot] = k[last];
+				theta0[slot] = theta0[last];
+				springs[slot].slot = slot;
+			}
+			springs[last] = null;
+		}
+
+		void reindex() {
+			for (int s = 0; s < size; s++) {
+				i1[s] = springs[s].p1.index;
+				i2[s] = springs[s].p2.index;
+				i3[s] = springs[s].p3.index;
+			}
+		}
+
+		void clear() {
+			for (int s = 0; s < size; s++) {
+				springs[s].buffer = null;
+			}
+			Arrays.fill(springs, 0, size, null);
+			size = 0;
+		}
+	}
+
+	private List<Particle> particles;
+
+	private LinearBuffer linear = new LinearBuffer();
+
+	private LinearBuffer bud = new LinearBuffer();
+
+	private AngularBuffer angular = new AngularBuffer();
+
+	/**
+	 * Springs of unknown types.
+	 */
+	private ArrayList<Spring> others = new ArrayList<Spring>();
+
+	/**
+	 * Springs tested by {@link #intersect(Particle, double)} since the last
+	 * call to {@link #takeIntersectionTests()}.
+	 */
+	private long intersectionTests = 0;
+
+	/**
+	 * Creates an empty store for springs between these particles. The
+	 * particle indices are used to look up the endpoints.
+	 *
+	 * @param particles
+	 */
+	public SpringStore(List<Particle> particles) {
+		this.particles = particles;
+	}
+
+	/**
+	 * Adds a spring to its group.
+	 *
+	 * @param s
+	 */
+	public void add(Spring s) {
+		if (s instanceof BudSpring) {
+			bud.add((LinearSpring) s);
+		}
+		else if (s instanceof LinearSpring) {
+			linear.add((LinearSpring) s);
+		}
+		else if (s instanceof AngularSpring) {
+			angular.add((AngularSpring) s);
+		}
+		else {
+			others.add(s);
+		}
+	}
+
+	/**
+	 * Removes a spring. Known spring types are removed in constant time.
+	 *
+	 * @param s
+	 */
+	public void remove(Spring s) {
+		if (s instanceof LinearSpring) {
+			LinearSpring ls = (LinearSpring) s;
+			if (ls.buffer != null) ls.buffer.remove(ls.slot);
+		}
+		else if (s instanceof AngularSpring) {
+			AngularSpring as = (AngularSpring) s;
+			if (as.buffer != null) as.buffer.remove(as.slot);
+		}
+		else {
+			others.remove(s);
+		}
+	}
+
+	/**
+	 * @param s
+	 * @return the position of a spring among the springs of its type, which
+	 *         is the order their forces are summed in
+	 */
+	public int getSlot(Spring s) {
+		if (s instanceof LinearSpring) {
+			LinearSpring ls = (LinearSpring) s;
+			return ls.buffer != null ? ls.slot : -1;
+		}
+		else if (s instanceof AngularSpring) {
+			AngularSpring as = (AngularSpring) s;
+			return as.buffer != null ? as.slot : -1;
+		}
+		return others.indexOf(s);
+	}
+
+	/**
+	 * Clears the store and adds all these springs. The buffers are sized
+	 * once, large systems are rebuilt when they are loaded.
+	 *
+	 * @param springs
+	 */
+	public void rebuild(List<Spring> springs) {
+		linear.clear();
+		bud.clear();
+		angular.clear();
+		others.clear();
+
+		int linearCount = 0, budCount = 0, angularCount = 0;
+		for (Spring s : springs) {
+			if (s instanceof BudSpring) budCount++;
+			else if (s instanceof LinearSpring) linearCount++;
+			else if (s instanceof AngularSpring) angularCount++;
+		}
+		linear.ensureCapacity(linearCount);
+		bud.ensureCapacity(budCount);
+		angular.ensureCapacity(angularCount);
+
+		for (Spring s : springs) {
+			add(s);
+		}
+	}
+
+	/**
+	 * Refreshes the endpoint indices after particles were reindexed.
+	 */
+	public void reindex() {
+		linear.reindex();
+		bud.reindex();
+		angular.reindex();
+	}
+
+	@Override
+	public void particleRemoved(Particle p, int index) {
+		// Its springs were removed already
+	}
+
+	@Override
+	public void particleMoved(Particle p, int from, int to) {
+		for (LinearSpring s : p.springs) {
+			if (s.buffer == null) continue;
+			if (s.p1 == p) s.buffer.i1[s.slot] = to;
+			if (s.p2 == p) s.buffer.i2[s.slot] = to;
+		}
+		for (AngularSpring s : p.angularSprings) {
+			if (s.buffer == null) continue;
+			if (s.p1 == p) s.buffer.i1[s.slot] = to;
+			if (s.p2 == p) s.buffer.i2[s.slot] = to;
+			if (s.p3 == p) s.buffer.i3[s.slot] = to;
+		}
+	}
+
+	/**
+	 * @return the number of springs in the store.
+	 */
+	public int size() {
+		return linear.size + bud.size + angular.size + others.size();
+	}
+
+	/**
+	 * Applies the forces of all springs. The length and direction of linear
+	 * springs are kept for {@link #gradient(Matrix, Matrix)}.
+	 */
+	public void apply() {
+		apply(linear);
+		apply(bud);
+		apply(angular);
+
+		for (int i = 0; i < others.size(); i++) {
+			others.get(i).apply();
+		}
+	}
+
+	private void apply(LinearBuffer lb) {
+		double[] len = lb.len, ux = lb.ux, uy = lb.uy;
+
+		for (int s = 0; s < lb.size; s++) {
+			Particle p1 = particles.get(lb.i1[s]);
+			Particle p2 = particles.get(lb.i2[s]);
+
+			double dx = p2.p.x - p1.p.x;
+			double dy = p2.p.y - p1.p.y;
+			double l = Math.sqrt(dx * dx + dy * dy);
+			double norm = 1.0 / l;
+			double x = dx * norm;
+			double y = dy * norm;
+			len[s] = l;
+			ux[s] = x;
+			uy[s] = y;
+
+			// Elastic and damping forces along the spring
+			double fs = (l - lb.l0[s]) * lb.k[s];
+			double rv = x * (p2.v.x - p1.v.x) + y * (p2.v.y - p1.v.y);
+			double fd = lb.b[s] * rv;
+
+			p1.f.x += x * fs;
+			p1.f.y += y * fs;
+			p1.f.x += x * fd;
+			p1.f.y += y * fd;
+
+			p2.f.x -= x * fs;
+			p2.f.y -= y * fs;
+			p2.f.x -= x * fd;
+			p2.f.y -= y * fd;
+		}
+	}
+
+	private void apply(AngularBuffer ab) {
+		for (int s = 0; s < ab.size; s++) {
+			Particle p1 = particles.get(ab.i1[s]);
+			Particle p2 = particles.get(ab.i2[s]);
+			Particle p3 = particles.get(ab.i3[s]);
+
+			// Angle between p2-p1 and p3-p2
+			double x1 = p2.p.x - p1.p.x;
+			double y1 = p2.p.y - p1.p.y;
+			double x2 = p3.p.x - p2.p.x;
+			double y2 = p3.p.y - p2.p.y;
+			double theta = Math.acos((x1 * x2 + y1 * y2)
+					/ (Math.sqrt(x1 * x1 + y1 * y1) * Math.sqrt(x2 * x2 + y2 * y2)));
+
+			// Force is applied on p1 perpendicularly to p1-p2
+			double f = ab.k[s] * (theta - ab.theta0[s]);
+			p1.f.x += y1 * f;
+			p1.f.y += -x1 * f;
+		}
+	}
+
+	/**
+	 * Adds the contribution of all springs to the stiffness and damping
+	 * matrices. Uses the geometry computed by the last call to
+	 * {@link #apply()}, so the particles should not have moved since.
+	 *
+	 * @param K
+	 * @param B
+	 */
+	public void gradient(Matrix K, Matrix B) {
+		gradient(linear, K, B);
+		gradient(bud, K, B);
+
+		for (Spring s : others) {
+			s.gradient(K, B);
+		}
+	}
+
+	private void gradient(LinearBuffer lb, Matrix K, Matrix B) {
+		for (int s = 0; s < lb.size; s++) {
+			double l = lb.len[s];
+			double x = lb.ux[s];
+			double y = lb.uy[s];
+			double k = lb.k[s];
+			double l0 = lb.l0[s];
+
+			// -k * r / |l| * u u^T - k * (1 - r / |l|) * I
+			double ks = -k * l0 / l;
+			double kd = -k * (1 - l0 / l);
+
+			// -b * u u^T
+			double bs = -lb.b[s];
+
+			int r1 = 2 * lb.i1[s];
+			int r2 = 2 * lb.i2[s];
+
+			add(K, r1, r2, 0, 0, ks * x * x + kd);
+			add(K, r1, r2, 0, 1, ks * x * y);
+			add(K, r1, r2, 1, 0, ks * y * x);
+			add(K, r1, r2, 1, 1, ks * y * y + kd);
+
+			add(B, r1, r2, 0, 0, bs * x * x);
+			add(B, r1, r2, 0, 1, bs * x * y);
+			add(B, r1, r2, 1, 0, bs * y * x);
+			add(B, r1, r2, 1, 1, bs * y * y);
+		}
+	}
+
+	/**
+	 * Adds a 2x2 block entry for a spring between particles at rows r1 and
+	 * r2. f12 = -f21 so the entry is added in an antisymmetric way.
+	 */
+	private static void add(Matrix A, int r1, int r2, int i, int j, double v) {
+		A.add(r1 + i, r1 + j, v);
+		A.add(r1 + i, r2 + j, -v);
+		A.add(r2 + i, r1 + j, -v);
+		A.add(r2 + i, r2 + j, v);
+	}
+
+	/**
+	 * Intersects a particle with all springs, bouncing it off the first one
+	 * it crosses during the next step. Linear and bud springs are taken in
+	 * the order of the spring list, by their index; springs of unknown types
+	 * are tested after them.
+	 *
+	 * @param p
+	 * @param stepSize
+	 * @return whether an intersection occurred
+	 */
+	public boolean intersect(Particle p, double stepSize) {
+		if (!p.inContact) {
+			LinearSpring hit = first(crossed(linear, p, stepSize), crossed(bud, p, stepSize));
+			if (hit != null) {
+				Particle p1 = particles.get(hit.buffer.i1[hit.slot]);
+				Particle p2 = particles.get(hit.buffer.i2[hit.slot]);
+				p.inContact = true;
+				p1.inContact = true;
+				p2.inContact = true;
+				CollisionTools.bounce(p, p1.p.x, p1.p.y, p2.p.x, p2.p.y, 1);
+				return true;
+			}
+		}
+
+		boolean intersected = false;
+		for (int i = 0; i < others.size(); i++) {
+			intersected |= others.get(i).intersect(p, stepSize);
+		}
+		intersectionTests += others.size();
+		return intersected;
+	}
+
+	/**
+	 * @return the number of springs tested for intersection since the last
+	 *         call, then starts counting again.
+	 */
+	public long takeIntersectionTests() {
+		long tests = intersectionTests;
+		intersectionTests = 0;
+		return tests;
+	}
+
+	private static LinearSpring first(LinearSpring a, LinearSpring b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		return a.getIndex() < b.getIndex() ? a : b;
+	}
+
+	/**
+	 * @return the spring of a buffer with the lowest index that the particle
+	 *         crosses during the next step, or null. Slots are not in list
+	 *         order once springs have been removed, so all are tested.
+	 */
+	private LinearSpring crossed(LinearBuffer lb, Particle p, double stepSize) {
+		// Line segment from particle position to particle + step * velocity
+		double cx = p.p.x;
+		double cy = p.p.y;
+		double dx = 2 * stepSize * p.v.x + cx;
+		double dy = 2 * stepSize * p.v.y + cy;
+
+		LinearSpring first = null;
+		for (int s = 0; s < lb.size; s++) {
+			// Don't intersect particles attached to this spring
+			if (lb.i1[s] == p.index || lb.i2[s] == p.index) continue;
+
+			Particle p1 = particles.get(lb.i1[s]);
+			Particle p2 = particles.get(lb.i2[s]);
+			double ax = p1.p.x, ay = p1.p.y;
+			double bx = p2.p.x, by = p2.p.y;
+
+			if (clockwise(ax, ay, cx, cy, dx, dy) == clockwise(bx, by, cx, cy, dx, dy)) {
+				continue;
+			}
+			else if (clockwise(ax, ay, bx, by, cx, cy) == clockwise(ax, ay, bx, by, dx, dy)) {
+				continue;
+			}
+
+			first = first(first, lb.springs[s]);
+		}
+
+		intersectionTests += lb.size;
+		return first;
+	}
+
+	/**
+	 * Same as {@link CollisionTools#areClockwise(Point2d, Point2d, Point2d)}.
+	 */
+	private static boolean clockwise(double ax, double ay, double bx, double by, double cx, double cy) {
+		return (ax - cx) * (by - cy) - (ay - cy) * (bx - cx) > 0;
+	}
+
+	/**
+	 * Sets the stiffness and damping of all springs.
+	 *
+	 * @param k
+	 * @param b
+	 */
+	public void setStiffness(double k, double b) {
+		setStiffness(linear, k, b);
+		setStiffness(bud, k, b);
+
+		Arrays.fill(angular.k, 0, angular.size, k);
+		for (int s = 0; s < angular.size; s++) {
+			angular.springs[s].k = k;
+		}
+
+		for (Spring s : others) {
+			s.setK(k);
+			s.setB(b);
+		}
+	}
+
+	private void setStiffness(LinearBuffer lb, double k, double b) {
+		Arrays.fill(lb.k, 0, lb.size, k);
+		Arrays.fill(lb.b, 0, lb.size, b);
+		for (int s = 0; s < lb.size; s++) {
+			lb.springs[s].k = k;
+			lb.springs[s].b = b;
+		}
+	}
+
+	/**
+	 * Sets the stiffness of all angular springs.
+	 *
+	 * @param k
+	 */
+	public void setAngularStiffness(double k) {
+		Arrays.fill(angular.k, 0, angular.size, k);
+		for (int s = 0; s < angular.size; s++) {
+			angular.springs[s].k = k;
+		}
+	}
+
+	/**
+	 * Adds the packed springs to batches: linear spring lines, and angular
+	 * spring midpoints and arcs. The other springs are displayed by
+	 * {@link #displayOthers(GLAutoDrawable)}.
+	 *
+	 * @param lines
+	 * @param midpoints
+	 * @param arcs
+	 */
+	public void pack(VertexBatch lines, VertexBatch midpoints, VertexBatch arcs) {
+		pack(lines, midpoints, arcs, 0);
+	}
+
+	/**
+	 * Adds the packed springs to batches, skipping those too short to be
+	 * seen: linear springs shorter than the given length, and angular springs
+	 * with both arms shorter.
+	 *
+	 * @param lines
+	 * @param midpoints
+	 * @param arcs
+	 * @param minLength the shortest spring to add
+	 */
+	public void pack(VertexBatch lines, VertexBatch midpoints, VertexBatch arcs, double minLength) {
+		double min2 = minLength * minLength;
+		lines.color(0, 0.5, 0.5, 0.5);
+		pack(linear, lines, min2);
+		pack(bud, lines, min2);
+
+		for (int s = 0; s < angular.size; s++) {
+			AngularSpring as = angular.springs[s];
+			Particle p2 = as.p2;
+			if (min2 > 0 && as.p1.p.distanceSquared(p2.p) < min2
+					&& as.p3.p.distanceSquared(p2.p) < min2) continue;
+			as.pack(midpoints, arcs);
+		}
+	}
+
+	/**
+	 * Displays the springs that are not packed.
+	 *
+	 * @param drawable
+	 */
+	public void displayOthers(GLAutoDrawable drawable) {
+		for (Spring s : others) {
+			s.display(drawable);
+		}
+	}
+
+	private void pack(LinearBuffer lb, VertexBatch lines, double min2) {
+		for (int s = 0; s < lb.size; s++) {
+			Particle p1 = particles.get(lb.i1[s]);
+			Particle p2 = particles.get(lb.i2[s]);
+
+			if (!p1.collidable && p1.inContact) continue;
+			if (!p2.collidable && p2.inContact) continue;
+			if (min2 > 0 && p1.p.distanceSquared(p2.p) < min2) continue;
+
+			lines.vertex(p1.p.x, p1.p.y);
+			lines.vertex(p2.p.x, p2.p.y);
+		}
+	}
+}
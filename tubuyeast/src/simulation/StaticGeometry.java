@@ -0,0 +1,103 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+import javax.vecmath.Point2d;
+
+import numerical.BoxCollider;
+import tools.gl.DisplayList;
+
+/**
+ * Boundaries that do not move: the walls of the window box and any other
+ * boundary added to it. The walls are only rebuilt when the window size
+ * changes, and all boundaries are drawn from a display list that is only
+ * compiled again when they change.
+ * <p>
+ * The boundary list is replaced rather than modified, so the physics can
+ * read {@link #getBoundaries()} while the display thread resizes the walls.
+ */
+public class StaticGeometry {
+
+	private int width = -1, height = -1;
+
+	private List<Boundary> walls = new ArrayList<Boundary>();
+	private List<Boundary> others = new ArrayList<Boundary>();
+
+	private volatile List<Boundary> boundaries = Collections.emptyList();
+
+	private final DisplayList list = new DisplayList();
+
+	/**
+	 * Rebuilds the walls if the size of the box changed.
+	 * @param width
+	 * @param height
+	 * @return whether the walls were rebuilt
+	 */
+	public synchronized boolean setSize(int width, int height) {
+		if (width == this.width && height == this.height) return false;
+		this.width = width;
+		this.height = height;
+
+		Point2d b1, b2, b3, b4;
+		b1 = new Point2d(BoxCollider.WDX, height - BoxCollider.WDY - 0);
+		b2 = new Point2d(BoxCollider.WDX, BoxCollider.WDY);
+		b3 = new Point2d(width - BoxCollider.WDX, BoxCollider.WDY);
+		b4 = new Point2d(width - BoxCollider.WDX, height
+				- BoxCollider.WDY - 0);
+		walls = ConstraintTool.createBox(b1, b2, b3, b4);
+		publish();
+		return true;
+	}
+
+	/**
+	 * Adds a boundary that does not move.
+	 * @param b
+	 */
+	public synchronized void add(Boundary b) {
+		others.add(b);
+		publish();
+	}
+
+	/**
+	 * Removes the boundaries added with {@link #add(Boundary)}.
+	 */
+	public synchronized void clear() {
+		others.clear();
+		publish();
+	}
+
+	private void publish() {
+		List<Boundary> all = new ArrayList<Boundary>(walls.size() + others.size());
+		all.addAll(walls);
+		all.addAll(others);
+		boundaries = Collections.unmodifiableList(all);
+		list.invalidate();
+	}
+
+	/**
+	 * @return the walls and the other static boundaries
+	 */
+	public List<Boundary> getBoundaries() {
+		return boundaries;
+	}
+
+	/**
+	 * Draws all boundaries from the display list, compiling it first if they
+	 * changed.
+	 * @param drawable
+	 */
+	public synchronized void display(GLAutoDrawable drawable) {
+		GL gl = drawable.getGL();
+		if (list.begin(gl)) {
+			for (Boundary b : boundaries) {
+				b.display(drawable);
+			}
+			list.end(gl);
+		}
+		list.call(gl);
+	}
+}
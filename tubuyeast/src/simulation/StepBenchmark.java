@@ -0,0 +1,255 @@
+package simulation;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.List;
+
+import numerical.ImplicitEuler;
+import numerical.Integrator;
+import tools.CommandLine;
+
+/**
+ * Benchmarks of the particle system step pipeline, run headlessly on the test
+ * systems of {@link ParticleSimulationApp}. Each scene is tiled to several
+ * sizes. Benchmarks are {@link ParticleSystem#step(double)} for every
+ * integrator and the phases of a step: force update, collisions, quad tree
+ * creation and the conjugate gradient solve of the implicit integrator.
+ * Scenes made by {@link SceneGenerator} can also be benchmarked, by number
+ * of particles.
+ * <p>
+ * Every benchmark starts from a freshly created system. Before each
+ * iteration the particles are reset, so that all iterations time the same
+ * operations. Warm-up iterations are not reported.
+ * <p>
+ * Usage: StepBenchmark [-scenes 6,2,3,4,5] [-sizes 1,4,16] [-warmup 5]
+ * [-iterations 10] [-ops 200] [-filter name] [-generated 1000,10000]
+ */
+public class StepBenchmark {
+
+	/**
+	 * Scene numbers of {@link ParticleSimulationApp#createSystem(ParticleSystem, int)}
+	 * and their names. Scene 0 is generated.
+	 */
+	private static final int[] SCENES = { 6, 2, 3, 4, 5 };
+	private static final String[] SCENE_NAMES = { "generated", "", "curved beam", "complete cell", "pendulum", "ball", "beam" };
+	private static final int GENERATED = 0;
+
+	/**
+	 * Space between tiled copies of a scene, larger than the window the
+	 * scenes are made for.
+	 */
+	private static final double TILE_WIDTH = 800, TILE_HEIGHT = 760;
+
+	private static final double H = 0.0015;
+
+	private int warmup = 5;
+	private int iterations = 10;
+	private int ops = 200;
+	private int cgIterations = 5;
+	private String filter = null;
+
+	/**
+	 * A timed operation on a particle system.
+	 */
+	private static abstract class Benchmark {
+		final String name;
+
+		Benchmark(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Prepares the system before each iteration, not timed.
+		 * @param system
+		 */
+		void setup(ParticleSystem system) {
+			system.resetParticles();
+		}
+
+		/**
+		 * The timed operation.
+		 * @param system
+		 */
+		abstract void run(ParticleSystem system);
+	}
+
+	/**
+	 * Creates copies of a scene side by side in a single system.
+	 * @param scene
+	 * @param copies
+	 * @return the system
+	 */
+	static ParticleSystem createTiled(int scene, int copies) {
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		List<Particle> particles = system.getParticles();
+		int columns = (int) Math.ceil(Math.sqrt(copies));
+
+		for (int c = 0; c < copies; c++) {
+			int first = particles.size();
+			ParticleSimulationApp.createSystem(system, scene);
+
+			double ox = (c % columns) * TILE_WIDTH;
+			double oy = (c / columns) * TILE_HEIGHT;
+			for (int i = first; i < particles.size(); i++) {
+				Particle p = particles.get(i);
+				p.p0.x += ox;
+				p.p0.y += oy;
+				p.reset();
+			}
+		}
+		system.updateSystem();
+
+		return system;
+	}
+
+	/**
+	 * @param scene
+	 * @param size the number of copies of the scene, or the number of
+	 *            particles for a generated scene
+	 * @return the system
+	 */
+	static ParticleSystem create(int scene, int size) {
+		if (scene != GENERATED) return createTiled(scene, size);
+
+		ParticleSystem system = new ParticleSystem(new Dimension(800, 600));
+		SceneGenerator generator = new SceneGenerator();
+		generator.setParticleCount(size);
+		generator.generate(system);
+		return system;
+	}
+
+	private List<Benchmark> createBenchmarks(ParticleSystem system) {
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		List<Integrator> integrators = system.getIntegrationMethods();
+		for (int i = 0; i < integrators.size(); i++) {
+			final Integrator integrator = integrators.get(i);
+			benchmarks.add(new Benchmark("step " + integrator) {
+				void setup(ParticleSystem system) {
+					system.integrationMethod = integrator;
+					super.setup(system);
+				}
+
+				void run(ParticleSystem system) {
+					system.step(H);
+				}
+			});
+		}
+
+		benchmarks.add(new Benchmark("updateForces") {
+			void run(ParticleSystem system) {
+				system.updateForces();
+			}
+		});
+		benchmarks.add(new Benchmark("collide") {
+			void run(ParticleSystem system) {
+				system.collide(H);
+			}
+		});
+		benchmarks.add(new Benchmark("QuadTree build") {
+			void run(ParticleSystem system) {
+				system.buildQuadTree();
+			}
+		});
+
+		for (int i = 0; i < integrators.size(); i++) {
+			if (!(integrators.get(i) instanceof ImplicitEuler)) continue;
+
+			final ImplicitEuler implicit = (ImplicitEuler) integrators.get(i);
+			benchmarks.add(new Benchmark("ConjugateGradient solve") {
+				void setup(ParticleSystem system) {
+					super.setup(system);
+					system.ensureInitialized(implicit);
+					system.updateForces();
+					implicit.update();
+					implicit.assemble(H);
+				}
+
+				void run(ParticleSystem system) {
+					implicit.solve(cgIterations);
+				}
+			});
+		}
+
+		return benchmarks;
+	}
+
+	/**
+	 * Runs a benchmark on a fresh system, so that benchmarks do not see each
+	 * other's state, and prints the time per operation.
+	 * @param scene
+	 * @param size the number of copies of the scene, see {@link #create(int, int)}
+	 * @param index the benchmark in {@link #createBenchmarks(ParticleSystem)}
+	 */
+	private void run(int scene, int size, int index) {
+		ParticleSystem system = create(scene, size);
+		Benchmark benchmark = createBenchmarks(system).get(index);
+		if (filter != null && !benchmark.name.contains(filter)) return;
+
+		double[] times = new double[iterations];
+
+		for (int it = -warmup; it < iterations; it++) {
+			benchmark.setup(system);
+
+			long t0 = System.nanoTime();
+			for (int op = 0; op < ops; op++) {
+				benchmark.run(system);
+			}
+			long t1 = System.nanoTime();
+
+			if (it >= 0) times[it] = (t1 - t0) / (double) ops;
+		}
+
+		double mean = 0;
+		for (double t : times) mean += t;
+		mean /= iterations;
+
+		double var = 0;
+		for (double t : times) var += (t - mean) * (t - mean);
+		double sd = iterations > 1 ? Math.sqrt(var / (iterations - 1)) : 0;
+
+		System.out.println(String.format("%-14s %5d %8d  %-36s %14.1f %12.1f",
+				SCENE_NAMES[scene], size, system.getParticles().size(), benchmark.name, mean / 1000, sd / 1000));
+	}
+
+	/**
+	 * Runs the benchmarks.
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		StepBenchmark bench = new StepBenchmark();
+		int[] scenes = SCENES;
+		int[] sizes = { 1, 4, 16 };
+		int[] generated = {};
+
+		CommandLine options = new CommandLine(args);
+		while (options.next()) {
+			if (options.is("-scenes")) scenes = options.getInts();
+			else if (options.is("-sizes")) sizes = options.getInts();
+			else if (options.is("-warmup")) bench.warmup = options.getInt();
+			else if (options.is("-iterations")) bench.iterations = options.getInt();
+			else if (options.is("-ops")) bench.ops = options.getInt();
+			else if (options.is("-cg")) bench.cgIterations = options.getInt();
+			else if (options.is("-filter")) bench.filter = options.getValue();
+			else if (options.is("-generated")) generated = options.getInts();
+			else throw options.unknown();
+		}
+
+		System.out.println(String.format("%-14s %5s %8s  %-36s %14s %12s",
+				"scene", "size", "n", "benchmark", "us/op", "sd"));
+
+		int count = bench.createBenchmarks(new ParticleSystem(new Dimension(800, 600))).size();
+		for (int scene : scenes) {
+			for (int size : sizes) {
+				for (int i = 0; i < count; i++) {
+					bench.run(scene, size, i);
+				}
+			}
+		}
+		for (int size : generated) {
+			for (int i = 0; i < count; i++) {
+				bench.run(GENERATED, size, i);
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package simulation;
+
+import javax.media.opengl.GL;
+
+import tools.gl.VertexBatch;
+
+/**
+ * What the display needs of a particle system at one instant: particles,
+ * springs and contacts packed in vertex batches, ready to draw. A snapshot is
+ * filled by {@link ParticleSystem#pack(SystemSnapshot)} and is not changed
+ * once published by the {@link SimulationThread}, so it can be drawn while
+ * the system steps.
+ */
+public class SystemSnapshot {
+
+	VertexBatch lightParticles = new VertexBatch();
+	VertexBatch heavyParticles = new VertexBatch();
+	VertexBatch illegalParticles = new VertexBatch();
+
+	VertexBatch springLines = new VertexBatch();
+	VertexBatch springMidpoints = new VertexBatch();
+	VertexBatch springArcs = new VertexBatch();
+
+	VertexBatch contactPoints = new VertexBatch();
+	VertexBatch contactNormals = new VertexBatch();
+
+	/**
+	 * Density splats replacing the particles at a lower level of detail
+	 */
+	VertexBatch splats = new VertexBatch();
+	float splatSize = 1;
+
+	/**
+	 * Simulation time and steps of the system
+	 */
+	double time;
+	long steps;
+
+	/**
+	 * Publication number, larger for later snapshots
+	 */
+	volatile long sequence = 0;
+
+	/**
+	 * Empties all batches.
+	 */
+	void clear() {
+		lightParticles.clear();
+		heavyParticles.clear();
+		illegalParticles.clear();
+		springLines.clear();
+		springMidpoints.clear();
+		springArcs.clear();
+		contactPoints.clear();
+		contactNormals.clear();
+		splats.clear();
+	}
+
+	/**
+	 * @return the simulation time of the snapshot
+	 */
+	public double getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the number of steps taken by the system when the snapshot was
+	 *         made
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Draws the snapshot, a few calls per kind of primitive.
+	 * @param gl
+	 */
+	public void draw(GL gl) {
+		gl.glPointSize(splatSize);
+		splats.draw(gl, GL.GL_POINTS);
+
+		gl.glPointSize(10);
+		lightParticles.draw(gl, GL.GL_POINTS);
+		gl.glPointSize(25);
+		heavyParticles.draw(gl, GL.GL_POINTS);
+		gl.glPointSize(15);
+		illegalParticles.draw(gl, GL.GL_POINTS);
+
+		gl.glLineWidth(2);
+		springLines.draw(gl, GL.GL_LINES);
+		springMidpoints.draw(gl, GL.GL_POINTS);
+		springArcs.draw(gl, GL.GL_LINE_STRIP);
+
+		gl.glPointSize(10);
+		contactPoints.draw(gl, GL.GL_POINTS);
+		contactNormals.draw(gl, GL.GL_LINES);
+	}
+}
@@ -0,0 +1,179 @@
+package simulation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Change log of the topology (particles and springs) of a particle system.
+ * Every addition or removal increments the topology version and is recorded
+ * so that integrators and neighbor structures can bring themselves up to date
+ * incrementally instead of rebuilding everything from scratch.
+ * <p>
+ * A consumer remembers the version it last synchronized with and replays the
+ * changes made since. If it is too far behind (the system was rebuilt or the
+ * log was truncated), {@link #isIncremental(int)} returns false and the
+ * consumer must rebuild completely.
+ */
+public class TopologyLog {
+
+	/**
+	 * The kind of topology change.
+	 */
+	public enum Type {
+		PARTICLE_ADDED, PARTICLE_REMOVED, PARTICLE_MOVED, SPRING_ADDED, SPRING_REMOVED
+	}
+
+	/**
+	 * A single topology change.
+	 */
+	public static class Change {
+
+		/**
+		 * The kind of change.
+		 */
+		public final Type type;
+
+		/**
+		 * The particle added or removed, null for spring changes.
+		 */
+		public final Particle particle;
+
+		/**
+		 * The spring added or removed, null for particle changes.
+		 */
+		public final Spring spring;
+
+		/**
+		 * The particle index at the time of the change (-1 for springs). For
+		 * a move, the new index of the particle.
+		 */
+		public final int index;
+
+		/**
+		 * For a move, the previous index of the particle, otherwise -1.
+		 */
+		public final int from;
+
+		/**
+		 * For linear springs, the indices of the two particles at the time of
+		 * the change, otherwise -1.
+		 */
+		public final int i1, i2;
+
+		Change(Type type, Particle particle, Spring spring, int index, int from) {
+			this.type = type;
+			this.particle = particle;
+			this.spring = spring;
+			this.index = index;
+			this.from = from;
+			
+			if (spring instanceof LinearSpring) {
+				i1 = ((LinearSpring) spring).p1.index;
+				i2 = ((LinearSpring) spring).p2.index;
+			}
+			else {
+				i1 = -1;
+				i2 = -1;
+			}
+		}
+
+		public String toString() {
+			return type + " " + (particle != null ? particle : spring);
+		}
+	}
+
+	/**
+	 * Maximum number of changes kept before the log is truncated to its most
+	 * recent half.
+	 */
+	private static final int MAX_CHANGES = 1 << 16;
+
+	/**
+	 * The current topology version.
+	 */
+	private int version = 0;
+
+	/**
+	 * The version from which changes are available.
+	 */
+	private int base = 0;
+
+	/**
+	 * changes.get(i) brought the topology to version base + i + 1.
+	 */
+	private ArrayList<Change> changes = new ArrayList<Change>();
+
+	/**
+	 * @return the current topology version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param since
+	 *            a version previously obtained from {@link #getVersion()}
+	 * @return whether the changes made since that version are still
+	 *         available. If not, the caller needs to rebuild completely.
+	 */
+	public boolean isIncremental(int since) {
+		return since >= base && since <= version;
+	}
+
+	/**
+	 * @param since
+	 *            a version for which {@link #isIncremental(int)} is true
+	 * @return the changes made since that version, oldest first.
+	 */
+	public List<Change> getChanges(int since) {
+		return changes.subList(since - base, changes.size());
+	}
+
+	/**
+	 * Marks the topology as rebuilt: all consumers that are not synchronized
+	 * with the new version need to rebuild completely.
+	 */
+	public void rebuild() {
+		version++;
+		base = version;
+		changes.clear();
+	}
+
+	void particleAdded(Particle p) {
+		record(new Change(Type.PARTICLE_ADDED, p, null, p.index, -1));
+	}
+
+	void particleRemoved(Particle p, int index) {
+		record(new Change(Type.PARTICLE_REMOVED, p, null, index, -1));
+	}
+
+	void particleMoved(Particle p, int from, int to) {
+		record(new Change(Type.PARTICLE_MOVED, p, null, to, from));
+	}
+
+	void springAdded(Spring s) {
+		record(new Change(Type.SPRING_ADDED, null, s, -1, -1));
+	}
+
+	void springRemoved(Spring s) {
+		record(new Change(Type.SPRING_REMOVED, null, s, -1, -1));
+	}
+
+	private void record(Change change) {
+		if (changes.size() >= MAX_CHANGES) {
+			// Consumers that are far behind will rebuild. Those that keep up
+			// stay incremental, so whether they rebuild does not depend on
+			// when the log was started, e.g. by restoring a checkpoint.
+			int dropped = MAX_CHANGES / 2;
+			changes.subList(0, dropped).clear();
+			base += dropped;
+		}
+
+		changes.add(change);
+		version++;
+	}
+
+	public String toString() {
+		return "topology version = " + version;
+	}
+}
@@ -0,0 +1,68 @@
+package simulation;
+
+import java.io.IOException;
+
+/**
+ * The frames of a recorded trajectory, read in any order, see
+ * {@link TrajectoryReader} and {@link CompressedTrajectoryReader}.
+ */
+public interface Trajectory {
+
+	/**
+	 * @return the number of frames, which grows while the file is recorded
+	 */
+	public long getFrames();
+
+	/**
+	 * Makes a frame the current one.
+	 * @param frame
+	 * @throws IOException
+	 */
+	public void seek(long frame) throws IOException;
+
+	/**
+	 * @return the step of the current frame
+	 */
+	public long getStep();
+
+	/**
+	 * @return the simulation time of the current frame
+	 */
+	public double getTime();
+
+	/**
+	 * @return the number of particles in the current frame
+	 */
+	public int getParticleCount();
+
+	/**
+	 * @param i
+	 * @return the handle of particle i of the current frame
+	 */
+	public int getHandle(int i);
+
+	/**
+	 * @param i
+	 * @return the flags of particle i of the current frame, see
+	 *         {@link TrajectoryRecorder#PARTICLE_HEAVY} and
+	 *         {@link TrajectoryRecorder#PARTICLE_BUD}
+	 */
+	public int getFlags(int i);
+
+	public double getX(int i);
+
+	public double getY(int i);
+
+	/**
+	 * Fills a snapshot with the particles of the current frame, colored as
+	 * free particles are.
+	 * @param snapshot
+	 */
+	public void pack(SystemSnapshot snapshot);
+
+	/**
+	 * Closes the file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
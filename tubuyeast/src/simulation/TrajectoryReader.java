@@ -0,0 +1,243 @@
+package simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the frames of a file written by a {@link TrajectoryRecorder} in any
+ * order. Only a window of the file is mapped at a time, so the memory used
+ * does not depend on the size of the file.
+ * <p>
+ * The number of frames is read from the header each time, so a file can be
+ * read while it is recorded.
+ */
+public class TrajectoryReader implements Trajectory {
+
+	/**
+	 * Size of the mapped window of the file
+	 */
+	private static final long WINDOW_SIZE = 64 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+
+	private final boolean forces;
+	private final int capacity;
+	private final int every;
+	private final int recordSize;
+	private final int frameSize;
+	private final int framesPerWindow;
+
+	private MappedByteBuffer window = null;
+	private long windowStart = -1;
+	private long windowFrames = 0;
+
+	/**
+	 * Offset of the current frame in the window
+	 */
+	private int base;
+
+	/**
+	 * Opens a trajectory file.
+	 * @param f
+	 * @throws IOException if the file cannot be read or is not a trajectory
+	 */
+	public TrajectoryReader(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		if (channel.size() < TrajectoryRecorder.HEADER_SIZE) {
+			file.close();
+			throw new IOException(f + " is not a trajectory");
+		}
+		header = channel.map(FileChannel.MapMode.READ_ONLY, 0, TrajectoryRecorder.HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt(0) != TrajectoryRecorder.MAGIC) {
+			file.close();
+			throw new IOException(f + " is not a trajectory");
+		}
+		if (header.getInt(4) != TrajectoryRecorder.VERSION) {
+			file.close();
+			throw new IOException(f + " has unsupported version " + header.getInt(4));
+		}
+		forces = (header.getInt(8) & TrajectoryRecorder.FLAG_FORCES) != 0;
+		capacity = header.getInt(12);
+		every = header.getInt(16);
+		recordSize = header.getInt(20);
+		frameSize = header.getInt(24);
+		framesPerWindow = (int) Math.max(1, WINDOW_SIZE / frameSize);
+	}
+
+	/**
+	 * @return the number of frames in the file
+	 */
+	public long getFrames() {
+		long frames = header.getLong(TrajectoryRecorder.FRAMES_OFFSET);
+		try {
+			// Frames past the end of a file that was not closed are lost
+			long stored = (channel.size() - TrajectoryRecorder.HEADER_SIZE) / frameSize;
+			return Math.min(frames, stored);
+		} catch (IOException e) {
+			return frames;
+		}
+	}
+
+	/**
+	 * @return the step size of the recorded run
+	 */
+	public double getStepSize() {
+		return header.getDouble(TrajectoryRecorder.STEP_SIZE_OFFSET);
+	}
+
+	/**
+	 * @return the number of steps between frames
+	 */
+	public int getEvery() {
+		return every;
+	}
+
+	/**
+	 * @return the number of particles a frame can hold
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return whether the forces were recorded
+	 */
+	public boolean hasForces() {
+		return forces;
+	}
+
+	/**
+	 * Makes a frame the current one, mapping the part of the file that holds
+	 * it if needed.
+	 * @param frame
+	 * @throws IOException
+	 */
+	public void seek(long frame) throws IOException {
+		if (frame < 0 || frame >= getFrames()) {
+			throw new IndexOutOfBoundsException("frame " + frame + " of " + getFrames());
+		}
+		if (window == null || frame < windowStart || frame >= windowStart + windowFrames) {
+			windowStart = frame - frame % framesPerWindow;
+			long available = (channel.size() - TrajectoryRecorder.HEADER_SIZE) / frameSize - windowStart;
+			windowFrames = Math.min(framesPerWindow, available);
+			window = channel.map(FileChannel.MapMode.READ_ONLY, TrajectoryRecorder.HEADER_SIZE
+					+ windowStart * frameSize, windowFrames * frameSize);
+			window.order(ByteOrder.LITTLE_ENDIAN);
+		}
+		base = (int) (frame - windowStart) * frameSize;
+	}
+
+	/**
+	 * @return the step of the current frame
+	 */
+	public long getStep() {
+		return window.getLong(base);
+	}
+
+	/**
+	 * @return the simulation time of the current frame
+	 */
+	public double getTime() {
+		return window.getDouble(base + 8);
+	}
+
+	/**
+	 * @return the number of particles in the current frame
+	 */
+	public int getParticleCount() {
+		return window.getInt(base + 16);
+	}
+
+	private int record(int i) {
+		return base + TrajectoryRecorder.FRAME_HEADER_SIZE + i * recordSize;
+	}
+
+	/**
+	 * @param i
+	 * @return the handle of particle i of the current frame
+	 */
+	public int getHandle(int i) {
+		return window.getInt(record(i));
+	}
+
+	/**
+	 * @param i
+	 * @return the flags of particle i of the current frame, see
+	 *         {@link TrajectoryRecorder#PARTICLE_HEAVY} and
+	 *         {@link TrajectoryRecorder#PARTICLE_BUD}
+	 */
+	public int getFlags(int i) {
+		return window.getInt(record(i) + 4);
+	}
+
+	public double getX(int i) {
+		return window.getDouble(record(i) + 8);
+	}
+
+	public double getY(int i) {
+		return window.getDouble(record(i) + 16);
+	}
+
+	public double getVx(int i) {
+		return window.getDouble(record(i) + 24);
+	}
+
+	public double getVy(int i) {
+		return window.getDouble(record(i) + 32);
+	}
+
+	/**
+	 * @param i
+	 * @return the x component of the force on particle i, 0 if the forces
+	 *         were not recorded
+	 */
+	public double getFx(int i) {
+		return forces ? window.getDouble(record(i) + 40) : 0;
+	}
+
+	/**
+	 * @param i
+	 * @return the y component of the force on particle i, 0 if the forces
+	 *         were not recorded
+	 */
+	public double getFy(int i) {
+		return forces ? window.getDouble(record(i) + 48) : 0;
+	}
+
+	/**
+	 * Fills a snapshot with the particles of the current frame, colored as
+	 * free particles are.
+	 * @param snapshot
+	 */
+	public void pack(SystemSnapshot snapshot) {
+		snapshot.clear();
+		snapshot.time = getTime();
+		snapshot.steps = getStep();
+		snapshot.lightParticles.color(0, 0.95, 0, 1);
+		snapshot.heavyParticles.color(0, 0, 1, 1);
+		int n = getParticleCount();
+		for (int i = 0; i < n; i++) {
+			int r = record(i);
+			boolean heavy = (window.getInt(r + 4) & TrajectoryRecorder.PARTICLE_HEAVY) != 0;
+			(heavy ? snapshot.heavyParticles : snapshot.lightParticles).vertex(window.getDouble(r + 8),
+					window.getDouble(r + 16));
+		}
+	}
+
+	/**
+	 * Closes the file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		window = null;
+		file.close();
+	}
+}
@@ -0,0 +1,201 @@
+package simulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Records the particles of every k-th step to a binary trajectory file, for
+ * analysis or replay.
+ * <p>
+ * The file starts with a {@link #HEADER_SIZE} byte header, followed by frames
+ * of a fixed size, so that frame i starts at
+ * <code>HEADER_SIZE + i * frameSize</code>. All values are little-endian.
+ * <pre>
+ * header: int magic 'TUBT', int version, int flags (1: forces),
+ *         int capacity (particles per frame), int every (steps per frame),
+ *         int record size, int frame size, int reserved,
+ *         double step size, long frames written, 16 reserved bytes
+ * frame:  long step, double time, int particles, int reserved,
+ *         then capacity particle records
+ * record: int handle, int flags (1: heavy, 2: bud), double x, y, vx, vy
+ *         [, fx, fy]
+ * </pre>
+ * Particles beyond the capacity of a frame are not recorded and counted as
+ * truncated. Frames are written to memory-mapped windows of the file, so
+ * recording a frame does not allocate.
+ */
+public class TrajectoryRecorder implements TrajectoryWriter {
+
+	/**
+	 * 'TUBT'
+	 */
+	public static final int MAGIC = 0x54554254;
+
+	public static final int VERSION = 1;
+
+	public static final int HEADER_SIZE = 64;
+
+	public static final int FRAME_HEADER_SIZE = 24;
+
+	public static final int FLAG_FORCES = 1;
+
+	public static final int PARTICLE_HEAVY = 1;
+
+	public static final int PARTICLE_BUD = 2;
+
+	/**
+	 * Offsets of the values written after the header is created
+	 */
+	static final int STEP_SIZE_OFFSET = 32;
+	static final int FRAMES_OFFSET = 40;
+
+	/**
+	 * Size of the mapped windows of the file
+	 */
+	private static final long WINDOW_SIZE = 64 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+
+	private final boolean forces;
+	private final int capacity;
+	private final int every;
+	private final int frameSize;
+	private final int framesPerWindow;
+
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long frames = 0;
+	private long truncated = 0;
+	private IOException error = null;
+
+	/**
+	 * Creates a trajectory file, replacing any existing one.
+	 * @param f
+	 * @param capacity the number of particles in a frame
+	 * @param every the number of steps between frames
+	 * @param forces whether to record the forces
+	 * @throws IOException
+	 */
+	public TrajectoryRecorder(File f, int capacity, int every, boolean forces) throws IOException {
+		this.capacity = capacity;
+		this.every = Math.max(1, every);
+		this.forces = forces;
+		int recordSize = recordSize(forces);
+		frameSize = FRAME_HEADER_SIZE + capacity * recordSize;
+		framesPerWindow = (int) Math.max(1, WINDOW_SIZE / frameSize);
+
+		file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(forces ? FLAG_FORCES : 0);
+		header.putInt(capacity);
+		header.putInt(this.every);
+		header.putInt(recordSize);
+		header.putInt(frameSize);
+		header.putInt(0);
+		header.putDouble(0);
+		header.putLong(0);
+	}
+
+	/**
+	 * @param forces
+	 * @return the size of a particle record
+	 */
+	static int recordSize(boolean forces) {
+		return 8 + 8 * (forces ? 6 : 4);
+	}
+
+	/**
+	 * Records the particles if the step is a multiple of the number of steps
+	 * between frames. An error stops the recording, see {@link #close()}.
+	 * @param step
+	 * @param time
+	 * @param h the step size
+	 * @param particles
+	 */
+	public void record(long step, double time, double h, List<Particle> particles) {
+		if (error != null || step % every != 0) return;
+
+		try {
+			if (window == null || frames - windowStart == framesPerWindow) {
+				windowStart = frames;
+				window = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + frames * frameSize,
+						(long) framesPerWindow * frameSize);
+				window.order(ByteOrder.LITTLE_ENDIAN);
+			}
+		} catch (IOException e) {
+			error = e;
+			return;
+		}
+
+		int n = Math.min(particles.size(), capacity);
+		truncated += particles.size() - n;
+
+		window.position((int) (frames - windowStart) * frameSize);
+		window.putLong(step);
+		window.putDouble(time);
+		window.putInt(n);
+		window.putInt(0);
+		for (int i = 0; i < n; i++) {
+			Particle p = particles.get(i);
+			window.putInt(p.handle);
+			window.putInt((p.heavy ? PARTICLE_HEAVY : 0) | (p instanceof BudParticle ? PARTICLE_BUD : 0));
+			window.putDouble(p.p.x);
+			window.putDouble(p.p.y);
+			window.putDouble(p.v.x);
+			window.putDouble(p.v.y);
+			if (forces) {
+				window.putDouble(p.f.x);
+				window.putDouble(p.f.y);
+			}
+		}
+
+		frames++;
+		header.putDouble(STEP_SIZE_OFFSET, h);
+		header.putLong(FRAMES_OFFSET, frames);
+	}
+
+	/**
+	 * @return the number of frames recorded
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return the number of particle records left out because frames were
+	 *         full
+	 */
+	public long getTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * Writes the frames to disk and closes the file.
+	 * @throws IOException if recording or closing failed
+	 */
+	public void close() throws IOException {
+		header.force();
+		if (window != null) window.force();
+		window = null;
+		try {
+			channel.truncate(HEADER_SIZE + frames * frameSize);
+		} catch (IOException e) {
+			// Some platforms cannot shrink a file that is still mapped, the
+			// frame count of the header tells where the frames end
+		}
+		file.close();
+		if (error != null) throw error;
+	}
+}
@@ -0,0 +1,294 @@
+package simulation;
+
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import tools.parameters.BooleanParameter;
+import tools.parameters.DoubleParameter;
+import tools.parameters.IntParameter;
+import tools.parameters.Parameter;
+import tools.parameters.ParameterListener;
+import tools.swing.VerticalFlowPanel;
+
+/**
+ * Plays back a recorded trajectory: frames are packed straight from the
+ * mapped file into a snapshot, without creating particles, and the current
+ * frame can be scrubbed with a slider, stepped or played at any speed.
+ * <p>
+ * The controls are used from the Swing thread and the snapshot from the
+ * display thread, hence the synchronized methods. Controls are only changed
+ * on the Swing thread.
+ */
+public class TrajectoryReplay {
+
+	private Trajectory reader = null;
+
+	private File file = null;
+
+	private SystemSnapshot snapshot = new SystemSnapshot();
+
+	/**
+	 * Current position in frames, fractional when playing slower than a frame
+	 * per display
+	 */
+	private double position = 0;
+
+	private long packed = -1;
+
+	private IntParameter frame = new IntParameter("frame", 0, 0, 1);
+
+	private DoubleParameter speed = new DoubleParameter("playback speed (frames per display)", 1, 0.01, 100);
+
+	private BooleanParameter play = new BooleanParameter("play", false);
+
+	private BooleanParameter loop = new BooleanParameter("loop", false);
+
+	/**
+	 * Whether the frame slider is being set to follow the playback, rather
+	 * than moved by the user
+	 */
+	private boolean showing = false;
+
+	/**
+	 * Creates a replay with no trajectory
+	 */
+	public TrajectoryReplay() {
+		frame.addParameterListener(new ParameterListener() {
+			@Override
+			public void parameterChanged(Parameter parameter) {
+				synchronized (TrajectoryReplay.this) {
+					if (showing) return;
+					// Keep the fraction unless the slider was moved
+					if ((int) position != frame.getValue()) position = frame.getValue();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs a change of the controls on the Swing thread, now if called from
+	 * it
+	 */
+	private static void onSwingThread(Runnable r) {
+		if (SwingUtilities.isEventDispatchThread()) r.run();
+		else SwingUtilities.invokeLater(r);
+	}
+
+	/**
+	 * Moves the frame slider to a frame without moving the playback.
+	 * @param f
+	 * @param maximum the last frame, or -1 to keep it
+	 */
+	private void showFrame(final int f, final int maximum) {
+		onSwingThread(new Runnable() {
+			public void run() {
+				synchronized (TrajectoryReplay.this) {
+					showing = true;
+					try {
+						if (maximum >= 0) frame.setMaximum(maximum);
+						frame.setValue(f);
+					} finally {
+						showing = false;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Pauses the playback.
+	 */
+	private void pause() {
+		onSwingThread(new Runnable() {
+			public void run() {
+				play.setValue(false);
+			}
+		});
+	}
+
+	/**
+	 * Opens a trajectory to replay, closing the current one.
+	 * @param f
+	 * @throws IOException
+	 */
+	public synchronized void open(File f) throws IOException {
+		Trajectory r = openTrajectory(f);
+		if (r.getFrames() == 0) {
+			r.close();
+			throw new IOException(f + " has no frames");
+		}
+		close();
+		reader = r;
+		file = f;
+		position = 0;
+		packed = -1;
+		showFrame(0, (int) Math.min(Integer.MAX_VALUE, r.getFrames() - 1));
+	}
+
+	/**
+	 * @param f
+	 * @return a reader for the trajectory, compressed or not
+	 * @throws IOException
+	 */
+	private static Trajectory openTrajectory(File f) throws IOException {
+		int magic = 0;
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			magic = Integer.reverseBytes(in.readInt());
+		} catch (EOFException e) {
+			// Too short for either, the reader says so
+		} finally {
+			in.close();
+		}
+		if (magic == CompressedTrajectoryRecorder.MAGIC) return new CompressedTrajectoryReader(f);
+		return new TrajectoryReader(f);
+	}
+
+	/**
+	 * Stops replaying and closes the trajectory.
+	 */
+	public synchronized void close() {
+		if (reader == null) return;
+		try {
+			reader.close();
+		} catch (IOException e) {
+			System.err.println("trouble closing " + file);
+		}
+		reader = null;
+		file = null;
+		pause();
+	}
+
+	/**
+	 * @return whether a trajectory is replayed
+	 */
+	public synchronized boolean isActive() {
+		return reader != null;
+	}
+
+	/**
+	 * Moves the current frame by a number of frames and pauses.
+	 * @param frames
+	 */
+	public synchronized void step(int frames) {
+		if (reader == null) return;
+		pause();
+		position = clamp(Math.floor(position) + frames);
+		showFrame((int) position, -1);
+	}
+
+	/**
+	 * Starts or pauses the playback.
+	 */
+	public void togglePlay() {
+		onSwingThread(new Runnable() {
+			public void run() {
+				play.setValue(!play.getValue());
+			}
+		});
+	}
+
+	private double clamp(double p) {
+		long last = reader.getFrames() - 1;
+		if (p > last) return last;
+		if (p < 0) return 0;
+		return p;
+	}
+
+	/**
+	 * Advances the playback by a display and returns the current frame.
+	 * To be called from the display thread once per display.
+	 * @return the snapshot of the current frame, or null if nothing is
+	 *         replayed
+	 */
+	public synchronized SystemSnapshot advance() {
+		if (reader == null) return null;
+
+		if (play.getValue()) {
+			long frames = reader.getFrames();
+			position += speed.getValue();
+			if (position >= frames) {
+				if (loop.getValue()) {
+					position = position % frames;
+				} else {
+					position = frames - 1;
+					pause();
+				}
+			}
+			int f = (int) position;
+			if (f != frame.getValue()) showFrame(f, -1);
+		}
+
+		long f = (long) clamp(position);
+		if (f != packed) {
+			try {
+				reader.seek(f);
+				reader.pack(snapshot);
+				packed = f;
+			} catch (IOException e) {
+				System.err.println("trouble reading frame " + f + " of " + file + ": " + e.getMessage());
+				close();
+				return null;
+			}
+		}
+		return snapshot;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (reader == null) return "";
+		return "replay " + file.getName() + ", frame " + packed + " of " + reader.getFrames()
+				+ " (step " + snapshot.getSteps() + ", t = " + snapshot.getTime() + ")";
+	}
+
+	/**
+	 * @return the replay controls
+	 */
+	public JPanel getControls() {
+		VerticalFlowPanel vfp = new VerticalFlowPanel();
+		vfp.setBorder(BorderFactory.createTitledBorder(BorderFactory
+				.createEtchedBorder(), "Trajectory replay"));
+
+		JPanel buttons = new JPanel(new GridLayout(1, 2));
+		JButton openButton = new JButton("open...");
+		openButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser(".");
+				if (chooser.showOpenDialog(null) != JFileChooser.APPROVE_OPTION) return;
+				try {
+					open(chooser.getSelectedFile());
+				} catch (IOException ex) {
+					System.err.println("Replay failed: " + ex.getMessage());
+				}
+			}
+		});
+		JButton closeButton = new JButton("close");
+		closeButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				close();
+			}
+		});
+		buttons.add(openButton);
+		buttons.add(closeButton);
+		vfp.add(buttons);
+		JPanel options = new JPanel(new GridLayout(1, 2));
+		options.add(play.getControls());
+		options.add(loop.getControls());
+		vfp.add(options);
+		vfp.add(frame.getSliderControls());
+		vfp.add(speed.getSliderControls(true));
+		return vfp.getPanel();
+	}
+}
@@ -0,0 +1,38 @@
+package simulation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records the particles of the steps of a run, see
+ * {@link ParticleSystem#setTrajectoryRecorder(TrajectoryWriter)}.
+ * Implementations keep every k-th step.
+ */
+public interface TrajectoryWriter {
+
+	/**
+	 * Records the particles if the step is one to keep.
+	 * @param step
+	 * @param time
+	 * @param h the step size
+	 * @param particles
+	 */
+	public void record(long step, double time, double h, List<Particle> particles);
+
+	/**
+	 * @return the number of frames recorded
+	 */
+	public long getFrames();
+
+	/**
+	 * @return the number of particle records left out because frames were
+	 *         full
+	 */
+	public long getTruncated();
+
+	/**
+	 * Writes the remaining frames and closes the file.
+	 * @throws IOException if recording or closing failed
+	 */
+	public void close() throws IOException;
+}
@@ -0,0 +1,107 @@
+package tools;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Walks the options of a command line: "-name value" pairs, and flags that
+ * take no value. Options are matched in a chain of {@link #is(String)}
+ * tests, ending with {@link #unknown()}:
+ * <pre>
+ * CommandLine options = new CommandLine(args, "-bud");
+ * while (options.next()) {
+ *     if (options.is("-bud")) bud = true;
+ *     else if (options.is("-steps")) steps = options.getLong();
+ *     else throw options.unknown();
+ * }
+ * </pre>
+ */
+public class CommandLine {
+
+	private final String[] args;
+
+	private final List<String> flags;
+
+	private int next = 0;
+
+	private String option = null;
+
+	private String value = null;
+
+	/**
+	 * @param args
+	 * @param flags the options that take no value
+	 */
+	public CommandLine(String[] args, String... flags) {
+		this.args = args;
+		this.flags = Arrays.asList(flags);
+	}
+
+	/**
+	 * Moves to the next option and its value.
+	 * @return false if there are no more options
+	 * @throws IllegalArgumentException if the last option has no value
+	 */
+	public boolean next() {
+		if (next >= args.length) return false;
+		option = args[next++];
+		value = null;
+		if (flags.contains(option)) return true;
+		if (next >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		value = args[next++];
+		return true;
+	}
+
+	/**
+	 * @param name
+	 * @return whether the current option is this one
+	 */
+	public boolean is(String name) {
+		return option.equals(name);
+	}
+
+	/**
+	 * @return the value of the current option, null for a flag
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	public int getInt() {
+		return Integer.parseInt(value);
+	}
+
+	public long getLong() {
+		return Long.parseLong(value);
+	}
+
+	public double getDouble() {
+		return Double.parseDouble(value);
+	}
+
+	public File getFile() {
+		return new File(value);
+	}
+
+	/**
+	 * @return the comma separated integers of the value
+	 */
+	public int[] getInts() {
+		String[] parts = value.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	/**
+	 * @return the error to throw for an option that is not matched
+	 */
+	public IllegalArgumentException unknown() {
+		return new IllegalArgumentException("Unknown option " + option);
+	}
+}
@@ -0,0 +1,105 @@
+package tools;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking calls that wait through interrupts. Each call is retried until it
+ * completes, then the interrupt status of the thread is restored so the
+ * caller can still see that it was interrupted.
+ */
+public class Uninterruptible {
+
+	private Uninterruptible() {
+	}
+
+	public static <T> void put(BlockingQueue<T> queue, T item) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					queue.put(item);
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	public static <T> T take(BlockingQueue<T> queue) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return queue.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	public static void join(Thread thread) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					thread.join();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the tasks of an executor that was shut down
+	 * @param executor
+	 */
+	public static void awaitTermination(ExecutorService executor) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param future
+	 * @return the result of the future
+	 * @throws ExecutionException if the computation failed
+	 */
+	public static <T> T get(Future<T> future) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -75,23 +75,46 @@ public class CollisionTools {
 	 * @param boundaryB
 	 */
 	public static void bounce(Particle p, Point2d boundaryA, Point2d boundaryB, double restitution_coef) {
-    	Vector2d n = new Vector2d();
-    	n.sub(boundaryB, boundaryA);
+		bounce(p, boundaryA.x, boundaryA.y, boundaryB.x, boundaryB.y, restitution_coef);
+	}
+
+	/**
+	 * Same as {@link #bounce(Particle, Point2d, Point2d, double)} with the
+	 * boundary given by its coordinates. Does not allocate.
+	 * @param p
+	 * @param ax
+	 * @param ay
+	 * @param bx
+	 * @param by
+	 * @param restitution_coef
+	 */
+	public static void bounce(Particle p, double ax, double ay, double bx, double by, double restitution_coef) {
+		double nx = bx - ax;
+		double ny = by - ay;
+		double vl = Math.sqrt(p.v.x * p.v.x + p.v.y * p.v.y);
 
     	// Angle between the boundary and the particle velocity
-		double theta = Math.acos(p.v.dot(n) / (n.length() * p.v.length()));
+		double theta = Math.acos((p.v.x * nx + p.v.y * ny) / (Math.sqrt(nx * nx + ny * ny) * vl));
 
-    	n.set(n.y, -n.x);
-		n.normalize();
+		// Normal to the boundary
+		double tmp = nx;
+		nx = ny;
+		ny = -tmp;
+		double norm = 1.0 / Math.sqrt(nx * nx + ny * ny);
+		nx *= norm;
+		ny *= norm;
 
-		if (n.dot(p.v) > 0) n.scale(-1);
+		if (nx * p.v.x + ny * p.v.y > 0) {
+			nx = -nx;
+			ny = -ny;
+		}
 
     	// Make sure we don't end up increasing the particle velocity
 //		if (n.dot(p.v) > 0) n.scale(-1);
 
-		n.scale(restitution_coef * 2 * p.v.length() * Math.sin(theta));
-		p.v.add(n);
-	
+		double s = restitution_coef * 2 * vl * Math.sin(theta);
+		p.v.x += nx * s;
+		p.v.y += ny * s;
 	}
 	
 }
@@ -5,9 +5,10 @@ import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -17,21 +18,20 @@ import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JPanel;
 import javax.vecmath.Point3d;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import tools.gl.ViewerHelper;
 import tools.parameters.BooleanParameter;
 import tools.parameters.DoubleParameter;
 import tools.spline.SplineFactory;
 import tools.swing.FileChooser;
-import tools.xml.XMLHelper;
+import tools.xml.XMLStreamHelper;
 
 import com.sun.opengl.util.GLUT;
 
 public class Contour {
-	private List<Point3d> points = new LinkedList<Point3d>();
+	private List<Point3d> points = new ArrayList<Point3d>();
 
 	private double[] ipoints = null;
 
@@ -213,6 +213,12 @@ public class Contour {
 
 	private String contourFile;
 
+	/**
+	 * Loads the contour from an XML file (.gz for a compressed one). The file
+	 * is streamed, so that large contours load in constant memory besides
+	 * the points, and the spline is only generated once all points are read.
+	 * @param filename
+	 */
 	public void loadContour(String filename) {
 		contourFile = filename;
 
@@ -223,31 +229,27 @@ public class Contour {
 		File f = new File(contourFile);
 		System.out.println("Loading contour from " + f.getAbsolutePath());
 
-		Document document = null;
-
 		try {
-			document = XMLHelper.openAsDOM(f.getAbsolutePath());
-
-			Element header = document.getDocumentElement();
-
-			Element res = XMLHelper.getFirstChildElementByTagName(header,
-					"resolution");
-			if (res != null) {
-				contourres.setValue(XMLHelper.getDoubleAttribute(res, "value"));
-			}
-
-			List<Element> elements = XMLHelper.getChildElementListByTagName(
-					header, "Point");
-			for (Element e : elements) {
-
-				Point3d p = new Point3d();
-				p.x = XMLHelper.getFloatAttribute(e, "xpos", 0);
-				p.y = XMLHelper.getFloatAttribute(e, "ypos", 0);
-				p.z = XMLHelper.getFloatAttribute(e, "zpos", 0);
-
-				addPoint(p);
+			InputStream in = XMLStreamHelper.openInput(f);
+			try {
+				XMLStreamReader reader = XMLStreamHelper.openReader(in);
+				while (XMLStreamHelper.nextElement(reader, null)) {
+					String name = reader.getLocalName();
+					if (name.equals("resolution")) {
+						contourres.setValue(XMLStreamHelper.getDoubleAttribute(reader, "value", contourres.getValue()));
+					}
+					else if (name.equals("Point")) {
+						Point3d p = new Point3d();
+						p.x = XMLStreamHelper.getDoubleAttribute(reader, "xpos", 0);
+						p.y = XMLStreamHelper.getDoubleAttribute(reader, "ypos", 0);
+						p.z = XMLStreamHelper.getDoubleAttribute(reader, "zpos", 0);
+						points.add(p);
+					}
+				}
+				reader.close();
+			} finally {
+				in.close();
 			}
-
 		} catch (Exception e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
@@ -256,47 +258,47 @@ public class Contour {
 		generatePoints();
 	}
 
+	/**
+	 * Saves the contour to an XML file (.gz for a compressed one), streaming
+	 * the points.
+	 * @param filename
+	 */
 	private void saveContour(String filename) {
 		contourFile = filename;
 
 		fc.setPath(filename);
 
 		try {
-			// Create file
-			FileWriter fstream = new FileWriter(contourFile);
-			BufferedWriter out = new BufferedWriter(fstream);
+			OutputStream out = XMLStreamHelper.openOutput(new File(contourFile));
 
 			System.out.println("Saving contour to "
 					+ (new File(filename)).getAbsolutePath());
 
-			// XML header
-			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-			out.write("\n<contour>");
-
-			out.write("\n\t<resolution value=\"" + contourres.getValue()
-					+ "\"/>\n");
-			for (Point3d p : points) {
-
-				// Info we want to keep:
-				// 1) id
-				// 2) linkedID (Point3d id for virtual marker and virtual marker
-				// id for mocap markers)
-				// 3) the rest should be saved in the javabin. with 1) + 2), we
-				// should have
-				// enough to get started (and this way we won't need to hand
-				// pick all
-				// the vertices again...)
-				out.write("\n\t<Point");
-				out.write(" xpos=\"" + p.x + "\"");
-				out.write(" ypos=\"" + p.y + "\"");
-				out.write(" zpos=\"" + p.z + "\"");
-				out.write("/>");
+			try {
+				XMLStreamWriter writer = XMLStreamHelper.openWriter(out);
+				writer.writeCharacters("\n");
+				writer.writeStartElement("contour");
+
+				writer.writeCharacters("\n\t");
+				writer.writeEmptyElement("resolution");
+				writer.writeAttribute("value", Double.toString(contourres.getValue()));
+				writer.writeCharacters("\n");
+				for (Point3d p : points) {
+					writer.writeCharacters("\n\t");
+					writer.writeEmptyElement("Point");
+					writer.writeAttribute("xpos", Double.toString(p.x));
+					writer.writeAttribute("ypos", Double.toString(p.y));
+					writer.writeAttribute("zpos", Double.toString(p.z));
+				}
+
+				// Footer
+				writer.writeCharacters("\n");
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				writer.close();
+			} finally {
+				out.close();
 			}
-
-			// Footer
-			out.write("\n</contour>");
-
-			out.close();
 		} catch (Exception e) {// Catch exception if any
 			System.err.println("Error: " + e.getMessage());
 		}
@@ -0,0 +1,180 @@
+package tools.gl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named work counters, shown next to the stopwatches. Counts are accumulated
+ * during a step, then {@link #snapshot()} makes them the values reported for
+ * that step and starts over.
+ * <p>
+ * Each counter is striped over cache-line separated cells indexed by thread,
+ * so that threads counting in parallel do not contend. Counting in a hot loop
+ * should still go to a local variable and be added once.
+ */
+public class CounterRegistry
+{
+    /**
+     * A single counter
+     */
+    public static class Counter
+    {
+        /**
+         * Longs per cache line, so that stripes do not share lines
+         */
+        private static final int PAD = 8;
+
+        private final String name;
+        private final AtomicLongArray cells;
+        private final int mask;
+        private long last = 0;
+
+        Counter(String name, int stripes)
+        {
+            this.name = name;
+            cells = new AtomicLongArray(stripes * PAD);
+            mask = stripes - 1;
+        }
+
+        /**
+         * Adds to the count of the current step
+         * @param x
+         */
+        public void add(long x)
+        {
+            int stripe = (int) Thread.currentThread().getId() & mask;
+            cells.addAndGet(stripe * PAD, x);
+        }
+
+        /**
+         * Adds one to the count of the current step
+         */
+        public void increment()
+        {
+            add(1);
+        }
+
+        /**
+         * @return the count of the current step so far
+         */
+        public long sum()
+        {
+            long sum = 0;
+            for(int i = 0; i <= mask; i++)
+            {
+                sum += cells.get(i * PAD);
+            }
+            return sum;
+        }
+
+        /**
+         * @return the count of the last step
+         */
+        public long getLast()
+        {
+            return last;
+        }
+
+        /**
+         * @return the name of this counter
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        void snapshot()
+        {
+            long sum = 0;
+            for(int i = 0; i <= mask; i++)
+            {
+                sum += cells.getAndSet(i * PAD, 0);
+            }
+            last = sum;
+        }
+    }
+
+    private final List<Counter> counters = new ArrayList<Counter>();
+    private final int stripes;
+    private int maxNameLen = 0;
+
+    /**
+     * Creates an empty registry with a stripe per processor thread, twice
+     */
+    public CounterRegistry()
+    {
+        int s = 1;
+        while(s < 2 * Runtime.getRuntime().availableProcessors()) s <<= 1;
+        stripes = s;
+    }
+
+    /**
+     * Adds a counter, or returns the existing one with that name
+     * @param name
+     * @return the counter
+     */
+    public Counter addCounter(String name)
+    {
+        Counter c = getCounter(name);
+        if(c == null)
+        {
+            c = new Counter(name, stripes);
+            counters.add(c);
+            maxNameLen = Math.max(maxNameLen, name.length());
+        }
+        return c;
+    }
+
+    /**
+     * @param name
+     * @return the counter with that name, or null
+     */
+    public Counter getCounter(String name)
+    {
+        for(Counter c : counters)
+        {
+            if(c.getName().equals(name)) return c;
+        }
+        return null;
+    }
+
+    /**
+     * @return all counters in the order they were added
+     */
+    public List<Counter> getCounters()
+    {
+        return counters;
+    }
+
+    /**
+     * Ends the step: the counts so far become those of the last step and the
+     * counters start over
+     */
+    public void snapshot()
+    {
+        for(int i = 0; i < counters.size(); i++)
+        {
+            counters.get(i).snapshot();
+        }
+    }
+
+    /**
+     * @return the counts of the last step, one counter per line
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        for(Counter c : counters)
+        {
+            out.append(c.getName());
+            for(int i = c.getName().length(); i < maxNameLen; ++i)
+            {
+                out.append(i % 2 == 0 ? '-' : ' ');
+            }
+            out.append(" | ").append(c.getLast()).append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,68 @@
+package tools.gl;
+
+import javax.media.opengl.GL;
+
+/**
+ * A display list that is compiled again only when it is invalidated or when
+ * it was lost with the GL context. Typical use, every frame:
+ * <pre>
+ * if(list.begin(gl))
+ * {
+ *     draw(gl);
+ *     list.end(gl);
+ * }
+ * list.call(gl);
+ * </pre>
+ */
+public class DisplayList
+{
+    private boolean dirty = true;
+    private int list = 0;
+
+    /**
+     * Compiles the list again on the next {@link #begin(GL)}
+     */
+    public void invalidate()
+    {
+        dirty = true;
+    }
+
+    /**
+     * Starts compiling the list if it is invalid or lost, the drawing calls
+     * that follow are then compiled until {@link #end(GL)}
+     * @param gl
+     * @return whether the list is being compiled
+     */
+    public boolean begin(GL gl)
+    {
+        // The list is lost with the context
+        if(list != 0 && !gl.glIsList(list)) list = 0;
+        if(list == 0)
+        {
+            list = gl.glGenLists(1);
+            dirty = true;
+        }
+        if(!dirty) return false;
+        gl.glNewList(list, GL.GL_COMPILE);
+        return true;
+    }
+
+    /**
+     * Ends the compilation started by {@link #begin(GL)}
+     * @param gl
+     */
+    public void end(GL gl)
+    {
+        gl.glEndList();
+        dirty = false;
+    }
+
+    /**
+     * Draws the list
+     * @param gl
+     */
+    public void call(GL gl)
+    {
+        gl.glCallList(list);
+    }
+}
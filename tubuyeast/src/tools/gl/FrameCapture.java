@@ -0,0 +1,305 @@
+package tools.gl;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+
+import tools.Uninterruptible;
+
+import com.sun.opengl.util.ImageUtil;
+
+/**
+ * Captures frames of a canvas to numbered png files without stalling the
+ * display, for assembling into a video.
+ * <p>
+ * Pixels are read into a ring of pixel pack buffers, so that
+ * <code>glReadPixels</code> returns immediately and a buffer is only mapped
+ * a few frames later, once the transfer is done. Without pixel buffer objects
+ * the pixels are read directly, as in {@link OpenglViewer#snapshot}.
+ * <p>
+ * Frames are then flipped and encoded by a pool of background threads. They
+ * come from a fixed pool of images: when the encoders fall behind and the
+ * pool is empty, frames are either dropped and counted, or the display waits
+ * for an image to be freed.
+ */
+public class FrameCapture
+{
+    private static final class Frame
+    {
+        BufferedImage image;
+        byte[] data;
+        int number;
+    }
+
+    private final File dir;
+    private final String prefix;
+    private final boolean block;
+
+    private final ArrayBlockingQueue<Frame> free;
+    private final ExecutorService encoders;
+
+    /**
+     * Pixel pack buffers, with the size of the pixels read into each one, 0
+     * if none
+     */
+    private final int[] pbo;
+    private final int[] pboWidth;
+    private final int[] pboHeight;
+    private final int[] pboCapacity;
+    private int head = 0;
+    private Boolean usePbo = null;
+
+    private int next = 0;
+    private int dropped = 0;
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile IOException error = null;
+
+    /**
+     * Creates a capture writing <code>prefix00000.png</code>,
+     * <code>prefix00001.png</code>... in a directory, which is created if
+     * needed.
+     * @param dir
+     * @param prefix
+     * @param buffers the number of pixel pack buffers in the ring, i.e. the
+     *        number of frames a readback has to complete
+     * @param threads the number of encoding threads
+     * @param capacity the number of frames that can be waiting to be encoded
+     * @param block whether to wait for the encoders rather than drop frames
+     *        when they fall behind
+     * @throws IOException if the directory cannot be created
+     */
+    public FrameCapture(File dir, String prefix, int buffers, int threads, int capacity, boolean block) throws IOException
+    {
+        if(!dir.isDirectory() && !dir.mkdirs())
+        {
+            throw new IOException("cannot create " + dir);
+        }
+        this.dir = dir;
+        this.prefix = prefix;
+        this.block = block;
+
+        pbo = new int[buffers];
+        pboWidth = new int[buffers];
+        pboHeight = new int[buffers];
+        pboCapacity = new int[buffers];
+
+        free = new ArrayBlockingQueue<Frame>(capacity);
+        for(int i = 0; i < capacity; i++)
+        {
+            free.add(new Frame());
+        }
+
+        encoders = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            private int count = 0;
+
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "frame encoder " + count++);
+                t.setDaemon(true);
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Captures the current content of the canvas. To be called at the end of
+     * the display, with the context current.
+     * @param drawable
+     */
+    public void capture(GLAutoDrawable drawable)
+    {
+        GL gl = drawable.getGL();
+        int width = drawable.getWidth();
+        int height = drawable.getHeight();
+
+        if(usePbo == null)
+        {
+            usePbo = Boolean.valueOf(gl.isExtensionAvailable("GL_ARB_pixel_buffer_object")
+                    && gl.isFunctionAvailable("glMapBuffer"));
+            if(usePbo.booleanValue()) gl.glGenBuffers(pbo.length, pbo, 0);
+        }
+
+        if(!usePbo.booleanValue())
+        {
+            Frame frame = take(width, height);
+            if(frame == null) return;
+            gl.glReadPixels(0, 0, width, height, GL.GL_ABGR_EXT, GL.GL_UNSIGNED_BYTE, ByteBuffer.wrap(frame.data));
+            encode(frame);
+            return;
+        }
+
+        // Finish the oldest readback before reusing its buffer
+        retire(gl, head);
+
+        int size = width * height * 4;
+        gl.glBindBuffer(GL.GL_PIXEL_PACK_BUFFER, pbo[head]);
+        if(pboCapacity[head] < size)
+        {
+            gl.glBufferData(GL.GL_PIXEL_PACK_BUFFER, size, null, GL.GL_STREAM_READ);
+            pboCapacity[head] = size;
+        }
+        gl.glReadPixels(0, 0, width, height, GL.GL_ABGR_EXT, GL.GL_UNSIGNED_BYTE, 0L);
+        gl.glBindBuffer(GL.GL_PIXEL_PACK_BUFFER, 0);
+        pboWidth[head] = width;
+        pboHeight[head] = height;
+        head = (head + 1) % pbo.length;
+    }
+
+    /**
+     * Encodes the frames still in the pixel pack buffers, waits for the
+     * encoders and releases the buffers. To be called with the context
+     * current.
+     * @param drawable
+     * @throws IOException if a frame could not be written
+     */
+    public void finish(GLAutoDrawable drawable) throws IOException
+    {
+        GL gl = drawable.getGL();
+        if(usePbo != null && usePbo.booleanValue())
+        {
+            for(int i = 0; i < pbo.length; i++)
+            {
+                retire(gl, (head + i) % pbo.length);
+            }
+            gl.glDeleteBuffers(pbo.length, pbo, 0);
+        }
+
+        encoders.shutdown();
+        Uninterruptible.awaitTermination(encoders);
+
+        if(error != null) throw error;
+    }
+
+    /**
+     * @return the number of frames captured so far, some of which may still
+     *         be encoded
+     */
+    public int getCaptured()
+    {
+        return next;
+    }
+
+    /**
+     * @return the number of frames written
+     */
+    public int getWritten()
+    {
+        return written.get();
+    }
+
+    /**
+     * @return the number of frames dropped because the encoders fell behind
+     */
+    public int getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return the directory the frames are written to
+     */
+    public File getDirectory()
+    {
+        return dir;
+    }
+
+    /**
+     * Copies the pixels of a buffer, if any, to a frame to encode
+     */
+    private void retire(GL gl, int i)
+    {
+        if(pboWidth[i] == 0) return;
+        int width = pboWidth[i];
+        int height = pboHeight[i];
+        pboWidth[i] = pboHeight[i] = 0;
+
+        Frame frame = take(width, height);
+        if(frame == null) return;
+
+        gl.glBindBuffer(GL.GL_PIXEL_PACK_BUFFER, pbo[i]);
+        ByteBuffer pixels = gl.glMapBuffer(GL.GL_PIXEL_PACK_BUFFER, GL.GL_READ_ONLY);
+        if(pixels != null)
+        {
+            pixels.clear();
+            pixels.get(frame.data, 0, width * height * 4);
+            gl.glUnmapBuffer(GL.GL_PIXEL_PACK_BUFFER);
+        }
+        gl.glBindBuffer(GL.GL_PIXEL_PACK_BUFFER, 0);
+
+        if(pixels == null)
+        {
+            // Give the frame and its number back
+            next--;
+            free.add(frame);
+            return;
+        }
+        encode(frame);
+    }
+
+    /**
+     * Takes a frame of the given size from the pool and numbers it, or
+     * returns null and counts a dropped frame.
+     */
+    private Frame take(int width, int height)
+    {
+        Frame frame = free.poll();
+        if(frame == null && block) frame = Uninterruptible.take(free);
+        if(frame == null)
+        {
+            dropped++;
+            return null;
+        }
+
+        if(frame.image == null || frame.image.getWidth() != width || frame.image.getHeight() != height)
+        {
+            frame.image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+            frame.data = ((DataBufferByte) frame.image.getRaster().getDataBuffer()).getData();
+        }
+        frame.number = next++;
+        return frame;
+    }
+
+    private void encode(final Frame frame)
+    {
+        encoders.execute(new Runnable()
+        {
+            public void run()
+            {
+                File file = new File(dir, prefix + String.format("%05d", frame.number) + ".png");
+                try
+                {
+                    ImageUtil.flipImageVertically(frame.image);
+                    if(ImageIO.write(frame.image, "png", file))
+                    {
+                        written.incrementAndGet();
+                    }
+                    else
+                    {
+                        error = new IOException("no png writer for " + file);
+                    }
+                }
+                catch(IOException e)
+                {
+                    error = e;
+                }
+                finally
+                {
+                    free.add(frame);
+                }
+            }
+        });
+    }
+}
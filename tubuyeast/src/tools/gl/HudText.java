@@ -0,0 +1,88 @@
+package tools.gl;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.GLAutoDrawable;
+
+/**
+ * Overlay text that is recomputed at a limited rate and drawn from a display
+ * list in between. Building the text (string formatting of stopwatches and
+ * counters) and issuing the bitmap characters one by one only happen when
+ * the text is refreshed, a few times per second, rather than every frame.
+ * <p>
+ * Typical use, every frame:
+ * <pre>
+ * if(hud.isDue()) hud.setText(buildText());
+ * hud.display(drawable, 10, 10, 12, GLUT.BITMAP_HELVETICA_10, color);
+ * </pre>
+ */
+public class HudText
+{
+    private long interval;
+    private long lastUpdate;
+    private boolean updated = false;
+
+    private String text = "";
+    private final DisplayList list = new DisplayList();
+
+    /**
+     * Creates a HUD refreshed at the given rate
+     * @param rate updates per second
+     */
+    public HudText(double rate)
+    {
+        setRate(rate);
+    }
+
+    /**
+     * @param rate updates per second
+     */
+    public void setRate(double rate)
+    {
+        interval = (long) (1e9 / rate);
+    }
+
+    /**
+     * @return whether the text should be recomputed and set again
+     */
+    public boolean isDue()
+    {
+        return !updated || System.nanoTime() - lastUpdate >= interval;
+    }
+
+    /**
+     * Sets the text and restarts the interval
+     * @param text lines delimited by '\n'
+     */
+    public void setText(String text)
+    {
+        lastUpdate = System.nanoTime();
+        updated = true;
+        if(!text.equals(this.text))
+        {
+            this.text = text;
+            list.invalidate();
+        }
+    }
+
+    /**
+     * Draws the text, compiling the display list again if the text changed.
+     * The position, font and color are compiled with the text.
+     * @param drawable
+     * @param x the starting x raster position
+     * @param y the starting y raster position
+     * @param h the height of each line
+     * @param font the font to use (e.g. GLUT.BITMAP_HELVETICA_10)
+     * @param color
+     */
+    public void display(GLAutoDrawable drawable, double x, double y, double h, int font, float[] color)
+    {
+        GL gl = drawable.getGL();
+        if(list.begin(gl))
+        {
+            gl.glColor3f(color[0], color[1], color[2]);
+            OpenglViewer.printTextLines(drawable, text, x, y, h, font);
+            list.end(gl);
+        }
+        list.call(gl);
+    }
+}
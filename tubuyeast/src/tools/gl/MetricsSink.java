@@ -0,0 +1,248 @@
+package tools.gl;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import tools.Uninterruptible;
+
+/**
+ * Writes one record per simulation step to a CSV or JSON-lines file: the step,
+ * the simulation time, some counters and the time spent in each stopwatch of
+ * a {@link StopWatchTree} since the previous record, in nanoseconds.
+ * <p>
+ * Records are written by a background thread. The caller fills rows taken
+ * from a fixed pool and hands them over through a bounded queue, so recording
+ * never blocks and does not allocate. When the writer falls behind and the
+ * pool is empty, records are dropped and counted.
+ */
+public class MetricsSink
+{
+    /**
+     * Marks the end of the records
+     */
+    private static final long[] END = new long[0];
+
+    private final boolean json;
+    private final Writer out;
+    private final String[] columns;
+
+    private final StopWatch[] watches;
+    private final long[] lastTotals;
+    private final int numCounters;
+
+    private final ArrayBlockingQueue<long[]> queue;
+    private final ArrayBlockingQueue<long[]> free;
+    private final Thread writer;
+
+    /**
+     * Only counted by the recording thread, but read from any thread
+     */
+    private volatile long dropped = 0;
+    private volatile IOException error = null;
+    private boolean closed = false;
+
+    /**
+     * Creates a sink writing JSON lines if the file name ends with .jsonl or
+     * .json, CSV otherwise.
+     * @param file
+     * @param tree the stopwatches to record
+     * @param counterNames names of the counters passed to {@link #record(long, double, long[])}
+     * @param capacity the number of records that can be waiting to be written
+     * @throws IOException
+     */
+    public MetricsSink(File file, StopWatchTree tree, String[] counterNames, int capacity) throws IOException
+    {
+        String name = file.getName().toLowerCase();
+        json = name.endsWith(".jsonl") || name.endsWith(".json");
+
+        List<StopWatch> list = tree.getStopWatches();
+        watches = list.toArray(new StopWatch[list.size()]);
+        lastTotals = new long[watches.length];
+        for(int i = 0; i < watches.length; i++)
+        {
+            lastTotals[i] = watches[i].getTotal();
+        }
+        numCounters = counterNames.length;
+
+        columns = new String[2 + numCounters + watches.length];
+        columns[0] = "step";
+        columns[1] = "time";
+        for(int i = 0; i < numCounters; i++)
+        {
+            columns[2 + i] = counterNames[i];
+        }
+        for(int i = 0; i < watches.length; i++)
+        {
+            columns[2 + numCounters + i] = watches[i].getName().replace('|', ' ').trim();
+        }
+
+        queue = new ArrayBlockingQueue<long[]>(capacity);
+        free = new ArrayBlockingQueue<long[]>(capacity);
+        for(int i = 0; i < capacity; i++)
+        {
+            free.add(new long[columns.length]);
+        }
+
+        out = new BufferedWriter(new FileWriter(file));
+        if(!json)
+        {
+            for(int i = 0; i < columns.length; i++)
+            {
+                if(i > 0) out.write(',');
+                out.write(csv(columns[i]));
+            }
+            out.write('\n');
+        }
+
+        writer = new Thread("metrics writer")
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a step. Stopwatch times are those accumulated since the
+     * previous record.
+     * @param step
+     * @param time
+     * @param counters values of the counters, in the order of their names
+     */
+    public void record(long step, double time, long[] counters)
+    {
+        long[] row = free.poll();
+        for(int i = 0; i < watches.length; i++)
+        {
+            long total = watches[i].getTotal();
+            if(row != null) row[2 + numCounters + i] = total - lastTotals[i];
+            lastTotals[i] = total;
+        }
+        if(row == null)
+        {
+            dropped++;
+            return;
+        }
+
+        row[0] = step;
+        row[1] = Double.doubleToLongBits(time);
+        System.arraycopy(counters, 0, row, 2, numCounters);
+        queue.add(row);
+    }
+
+    /**
+     * @return the number of records dropped because the writer fell behind
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Writes the remaining records and closes the file. Closing again has
+     * no effect.
+     * @throws IOException if writing failed
+     */
+    public synchronized void close() throws IOException
+    {
+        if(closed) return;
+        closed = true;
+        Uninterruptible.put(queue, END);
+        Uninterruptible.join(writer);
+
+        out.close();
+        if(error != null) throw error;
+    }
+
+    /**
+     * Writer thread loop
+     */
+    private void write()
+    {
+        StringBuilder line = new StringBuilder();
+        while(true)
+        {
+            long[] row;
+            try
+            {
+                row = queue.take();
+            }
+            catch(InterruptedException e)
+            {
+                continue;
+            }
+            if(row == END) break;
+
+            if(error == null)
+            {
+                line.setLength(0);
+                format(row, line);
+                try
+                {
+                    out.append(line);
+
+                    // Keep the file current during long runs
+                    if(queue.isEmpty()) out.flush();
+                }
+                catch(IOException e)
+                {
+                    error = e;
+                }
+            }
+            free.add(row);
+        }
+    }
+
+    private void format(long[] row, StringBuilder line)
+    {
+        double time = Double.longBitsToDouble(row[1]);
+        if(json)
+        {
+            // JSON has no NaN or infinity
+            line.append("{\"step\":").append(row[0]).append(",\"time\":");
+            if(Double.isNaN(time) || Double.isInfinite(time)) line.append("null");
+            else line.append(time);
+            for(int i = 2; i < row.length; i++)
+            {
+                line.append(",\"");
+                appendEscaped(columns[i], line);
+                line.append("\":").append(row[i]);
+            }
+            line.append("}\n");
+        }
+        else
+        {
+            line.append(row[0]).append(',').append(time);
+            for(int i = 2; i < row.length; i++)
+            {
+                line.append(',').append(row[i]);
+            }
+            line.append('\n');
+        }
+    }
+
+    private static String csv(String s)
+    {
+        if(s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static void appendEscaped(String s, StringBuilder b)
+    {
+        for(int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if(c == '"' || c == '\\') b.append('\\');
+            b.append(c);
+        }
+    }
+}
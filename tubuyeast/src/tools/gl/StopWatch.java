@@ -4,9 +4,18 @@
 package tools.gl;
 
 import java.text.NumberFormat;
+import java.util.Arrays;
 
 /**
  * A StopWatch object for simple profiling, based on System.nanoTime()
+ * <p>
+ * Besides the total and average, each stopwatch keeps a histogram of its lap
+ * times in logarithmic buckets (8 per power of two, so within 12.5%) from
+ * which the percentiles are computed. The histogram has a fixed size and can
+ * be restarted at a regular interval so that it reflects recent laps only.
+ * All stopwatches can be disabled with {@link #setEnabled(boolean)} or the
+ * stopwatch.disabled system property, in which case start and stop do
+ * nothing.
  * @author Shinjiro Sueda
  */
 public class StopWatch
@@ -16,8 +25,35 @@ public class StopWatch
     private long t0;
     private int n;
     private long total;
-    private long avg;
+    private double avg;
     double alpha = 0.1;
+
+    /**
+     * Histogram resolution: 2^SUB_BITS buckets per power of two
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB = 1 << SUB_BITS;
+
+    /**
+     * Enough buckets for any positive long
+     */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    /**
+     * Lap counts of the current interval, and of the last complete one
+     */
+    private long[] counts = new long[BUCKETS];
+    private long[] previous = new long[BUCKETS];
+    private long count, max;
+    private long previousCount, previousMax;
+
+    /**
+     * Histogram reset interval in nanoseconds, 0 to never reset
+     */
+    private long resetInterval = 0;
+    private long intervalStart = System.nanoTime();
+
+    private static boolean enabled = !Boolean.getBoolean("stopwatch.disabled");
     
     private static int maxNameLen = 0;
     private static int num = 0;
@@ -53,12 +89,30 @@ public class StopWatch
         ++num;
     }
     
+    /**
+     * Enables or disables all stopwatches
+     * @param enable
+     */
+    public static void setEnabled(boolean enable)
+    {
+        enabled = enable;
+    }
+
+    /**
+     * @return whether stopwatches are enabled
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
     /**
      * Starts the StopWatch
      */
     public void start()
     {
-        t0 = System.nanoTime() / 1000;
+        if(!enabled) return;
+        t0 = System.nanoTime();
     }
     
     /**
@@ -66,13 +120,137 @@ public class StopWatch
      */
     public void stop()
     {
-        long t1 = System.nanoTime() / 1000;
+        if(!enabled) return;
+        long t1 = System.nanoTime();
         long diff = t1 - t0;
         total += diff;
-        avg = (long)((1 - alpha) * avg + alpha * diff);
+        avg = (1 - alpha) * avg + alpha * diff;
         ++n;
+
+        if(resetInterval > 0 && t1 - intervalStart >= resetInterval)
+        {
+            restartInterval(t1);
+        }
+        counts[bucket(diff)]++;
+        count++;
+        if(diff > max) max = diff;
+    }
+
+    /**
+     * Restarts the histogram every given number of milliseconds. The
+     * percentiles are then those of the last complete interval.
+     * @param ms the interval, 0 to accumulate over all laps
+     */
+    public void setResetInterval(long ms)
+    {
+        resetInterval = ms * 1000000;
+        restartInterval(System.nanoTime());
+    }
+
+    private void restartInterval(long now)
+    {
+        long[] tmp = previous;
+        previous = counts;
+        counts = tmp;
+        Arrays.fill(counts, 0);
+        previousCount = count;
+        previousMax = max;
+        count = 0;
+        max = 0;
+        intervalStart = now;
+    }
+
+    /**
+     * Clears all laps
+     */
+    public void reset()
+    {
+        n = 0;
+        total = 0;
+        avg = 0;
+        Arrays.fill(counts, 0);
+        Arrays.fill(previous, 0);
+        count = max = previousCount = previousMax = 0;
+        intervalStart = System.nanoTime();
+    }
+
+    /**
+     * @param v a lap time
+     * @return its histogram bucket
+     */
+    private static int bucket(long v)
+    {
+        if(v < SUB) return v < 0 ? 0 : (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+        return (e - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /**
+     * @param b a histogram bucket
+     * @return the largest lap time of the bucket
+     */
+    private static long upperBound(int b)
+    {
+        if(b < SUB) return b;
+        int e = b / SUB + SUB_BITS - 1;
+        long lower = ((long) (SUB + b % SUB)) << (e - SUB_BITS);
+        return lower + (1L << (e - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param q the fraction of laps, between 0 and 1
+     * @return the lap time in nanoseconds that this fraction of laps did not
+     * exceed, within the histogram resolution
+     */
+    public long getPercentile(double q)
+    {
+        long[] h = counts;
+        long c = count, m = max;
+        if(resetInterval > 0 && previousCount > 0)
+        {
+            h = previous;
+            c = previousCount;
+            m = previousMax;
+        }
+        if(c == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(q * c));
+        long seen = 0;
+        for(int b = 0; b < BUCKETS; b++)
+        {
+            seen += h[b];
+            if(seen >= rank) return Math.min(upperBound(b), m);
+        }
+        return m;
+    }
+
+    /**
+     * @return the longest lap time in nanoseconds, over the same laps as
+     * {@link #getPercentile(double)}
+     */
+    public long getMax()
+    {
+        if(resetInterval > 0 && previousCount > 0) return previousMax;
+        return max;
     }
     
+    /**
+     * @return the total time of all laps in nanoseconds
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    /**
+     * @return the number of laps
+     */
+    public int getLaps()
+    {
+        return n;
+    }
+
     /** 
      * @return the name of this StopWatch
      */
@@ -108,15 +286,21 @@ public class StopWatch
         formatter.setMaximumIntegerDigits(11);
         
         // Total lap time accumulated so far
-        String totalStr = formatter.format(total);
+        String totalStr = formatter.format(total / 1000);
         formatter.setMinimumIntegerDigits(7);
         formatter.setMaximumIntegerDigits(7);
         
         // Average time per lap
-        String avgStr = formatter.format(avg);
+        String avgStr = formatter.format((long) avg / 1000);
+
+        // Percentiles
+        String pStr = formatter.format(getPercentile(0.5) / 1000) + "  " +
+            formatter.format(getPercentile(0.9) / 1000) + "  " +
+            formatter.format(getPercentile(0.99) / 1000) + "  " +
+            formatter.format(getMax() / 1000);
         return
             nameStr + " | " + nStr + "  " +
-            totalStr + "  " + avgStr + " | " + comment;
+            totalStr + "  " + avgStr + " | " + pStr + " | " + comment;
     }
 
     public String toShortString()
@@ -125,7 +309,7 @@ public class StopWatch
         nameStr.append(" -");
         formatter.setMinimumIntegerDigits(7);
         formatter.setMaximumIntegerDigits(10);
-        String avgStr = formatter.format(avg*1000);
+        String avgStr = formatter.format((long) avg / 1000 * 1000);
         return
             nameStr + " |" + "  " +
             avgStr + " ms |" + comment;
@@ -149,5 +333,17 @@ public class StopWatch
         }
         sw.stop();
         System.out.println(sw);
+
+        // Percentiles of known laps, within the histogram resolution
+        sw.reset();
+        for(int i = 1; i <= 1000; i++)
+        {
+            long t = i * 1000L;
+            sw.counts[bucket(t)]++;
+            sw.count++;
+            sw.max = Math.max(sw.max, t);
+        }
+        System.out.println("p50 = " + sw.getPercentile(0.5) + " (500000), p90 = " + sw.getPercentile(0.9) +
+            " (900000), p99 = " + sw.getPercentile(0.99) + " (990000), max = " + sw.getMax() + " (1000000)");
     }
 }
@@ -3,6 +3,7 @@
  */
 package tools.gl;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -67,8 +68,47 @@ public class StopWatchTree
         return null;
     }
     
+    /**
+     * @return all stopwatches, parents before their children
+     */
+    public List<StopWatch> getStopWatches()
+    {
+        List<StopWatch> list = new ArrayList<StopWatch>();
+        for(TreeElem elem : elems)
+        {
+            if(elem != root) list.add(elem.getStopWatch());
+        }
+        return list;
+    }
+    
+    /**
+     * Restarts the histograms of all stopwatches every given number of
+     * milliseconds
+     * @param ms the interval, 0 to accumulate over all laps
+     */
+    public void setResetInterval(long ms)
+    {
+        for(TreeElem elem : elems)
+        {
+            elem.getStopWatch().setResetInterval(ms);
+        }
+    }
+    
+    /**
+     * Clears the laps of all stopwatches
+     */
+    public void reset()
+    {
+        for(TreeElem elem : elems)
+        {
+            elem.getStopWatch().reset();
+        }
+    }
+    
     /** 
-     * @return all stopwatches converted to strings
+     * @return all stopwatches converted to strings, with the number of laps,
+     * total and average, then the p50, p90, p99 and max lap times, all in
+     * microseconds
      */
     public String[] getStopWatchData()
     {
@@ -88,7 +128,7 @@ public class StopWatchTree
     @Override
     public String toString() {
         String[] strs = getStopWatchData();
-        String out = "";
+        String out = "laps, total, avg | p50, p90, p99, max (us)\n";
         for ( String s : strs ) {
             out = out + s + "\n";
         }
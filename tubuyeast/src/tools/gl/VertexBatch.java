@@ -0,0 +1,158 @@
+package tools.gl;
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.BufferUtil;
+
+/**
+ * Colored 2D vertices packed in direct buffers and drawn with a single call,
+ * instead of one glBegin/glEnd pair per primitive. Vertices take the current
+ * color. Vertices added between {@link #beginStrip()} and {@link #endStrip()}
+ * form a strip, and all strips are drawn by one glMultiDrawArrays call.
+ * <p>
+ * Buffers grow as needed and are kept between frames, so refilling a batch
+ * every frame does not allocate.
+ */
+public class VertexBatch
+{
+    private FloatBuffer vertices;
+    private FloatBuffer colors;
+    private int capacity;
+    private int count = 0;
+
+    private float r = 1, g = 1, b = 1, a = 1;
+
+    private int[] firsts = new int[16];
+    private int[] counts = new int[16];
+    private int strips = 0;
+    private int stripStart = -1;
+
+    /**
+     * Creates an empty batch
+     */
+    public VertexBatch()
+    {
+        allocate(256);
+    }
+
+    private void allocate(int n)
+    {
+        FloatBuffer v = BufferUtil.newFloatBuffer(2 * n);
+        FloatBuffer c = BufferUtil.newFloatBuffer(4 * n);
+        if(vertices != null)
+        {
+            for(int i = 0; i < 2 * count; i++) v.put(i, vertices.get(i));
+            for(int i = 0; i < 4 * count; i++) c.put(i, colors.get(i));
+        }
+        vertices = v;
+        colors = c;
+        capacity = n;
+    }
+
+    /**
+     * Removes all vertices and strips
+     */
+    public void clear()
+    {
+        count = 0;
+        strips = 0;
+        stripStart = -1;
+    }
+
+    /**
+     * @return the number of vertices
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Sets the color of the following vertices
+     * @param r
+     * @param g
+     * @param b
+     * @param a
+     */
+    public void color(double r, double g, double b, double a)
+    {
+        this.r = (float) r;
+        this.g = (float) g;
+        this.b = (float) b;
+        this.a = (float) a;
+    }
+
+    /**
+     * Adds a vertex of the current color
+     * @param x
+     * @param y
+     */
+    public void vertex(double x, double y)
+    {
+        if(count == capacity) allocate(2 * capacity);
+        vertices.put(2 * count, (float) x);
+        vertices.put(2 * count + 1, (float) y);
+        colors.put(4 * count, r);
+        colors.put(4 * count + 1, g);
+        colors.put(4 * count + 2, b);
+        colors.put(4 * count + 3, a);
+        count++;
+    }
+
+    /**
+     * Starts a strip with the next vertex
+     */
+    public void beginStrip()
+    {
+        stripStart = count;
+    }
+
+    /**
+     * Ends the strip started by {@link #beginStrip()}
+     */
+    public void endStrip()
+    {
+        if(strips == firsts.length)
+        {
+            int[] f = new int[2 * strips];
+            int[] c = new int[2 * strips];
+            System.arraycopy(firsts, 0, f, 0, strips);
+            System.arraycopy(counts, 0, c, 0, strips);
+            firsts = f;
+            counts = c;
+        }
+        firsts[strips] = stripStart;
+        counts[strips] = count - stripStart;
+        strips++;
+        stripStart = -1;
+    }
+
+    /**
+     * Draws the vertices, as strips if there are any
+     * @param gl
+     * @param mode the primitive, e.g. GL_POINTS, GL_LINES or GL_LINE_STRIP
+     */
+    public void draw(GL gl, int mode)
+    {
+        if(count == 0) return;
+
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL.GL_COLOR_ARRAY);
+        gl.glVertexPointer(2, GL.GL_FLOAT, 0, vertices);
+        gl.glColorPointer(4, GL.GL_FLOAT, 0, colors);
+
+        if(strips > 0)
+        {
+            gl.glMultiDrawArrays(mode, firsts, 0, counts, 0, strips);
+        }
+        else
+        {
+            gl.glDrawArrays(mode, 0, count);
+        }
+
+        gl.glDisableClientState(GL.GL_COLOR_ARRAY);
+        gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+    }
+}
@@ -0,0 +1,367 @@
+package tools.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * This (non-instanciable) class provides helper methods for reading and
+ * writing XML as a stream (StAX), alongside the DOM methods of
+ * {@link XMLHelper}. Only the element being read or written is held in
+ * memory, so large files are loaded in constant memory.
+ * <p>
+ * <code>XMLLoadable</code> and <code>XMLExportable</code> objects are
+ * loaded and exported one element at a time: the element is converted to or
+ * from a small DOM element owned by a scratch <code>Document</code>
+ * ({@link XMLHelper#createDOMInMemory()}), which can be reused for all the
+ * elements of a file.
+ * <p>
+ * Typical use, loading every <code>Point</code> of a large file:
+ * <pre>
+ * XMLStreamReader reader = XMLStreamHelper.openReader(in);
+ * Document scratch = XMLHelper.createDOMInMemory();
+ * while (XMLStreamHelper.nextElement(reader, "Point"))
+ *     points.add(XMLStreamHelper.loadObject(XMLPoint2d.class, reader, scratch));
+ * </pre>
+ */
+public abstract class XMLStreamHelper
+{
+    /**
+     * This class is not intended for instanciation.  Hence the
+     * <code>private</code> default constructor.
+     */
+    private XMLStreamHelper()
+    {
+        // Do nothing
+    }
+
+    /**
+     * Opens a file for reading, decompressing it if its name ends with .gz
+     *
+     * @param file the file to open
+     * @return a buffered stream
+     * @throws IOException if the file cannot be opened
+     */
+    public static InputStream openInput(File file) throws IOException
+    {
+        InputStream inputStream = new FileInputStream(file);
+        if (file.getName().endsWith(".gz"))
+        {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        return new BufferedInputStream(inputStream, 1 << 16);
+    }
+
+    /**
+     * Opens a file for writing, compressing it if its name ends with .gz
+     *
+     * @param file the file to create
+     * @return a buffered stream
+     * @throws IOException if the file cannot be created
+     */
+    public static OutputStream openOutput(File file) throws IOException
+    {
+        OutputStream outputStream = new FileOutputStream(file);
+        if (file.getName().endsWith(".gz"))
+        {
+            outputStream = new GZIPOutputStream(outputStream, 1 << 16);
+        }
+        return new BufferedOutputStream(outputStream, 1 << 16);
+    }
+
+    /**
+     * Creates a stream reader. Closing the reader does not close the stream.
+     *
+     * @param inputStream the XML to read
+     * @return the reader, before the start of the document
+     * @throws XMLException if the reader cannot be created
+     */
+    public static XMLStreamReader openReader(InputStream inputStream)
+        throws XMLException
+    {
+        try
+        {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            return factory.createXMLStreamReader(inputStream);
+        }
+        catch (XMLStreamException xse)
+        {
+            throw new XMLException("Failed to open XML stream.", xse);
+        }
+    }
+
+    /**
+     * Creates a stream writer and writes the XML declaration. Closing the
+     * writer does not close the stream.
+     *
+     * @param outputStream where to write the XML
+     * @return the writer
+     * @throws XMLException if the writer cannot be created
+     */
+    public static XMLStreamWriter openWriter(OutputStream outputStream)
+        throws XMLException
+    {
+        try
+        {
+            XMLStreamWriter writer =
+                XMLOutputFactory.newInstance().createXMLStreamWriter(outputStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            return writer;
+        }
+        catch (XMLStreamException xse)
+        {
+            throw new XMLException("Failed to open XML stream.", xse);
+        }
+    }
+
+    /**
+     * Moves the reader to the start of the next element with the given name,
+     * at any depth.
+     *
+     * @param reader
+     * @param name the tag name, or <code>null</code> for any element
+     * @return <code>false</code> if the end of the document was reached
+     * @throws XMLException if the XML cannot be parsed
+     */
+    public static boolean nextElement(XMLStreamReader reader, String name)
+        throws XMLException
+    {
+        try
+        {
+            while (reader.hasNext())
+            {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && (name == null || name.equals(reader.getLocalName())))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch (XMLStreamException xse)
+        {
+            throw new XMLException("Failed to parse XML stream.", xse);
+        }
+    }
+
+    /**
+     * Reads the element the reader is on, with its attributes and content,
+     * into a DOM element. The reader is left on the end of the element.
+     *
+     * @param reader a reader on a start element
+     * @param document the document that will own the element, which is not
+     *        added to it
+     * @return the element
+     * @throws XMLException if the XML cannot be parsed
+     */
+    public static Element readElement(XMLStreamReader reader, Document document)
+        throws XMLException
+    {
+        try
+        {
+            Element root = createElement(reader, document);
+            Node current = root;
+            while (current != null)
+            {
+                switch (reader.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT :
+                        Element child = createElement(reader, document);
+                        current.appendChild(child);
+                        current = child;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT :
+                        current = current == root ? null : current.getParentNode();
+                        break;
+                    case XMLStreamConstants.CHARACTERS :
+                    case XMLStreamConstants.SPACE :
+                        current.appendChild(document.createTextNode(reader.getText()));
+                        break;
+                    case XMLStreamConstants.CDATA :
+                        current.appendChild(document.createCDATASection(reader.getText()));
+                        break;
+                    default :
+                        break;
+                }
+            }
+            return root;
+        }
+        catch (XMLStreamException xse)
+        {
+            throw new XMLException("Failed to parse XML stream.", xse);
+        }
+    }
+
+    private static Element createElement(XMLStreamReader reader, Document document)
+    {
+        Element element = document.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+        {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Instanciates and loads an object from the element the reader is on,
+     * as {@link XMLHelper#loadObject(Class, Node)} does. The reader is left
+     * on the end of the element.
+     *
+     * @param <InstanceType> the type of object to be loaded
+     * @param objectClass the class of the object to be loaded
+     * @param reader a reader on a start element
+     * @param document a scratch document
+     * @return the loaded object
+     * @throws XMLException if the object cannot be loaded
+     * @throws InitializationException if the object cannot be initialized
+     */
+    public static <InstanceType extends XMLLoadable> InstanceType loadObject(Class<InstanceType> objectClass,
+                                                                             XMLStreamReader reader,
+                                                                             Document document)
+        throws XMLException,
+            InitializationException
+    {
+        return XMLHelper.loadObject(objectClass, readElement(reader, document));
+    }
+
+    /**
+     * Loads an object from the element the reader is on. The reader is left
+     * on the end of the element.
+     *
+     * @param object the object to load
+     * @param reader a reader on a start element
+     * @param document a scratch document
+     * @throws XMLException if the object cannot be loaded
+     * @throws InitializationException if the object cannot be initialized
+     */
+    public static void load(XMLLoadable object, XMLStreamReader reader, Document document)
+        throws XMLException,
+            InitializationException
+    {
+        object.loadFromXML(readElement(reader, document));
+    }
+
+    /**
+     * Exports an object as an element and writes it.
+     *
+     * @param writer
+     * @param name the tag name of the element
+     * @param object the object to export
+     * @param document a scratch document
+     * @throws XMLException if the object cannot be exported or written
+     */
+    public static void export(XMLStreamWriter writer, String name, XMLExportable object, Document document)
+        throws XMLException
+    {
+        Element element = document.createElement(name);
+        object.exportAsXML(element);
+        writeElement(writer, element);
+    }
+
+    /**
+     * Writes a DOM element with its attributes and content.
+     *
+     * @param writer
+     * @param element
+     * @throws XMLException if the element cannot be written
+     */
+    public static void writeElement(XMLStreamWriter writer, Element element)
+        throws XMLException
+    {
+        try
+        {
+            writeNode(writer, element);
+        }
+        catch (XMLStreamException xse)
+        {
+            throw new XMLException("Failed to write XML stream.", xse);
+        }
+    }
+
+    private static void writeNode(XMLStreamWriter writer, Node node)
+        throws XMLStreamException
+    {
+        switch (node.getNodeType())
+        {
+            case Node.ELEMENT_NODE :
+                NodeList children = node.getChildNodes();
+                if (children.getLength() == 0)
+                {
+                    writer.writeEmptyElement(node.getNodeName());
+                }
+                else
+                {
+                    writer.writeStartElement(node.getNodeName());
+                }
+                NamedNodeMap attributes = node.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    Attr attribute = (Attr) attributes.item(i);
+                    writer.writeAttribute(attribute.getName(), attribute.getValue());
+                }
+                if (children.getLength() > 0)
+                {
+                    for (int i = 0; i < children.getLength(); i++)
+                    {
+                        writeNode(writer, children.item(i));
+                    }
+                    writer.writeEndElement();
+                }
+                break;
+            case Node.TEXT_NODE :
+                writer.writeCharacters(node.getNodeValue());
+                break;
+            case Node.CDATA_SECTION_NODE :
+                writer.writeCData(node.getNodeValue());
+                break;
+            default :
+                break;
+        }
+    }
+
+    /**
+     * Reads a double attribute of the element the reader is on.
+     *
+     * @param reader a reader on a start element
+     * @param name the name of the attribute
+     * @param defaultValue the value if the attribute is absent
+     * @return the value of the attribute
+     * @throws XMLException if the attribute is not a number
+     */
+    public static double getDoubleAttribute(XMLStreamReader reader, String name, double defaultValue)
+        throws XMLException
+    {
+        String value = reader.getAttributeValue(null, name);
+        if (value == null) return defaultValue;
+        try
+        {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException nfe)
+        {
+            throw new XMLException("Invalid value for attribute " + name + ": " + value, nfe);
+        }
+    }
+}